@@ -0,0 +1,133 @@
+package org.wheel.context;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.ResourceEntityResolver;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.wheel.context.support.CachingXmlBeanDefinitionReader;
+import org.wheel.context.support.ComponentCandidateIndex;
+import org.wheel.context.support.IndexedContextNamespaceHandlerResolver;
+import org.wheel.context.support.ParentResourceCache;
+import org.wheel.context.support.XmlDocumentCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 설정 XML의 파싱 결과를 reload 간에 재사용하고, 여러 설정 파일을 병렬로 파싱하는 {@link ClassPathXmlApplicationContext}.
+ * {@link DefaultContextLoader}가 모든 load에 같은 {@link XmlDocumentCache}를 설정한다.
+ * jar별 {@link ComponentCandidateIndex}가 설정되면 &lt;context:component-scan&gt;은 index에 있는 class만 읽는다.
+ * {@link ParentResourceCache}가 설정되면 "classpath*:" pattern은 {@link ImageResourcePatternResolver}로 찾는다.
+ *
+ * @see CachingXmlBeanDefinitionReader
+ * @see IndexedContextNamespaceHandlerResolver
+ */
+public class CachingClassPathXmlApplicationContext extends ClassPathXmlApplicationContext {
+
+    private XmlDocumentCache documentCache;
+    private int parsingParallelism = Runtime.getRuntime().availableProcessors();
+    private Map<File, ComponentCandidateIndex> componentCandidateIndexes;
+    private ResourcePatternResolver imageResourcePatternResolver;
+
+    public CachingClassPathXmlApplicationContext() {
+        super();
+    }
+
+    public XmlDocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    /**
+     * null이면 cache 없이 파싱한다.
+     */
+    public void setDocumentCache(XmlDocumentCache documentCache) {
+        this.documentCache = documentCache;
+    }
+
+    public int getParsingParallelism() {
+        return parsingParallelism;
+    }
+
+    /**
+     * 설정 파일 파싱에 사용할 스레드 수. 기본값은 processor 수이며 1이면 순서대로 파싱한다.
+     */
+    public void setParsingParallelism(int parsingParallelism) {
+        this.parsingParallelism = parsingParallelism;
+    }
+
+    public Map<File, ComponentCandidateIndex> getComponentCandidateIndexes() {
+        return componentCandidateIndexes;
+    }
+
+    /**
+     * jar 파일 -&gt; component 후보 index. null이면 component scan이 모든 class를 읽는다.
+     */
+    public void setComponentCandidateIndexes(Map<File, ComponentCandidateIndex> componentCandidateIndexes) {
+        this.componentCandidateIndexes = componentCandidateIndexes;
+    }
+
+    /**
+     * null이면 "classpath*:" pattern을 찾을 때마다 부모 classloader의 모든 jar도 찾는다.
+     */
+    public void setParentResourceCache(ParentResourceCache parentResourceCache) {
+        this.imageResourcePatternResolver = parentResourceCache != null
+                ? new ImageResourcePatternResolver(this, parentResourceCache) : null;
+    }
+
+    @Override
+    public Resource[] getResources(String locationPattern) throws IOException {
+        if(this.imageResourcePatternResolver != null) {
+            return this.imageResourcePatternResolver.getResources(locationPattern);
+        }
+        return super.getResources(locationPattern);
+    }
+
+    /**
+     * {@link org.springframework.context.support.AbstractXmlApplicationContext}와 같고 reader와 namespace handler만 다르다.
+     */
+    @Override
+    protected void loadBeanDefinitions(DefaultListableBeanFactory beanFactory) throws BeansException, IOException {
+        XmlBeanDefinitionReader beanDefinitionReader = new CachingXmlBeanDefinitionReader(beanFactory, this.documentCache, getClassLoader());
+        beanDefinitionReader.setEnvironment(getEnvironment());
+        beanDefinitionReader.setResourceLoader(this);
+        beanDefinitionReader.setEntityResolver(new ResourceEntityResolver(this));
+        if(this.componentCandidateIndexes != null) {
+            beanDefinitionReader.setNamespaceHandlerResolver(
+                    new IndexedContextNamespaceHandlerResolver(getClassLoader(), this.componentCandidateIndexes));
+        }
+        initBeanDefinitionReader(beanDefinitionReader);
+        loadBeanDefinitions(beanDefinitionReader);
+    }
+
+    /**
+     * 모든 설정 파일을 병렬로 미리 파싱한 후, bean definition은 설정 순서대로 등록한다.
+     */
+    @Override
+    protected void loadBeanDefinitions(XmlBeanDefinitionReader reader) throws BeansException, IOException {
+        if(!(reader instanceof CachingXmlBeanDefinitionReader)) {
+            super.loadBeanDefinitions(reader);
+            return;
+        }
+        CachingXmlBeanDefinitionReader cachingReader = (CachingXmlBeanDefinitionReader)reader;
+        try {
+            String[] configLocations = getConfigLocations();
+            if(configLocations != null && this.parsingParallelism > 1) {
+                List<Resource> resources = new ArrayList<Resource>();
+                for(String configLocation : configLocations) {
+                    resources.addAll(Arrays.asList(getResources(configLocation)));
+                }
+                cachingReader.prefetchDocuments(resources, this.parsingParallelism);
+            }
+            super.loadBeanDefinitions(reader);
+        } finally {
+            cachingReader.clearPrefetchedDocuments();
+        }
+    }
+}
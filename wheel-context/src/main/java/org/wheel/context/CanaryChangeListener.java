@@ -0,0 +1,15 @@
+package org.wheel.context;
+
+/**
+ * canary 변경을 통지받는 listener. {@link MultiVersionContextContainer#addListener}로 등록하면 호출된다.
+ */
+public interface CanaryChangeListener extends MultiVersionContextContainerListener {
+
+    /**
+     * canary image 또는 그 weight가 변경되기 전에 호출된다. beforeActivation과 같은 이유로 다시 호출될 수 있다.
+     *
+     * @param canary        canary image. canary가 종료(승격 또는 rollback)된 경우 null
+     * @param weightPercent canary로 보낼 요청의 비율(0~100)
+     */
+    void canaryChanged(ContextLoadImage canary, int weightPercent);
+}
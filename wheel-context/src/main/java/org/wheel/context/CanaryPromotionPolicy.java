@@ -0,0 +1,67 @@
+package org.wheel.context;
+
+/**
+ * canary image와 stable image의 한 단계 동안의 통계를 비교하여 다음 단계로 진행할지 결정한다.
+ *
+ * canary의 오류율이 stable보다 maxErrorRateIncrease 넘게 높거나,
+ * 평균 처리시간이 stable의 maxLatencyRatio 배를 넘으면 rollback 한다.
+ * canary 요청 수가 minRequests에 못 미치면 판단을 보류한다.
+ */
+public class CanaryPromotionPolicy {
+
+    public enum Verdict {
+        ADVANCE,
+        HOLD,
+        ROLLBACK
+    }
+
+    private long minRequests = 100;
+    private double maxErrorRateIncrease = 0.01;
+    private double maxLatencyRatio = 1.5;
+
+    public long getMinRequests() {
+        return minRequests;
+    }
+
+    public void setMinRequests(long minRequests) {
+        this.minRequests = minRequests;
+    }
+
+    public double getMaxErrorRateIncrease() {
+        return maxErrorRateIncrease;
+    }
+
+    public void setMaxErrorRateIncrease(double maxErrorRateIncrease) {
+        this.maxErrorRateIncrease = maxErrorRateIncrease;
+    }
+
+    public double getMaxLatencyRatio() {
+        return maxLatencyRatio;
+    }
+
+    public void setMaxLatencyRatio(double maxLatencyRatio) {
+        this.maxLatencyRatio = maxLatencyRatio;
+    }
+
+    /**
+     * @param canaryWindow 이번 단계 동안의 canary 통계
+     * @param stableWindow 이번 단계 동안의 stable 통계
+     */
+    public Verdict evaluate(ImageTrafficStats canaryWindow, ImageTrafficStats stableWindow) {
+        if(canaryWindow.getRequestCount() < minRequests) {
+            return Verdict.HOLD;
+        }
+
+        if(canaryWindow.getErrorRate() > stableWindow.getErrorRate() + maxErrorRateIncrease) {
+            return Verdict.ROLLBACK;
+        }
+
+        // stable 쪽 요청이 없으면(weight 100%) 처리시간은 비교하지 않는다.
+        if(stableWindow.getRequestCount() > 0
+                && canaryWindow.getMeanLatencyMicros() > stableWindow.getMeanLatencyMicros() * maxLatencyRatio) {
+            return Verdict.ROLLBACK;
+        }
+
+        return Verdict.ADVANCE;
+    }
+}
@@ -0,0 +1,172 @@
+package org.wheel.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wheel.context.support.ClassLoaderCleaner;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * retire된 image의 classloader가 실제로 GC 되는지 추적한다.
+ *
+ * classloader는 WeakReference로만 참조하므로 추적 자체가 GC를 방해하지 않는다.
+ * leakSuspectDelayMilis가 지나도록 GC 되지 않은 classloader는 leak으로 의심하여 참조 원인(GC root 힌트)과 함께 보고한다.
+ * 의심된 classloader가 나중에 GC 되면 leak 목록에서 제외된다.
+ */
+public class ClassLoaderLeakDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassLoaderLeakDetector.class);
+
+    private final ClassLoaderCleaner cleaner;
+    private long leakSuspectDelayMilis = 5 * 60 * 1000;
+
+    private final ReferenceQueue<ClassLoader> referenceQueue = new ReferenceQueue<ClassLoader>();
+    private final Map<Reference<? extends ClassLoader>, TrackedClassLoader> tracked =
+            new ConcurrentHashMap<Reference<? extends ClassLoader>, TrackedClassLoader>();
+
+    private final AtomicLong trackedCount = new AtomicLong();
+    private final AtomicLong collectedCount = new AtomicLong();
+    private final AtomicLong suspectedCount = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    public ClassLoaderLeakDetector(ClassLoaderCleaner cleaner) {
+        this.cleaner = cleaner;
+    }
+
+    public void setLeakSuspectDelayMilis(long leakSuspectDelayMilis) {
+        this.leakSuspectDelayMilis = leakSuspectDelayMilis;
+    }
+
+    public void start(long checkIntervalMilis) {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ClassLoaderLeakDetector");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch(RuntimeException e) {
+                    logger.warn("Failed to check classloader leaks.", e);
+                }
+            }
+        }, checkIntervalMilis, checkIntervalMilis, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if(this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 더 이상 사용되지 않을 classloader의 추적을 시작한다.
+     */
+    public void track(String imageId, ClassLoader classLoader) {
+        if(classLoader == null) {
+            return;
+        }
+        WeakReference<ClassLoader> reference = new WeakReference<ClassLoader>(classLoader, referenceQueue);
+        tracked.put(reference, new TrackedClassLoader(imageId, System.currentTimeMillis()));
+        trackedCount.incrementAndGet();
+    }
+
+    void check() {
+        // 1. GC 된 classloader 제거
+        Reference<? extends ClassLoader> collected;
+        while((collected = referenceQueue.poll()) != null) {
+            TrackedClassLoader t = tracked.remove(collected);
+            if(t == null) {
+                continue;
+            }
+            collectedCount.incrementAndGet();
+            if(t.suspected) {
+                suspectedCount.decrementAndGet();
+                logger.info("Classloader of image={} has been collected at last.", t.imageId);
+            } else {
+                logger.debug("Classloader of image={} has been collected.", t.imageId);
+            }
+        }
+
+        // 2. 오래도록 GC 되지 않은 classloader 보고
+        long now = System.currentTimeMillis();
+        for(Map.Entry<Reference<? extends ClassLoader>, TrackedClassLoader> entry : tracked.entrySet()) {
+            TrackedClassLoader t = entry.getValue();
+            if(t.suspected || now - t.retiredAt < leakSuspectDelayMilis) {
+                continue;
+            }
+            ClassLoader classLoader = entry.getKey().get();
+            if(classLoader == null) {
+                continue;   // 다음 check에서 queue로부터 제거된다.
+            }
+            t.suspected = true;
+            suspectedCount.incrementAndGet();
+
+            List<String> sources = cleaner.findRetentionSources(classLoader);
+            if(sources.isEmpty()) {
+                logger.warn("Classloader of image={} has not been collected for {} ms since retirement. "
+                        + "No known retention source found. Take a heap dump and look for the paths to GC roots of {}.",
+                        t.imageId, now - t.retiredAt, classLoader);
+            } else {
+                logger.warn("Classloader of image={} has not been collected for {} ms since retirement. Possible GC roots: {}",
+                        t.imageId, now - t.retiredAt, sources);
+            }
+        }
+    }
+
+    /**
+     * 추적을 시작한 classloader 수(누적)
+     */
+    public long getTrackedCount() {
+        return trackedCount.get();
+    }
+
+    /**
+     * GC 된 classloader 수(누적)
+     */
+    public long getCollectedCount() {
+        return collectedCount.get();
+    }
+
+    /**
+     * 현재 leak으로 의심되는 classloader 수
+     */
+    public long getSuspectedLeakCount() {
+        return suspectedCount.get();
+    }
+
+    /**
+     * 아직 GC 되지 않은 classloader 수
+     */
+    public int getPendingCount() {
+        return tracked.size();
+    }
+
+    private static class TrackedClassLoader {
+        private final String imageId;
+        private final long retiredAt;
+        private volatile boolean suspected = false;
+
+        private TrackedClassLoader(String imageId, long retiredAt) {
+            this.imageId = imageId;
+            this.retiredAt = retiredAt;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.wheel.context;
+
+/**
+ * retire된 image의 context close를 통지받는 listener. {@link MultiVersionContextContainer#addListener}로 등록하면 호출된다.
+ */
+public interface ContextCloseListener extends MultiVersionContextContainerListener {
+
+    /**
+     * retire된 image의 context가 close된 후에 호출된다. listener는 image의 context와 classloader에서 만들어진 객체에 대한 참조를 모두 버려야 한다.
+     *
+     * @param image
+     */
+    void contextClosed(ContextLoadImage image);
+}
@@ -4,6 +4,9 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationContext;
@@ -25,6 +28,24 @@ public class ContextLoadImage {
     // additional info
     private final Map<String, Object> loadAttributes;
 
+    // image의 jar를 로드한 classloader
+    private final AtomicReference<ClassLoader> classLoader = new AtomicReference<ClassLoader>();
+
+    // lease(in-flight work) count. 음수(DRAINED)가 되면 더 이상 lease를 발급하지 않는다.
+    private static final int DRAINED = -1;
+    private final AtomicInteger leaseCount = new AtomicInteger(0);
+    private final AtomicBoolean retired = new AtomicBoolean(false);
+    private final Object drainMonitor = new Object();
+
+    // load 시 측정된 메모리 사용량. failure image는 null
+    private volatile ImageFootprint footprint;
+
+    // load 단계별 소요시간. loader가 설정한다.
+    private volatile ImageLoadMetrics loadMetrics = new ImageLoadMetrics();
+
+    // 이 image가 처리한 요청의 통계
+    private final ImageTrafficStats trafficStats = new ImageTrafficStats();
+
     public static ContextLoadImage withSuccess(
             String id,
             Date loadStartTime,
@@ -107,6 +128,43 @@ public class ContextLoadImage {
         return loadAttributes;
     }
 
+    public ClassLoader getClassLoader() {
+        return classLoader.get();
+    }
+
+    public void setClassLoader(ClassLoader classLoader) {
+        this.classLoader.set(classLoader);
+    }
+
+    /**
+     * classloader를 image에서 떼어내어 반환한다. 여러 스레드가 호출해도 한 스레드만 classloader를 받는다.
+     *
+     * @return 이미 떼어냈으면 null
+     */
+    public ClassLoader takeClassLoader() {
+        return classLoader.getAndSet(null);
+    }
+
+    public ImageFootprint getFootprint() {
+        return footprint;
+    }
+
+    public void setFootprint(ImageFootprint footprint) {
+        this.footprint = footprint;
+    }
+
+    public ImageLoadMetrics getLoadMetrics() {
+        return loadMetrics;
+    }
+
+    public void setLoadMetrics(ImageLoadMetrics loadMetrics) {
+        this.loadMetrics = loadMetrics;
+    }
+
+    public ImageTrafficStats getTrafficStats() {
+        return trafficStats;
+    }
+
     public Throwable getFailure() {
         return failure;
     }
@@ -115,7 +173,75 @@ public class ContextLoadImage {
         return (failure == null);
     }
 
+    /**
+     * 이 image에 대한 lease를 획득한다. retire된 image에 대해서는 false를 반환한다.
+     * 획득에 성공한 경우 반드시 {@link #releaseLease()}를 호출해야 한다.
+     */
+    public boolean tryAcquireLease() {
+        while(!retired.get()) {
+            int count = leaseCount.get();
+            if(count < 0) {
+                return false;
+            }
+            if(leaseCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void releaseLease() {
+        int remaining = leaseCount.decrementAndGet();
+        if(remaining == 0 && retired.get()) {
+            synchronized (drainMonitor) {
+                drainMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 이 image를 retire 상태로 만든다. 이후의 lease 획득은 실패하며, 이미 발급된 lease는 유효하다.
+     *
+     * @return 이 호출이 retire 시켰으면 true. 이미 retire 되어 있었으면 false
+     */
+    public boolean retire() {
+        return retired.compareAndSet(false, true);
+    }
+
+    public boolean isRetired() {
+        return retired.get();
+    }
+
+    public int getLeaseCount() {
+        return Math.max(0, leaseCount.get());
+    }
+
+    /**
+     * retire된 image의 lease가 모두 반환될 때까지 최대 timeoutMilis 만큼 대기한다.
+     * 반환값이 true이면 이후 lease가 발급되지 않음이 보장된다.
+     *
+     * @param timeoutMilis
+     * @return timeout 이내에 모든 lease가 반환되었으면 true
+     */
+    public boolean awaitDrained(long timeoutMilis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMilis;
+        synchronized (drainMonitor) {
+            while(!leaseCount.compareAndSet(0, DRAINED)) {
+                if(leaseCount.get() < 0) {
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0) {
+                    return false;
+                }
+                drainMonitor.wait(remaining);
+            }
+        }
+        return true;
+    }
+
     public synchronized void closeContext() {
+        this.retired.set(true);
         if(!isContextClosed()) {
             ApplicationContext toBeDestroyed = this.applicationContext;
             this.applicationContext = null;
@@ -146,6 +272,8 @@ public class ContextLoadImage {
                 ", loadEndTime=" + df.format(loadEndTime) +
                 ", applicationContext=" + applicationContext +
                 ", failure=" + failure +
+                ", leaseCount=" + getLeaseCount() +
+                ", footprint=" + footprint +
                 ", loadAttributes=" + loadAttributes + "]";
     }
 }
@@ -0,0 +1,17 @@
+package org.wheel.context;
+
+/**
+ * 활성화 직전의 {@link ContextLoadImage}를 warm-up 한다.
+ *
+ * 컨테이너는 새 image를 current로 바꾸기 전에 등록된 warmer들을 반복 호출하며,
+ * 반복 횟수 또는 latency 목표에 도달하거나 시간 예산을 모두 쓰면 image를 활성화한다.
+ */
+public interface ContextLoadImageWarmer {
+
+    /**
+     * warm-up을 1회 수행한다. 예외가 발생하면 해당 image의 warm-up은 중단되고 그대로 활성화된다.
+     *
+     * @param image 아직 활성화되지 않은 success image
+     */
+    void warmUp(ContextLoadImage image) throws Exception;
+}
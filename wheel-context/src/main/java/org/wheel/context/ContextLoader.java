@@ -8,4 +8,9 @@ public interface ContextLoader {
     ContextLoadImage load(String loadId, File[] jarFiles, Map<String, Object> loadAttributes);
 
     void registerListener(ContextLoaderListener listener);
+
+    /**
+     * 로드할 context의 설정 위치. 재기동 시 이전 load를 재사용할 수 있는지 판단하는 데 사용된다.
+     */
+    String[] getConfigLocations();
 }
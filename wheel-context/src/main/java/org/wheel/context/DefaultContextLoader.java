@@ -5,21 +5,29 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.ApplicationContextException;
 import org.springframework.context.support.AbstractRefreshableConfigApplicationContext;
-import org.springframework.context.support.ClassPathXmlApplicationContext;
-import org.springframework.core.io.FileSystemResource;
 import org.springframework.util.Assert;
+import org.springframework.util.PatternMatchUtils;
 import org.springframework.util.SystemPropertyUtils;
+import org.wheel.context.support.ComponentCandidateIndex;
+import org.wheel.context.support.JarPackageIndex;
+import org.wheel.context.support.MemoryPools;
+import org.wheel.context.support.ParentResourceCache;
+import org.wheel.context.support.XmlDocumentCache;
 
 import java.io.File;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class DefaultContextLoader
         implements ContextLoader, ApplicationContextAware, InitializingBean {
@@ -29,12 +37,27 @@ public class DefaultContextLoader
     private ContextLoaderListener listener;
 
     public static final String DEFAULT_CONFIG_LOCATION = "classpath*:wheelApplicationContext.xml";
-    public static final Class<?> DEFAULT_CONTEXT_CLASS = ClassPathXmlApplicationContext.class;
+    public static final Class<?> DEFAULT_CONTEXT_CLASS = CachingClassPathXmlApplicationContext.class;
 
     private ApplicationContext thisApplicationContext;
 
     private String[] configLocations = new String[] { DEFAULT_CONFIG_LOCATION };
     private Class<?> contextClass = DEFAULT_CONTEXT_CLASS;
+    private int preInstantiationParallelism = 0;
+    private boolean mappedJarAccess = false;
+    private boolean pretouchJars = false;
+    private String[] parentFirstPackages;
+    private String[] childFirstPackages;
+    private int negativeLookupCacheSize = WheelClassLoader.DEFAULT_NEGATIVE_LOOKUP_CACHE_SIZE;
+    private String[] sharedLibraryJarPatterns;
+
+    private boolean documentCacheEnabled = true;
+    private boolean componentIndexEnabled = true;
+    private boolean parentResourceCacheEnabled = true;
+
+    private final SharedLibraryLayers sharedLibraryLayers = new SharedLibraryLayers();
+    private final XmlDocumentCache documentCache = new XmlDocumentCache();
+    private final ParentResourceCache parentResourceCache = new ParentResourceCache();
 
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
@@ -54,6 +77,126 @@ public class DefaultContextLoader
         this.contextClass = contextClass;
     }
 
+    public int getPreInstantiationParallelism() {
+        return preInstantiationParallelism;
+    }
+
+    /**
+     * contextClass가 {@link ParallelClassPathXmlApplicationContext}인 경우 singleton 생성에 사용할 스레드 수.
+     * 0이면 context의 기본값(processor 수)을 사용한다.
+     */
+    public void setPreInstantiationParallelism(int preInstantiationParallelism) {
+        this.preInstantiationParallelism = preInstantiationParallelism;
+    }
+
+    public boolean isMappedJarAccess() {
+        return mappedJarAccess;
+    }
+
+    /**
+     * true이면 image의 classloader가 staged jar를 memory-map 해서 class를 읽는다.
+     */
+    public void setMappedJarAccess(boolean mappedJarAccess) {
+        this.mappedJarAccess = mappedJarAccess;
+    }
+
+    public boolean isPretouchJars() {
+        return pretouchJars;
+    }
+
+    /**
+     * true이면 context refresh 전에 jar를 모두 열고 memory-map된 jar의 page를 미리 읽어둔다.
+     */
+    public void setPretouchJars(boolean pretouchJars) {
+        this.pretouchJars = pretouchJars;
+    }
+
+    public String[] getParentFirstPackages() {
+        return parentFirstPackages;
+    }
+
+    /**
+     * image의 classloader가 부모에서 먼저 찾을 package prefix들. (예: "org.springframework.")
+     * 지정하지 않은 package도 기본적으로 부모에서 먼저 찾으며, childFirstPackages보다 긴 prefix일 때 의미가 있다.
+     */
+    public void setParentFirstPackages(String[] parentFirstPackages) {
+        this.parentFirstPackages = parentFirstPackages;
+    }
+
+    public String[] getChildFirstPackages() {
+        return childFirstPackages;
+    }
+
+    /**
+     * image의 jar에서 먼저 찾을 package prefix들. image에만 있는 package를 지정하면 부모를 확인하지 않는다.
+     */
+    public void setChildFirstPackages(String[] childFirstPackages) {
+        this.childFirstPackages = childFirstPackages;
+    }
+
+    public int getNegativeLookupCacheSize() {
+        return negativeLookupCacheSize;
+    }
+
+    /**
+     * image의 classloader가 찾지 못한 class 이름을 기억할 최대 개수. 0이면 기억하지 않는다.
+     */
+    public void setNegativeLookupCacheSize(int negativeLookupCacheSize) {
+        this.negativeLookupCacheSize = negativeLookupCacheSize;
+    }
+
+    public String[] getSharedLibraryJarPatterns() {
+        return sharedLibraryJarPatterns;
+    }
+
+    /**
+     * 여러 image가 하나의 classloader로 공유할 라이브러리 jar 파일명 패턴들. (예: "jackson-*.jar", "guava-*.jar")
+     * 패턴에 맞는 jar들의 이름과 내용이 이전 load와 같으면 이전 image와 같은 라이브러리 classloader를 부모로 사용한다.
+     * 라이브러리 jar의 class는 애플리케이션 jar의 class를 참조할 수 없다.
+     */
+    public void setSharedLibraryJarPatterns(String[] sharedLibraryJarPatterns) {
+        this.sharedLibraryJarPatterns = sharedLibraryJarPatterns;
+    }
+
+    public boolean isDocumentCacheEnabled() {
+        return documentCacheEnabled;
+    }
+
+    /**
+     * true이면 contextClass가 {@link CachingClassPathXmlApplicationContext}인 경우
+     * 내용이 바뀌지 않은 설정 XML은 이전 load에서 파싱한 document를 재사용한다.
+     */
+    public void setDocumentCacheEnabled(boolean documentCacheEnabled) {
+        this.documentCacheEnabled = documentCacheEnabled;
+    }
+
+    public boolean isComponentIndexEnabled() {
+        return componentIndexEnabled;
+    }
+
+    /**
+     * true이면 contextClass가 {@link CachingClassPathXmlApplicationContext}인 경우
+     * &lt;context:component-scan&gt;이 jar별 {@link ComponentCandidateIndex}에 있는 class만 읽는다.
+     * include-filter가 지정된 scan은 index를 사용하지 않는다.
+     */
+    public void setComponentIndexEnabled(boolean componentIndexEnabled) {
+        this.componentIndexEnabled = componentIndexEnabled;
+    }
+
+    public boolean isParentResourceCacheEnabled() {
+        return parentResourceCacheEnabled;
+    }
+
+    /**
+     * true이면 contextClass가 {@link CachingClassPathXmlApplicationContext}인 경우
+     * "classpath*:" 설정 파일을 찾을 때 webapp classloader의 결과는 처음 찾은 것을 재사용하고 image의 jar만 매번 찾는다.
+     * webapp classloader의 jar나 디렉토리가 실행중에 바뀌는 환경에서는 false로 설정한다.
+     */
+    public void setParentResourceCacheEnabled(boolean parentResourceCacheEnabled) {
+        this.parentResourceCacheEnabled = parentResourceCacheEnabled;
+    }
+
+    @Override
     public String[] getConfigLocations() {
         return this.configLocations;
     }
@@ -80,6 +223,16 @@ public class DefaultContextLoader
     public ContextLoadImage load(String loadId, File[] jarFiles, Map<String, Object> loadAttributes) {
         ContextLoadImage resultImage;
         Date loadStartTime = new Date();
+        WheelClassLoader subClassLoader = null;
+        SharedLibraryLayers.Reference libraryLayer = null;
+        long metaspaceUsedBefore = MemoryPools.metaspaceUsed();
+        long heapUsedBefore = MemoryPools.heapUsedAfterLastGc();
+        ImageLoadMetrics metrics = (ImageLoadMetrics)loadAttributes.get(ImageLoadMetrics.LOAD_ATTRIBUTE);
+        if(metrics == null) {
+            metrics = new ImageLoadMetrics();
+        }
+        ReloadThrottle throttle = (ReloadThrottle)loadAttributes.get(ReloadThrottle.LOAD_ATTRIBUTE);
+        ThrottlingBeanPostProcessor throttlingPostProcessor = null;
 
         try {
             if(logger.isDebugEnabled()) {
@@ -104,13 +257,72 @@ public class DefaultContextLoader
             newContext.setParent(thisApplicationContext);
             newContext.setConfigLocations(getConfigLocations());
             newContext.setDisplayName("VirtualWheelContext-" + loadId);
+            if(preInstantiationParallelism > 0 && newContext instanceof ParallelClassPathXmlApplicationContext) {
+                ((ParallelClassPathXmlApplicationContext)newContext).setParallelism(preInstantiationParallelism);
+            }
+            if(documentCacheEnabled && newContext instanceof CachingClassPathXmlApplicationContext) {
+                ((CachingClassPathXmlApplicationContext)newContext).setDocumentCache(documentCache);
+            }
+            if(componentIndexEnabled && newContext instanceof CachingClassPathXmlApplicationContext) {
+                ((CachingClassPathXmlApplicationContext)newContext).setComponentCandidateIndexes(componentIndexesOf(loadAttributes));
+            }
+            if(parentResourceCacheEnabled && newContext instanceof CachingClassPathXmlApplicationContext) {
+                ((CachingClassPathXmlApplicationContext)newContext).setParentResourceCache(parentResourceCache);
+            }
 
-            WheelClassLoader subClassLoader = new WheelClassLoader(
-                    jarFiles,
-                    Thread.currentThread().getContextClassLoader());
+            if(throttle != null) {
+                // refresh 중에는 bean 생성 사이마다 서비스 부하를 확인한다.
+                throttlingPostProcessor = new ThrottlingBeanPostProcessor(throttle, metrics);
+                final BeanPostProcessor beanPostProcessor = throttlingPostProcessor;
+                newContext.addBeanFactoryPostProcessor(new BeanFactoryPostProcessor() {
+                    @Override
+                    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+                        beanFactory.addBeanPostProcessor(beanPostProcessor);
+                    }
+                });
+                throttle.checkpoint("classloader creation", metrics);
+            }
+
+            long phaseStartNanos = System.nanoTime();
+            @SuppressWarnings("unchecked")
+            Map<File, JarPackageIndex> jarIndexes = (Map<File, JarPackageIndex>)loadAttributes.get(JarPackageIndex.LOAD_ATTRIBUTE);
+            ClassLoader parentClassLoader = Thread.currentThread().getContextClassLoader();
+            File[] applicationJarFiles = jarFiles;
+            libraryLayer = acquireLibraryLayer(jarFiles, jarIndexes, loadAttributes, parentClassLoader);
+            if(libraryLayer != null) {
+                parentClassLoader = libraryLayer.getClassLoader();
+                applicationJarFiles = applicationJarsOf(jarFiles);
+            }
+            subClassLoader = new WheelClassLoader(
+                    applicationJarFiles,
+                    jarIndexes,
+                    mappedJarAccess,
+                    parentClassLoader);
+            subClassLoader.setPackageDelegation(parentFirstPackages, childFirstPackages);
+            subClassLoader.setNegativeLookupCacheSize(negativeLookupCacheSize);
+            if(libraryLayer != null) {
+                // image의 classloader가 close되면 라이브러리 classloader의 참조를 반환한다.
+                subClassLoader.setCloseCallback(libraryLayer);
+            }
+            if(pretouchJars) {
+                if(libraryLayer != null) {
+                    libraryLayer.getClassLoader().pretouch();
+                }
+                subClassLoader.pretouch();
+            }
             newContext.setClassLoader(subClassLoader);
+            metrics.setClassLoaderMilis(elapsedMilisSince(phaseStartNanos));
 
+            if(throttle != null) {
+                throttle.checkpoint("refresh", metrics);
+            }
+            phaseStartNanos = System.nanoTime();
             newContext.refresh();
+            metrics.setRefreshMilis(elapsedMilisSince(phaseStartNanos));
+            if(throttlingPostProcessor != null) {
+                throttlingPostProcessor.deactivate();
+            }
+            metrics.setBeanCount(newContext.getBeanDefinitionCount());
 
             Date loadEndTime = new Date();
             loadAttributes.put("loadEndTime", loadEndTime);
@@ -123,6 +335,11 @@ public class DefaultContextLoader
                     newContext,
                     loadAttributes
             );
+            resultImage.setFootprint(new ImageFootprint(
+                    subClassLoader.getDefinedClassCount(),
+                    MemoryPools.metaspaceUsed() - metaspaceUsedBefore,
+                    MemoryPools.heapUsedAfterLastGc() - heapUsedBefore));
+            logger.info("Footprint of loadId={}: {}", loadId, resultImage.getFootprint());
 
             if(logger.isDebugEnabled()) {
                 logger.debug("====================================================================");
@@ -134,6 +351,9 @@ public class DefaultContextLoader
             Date loadEndTime = new Date();
             loadAttributes.put("loadEndTime", loadEndTime);
             logger.warn("Failed to load with loadAttributes={}.", loadAttributes, t);
+            if(libraryLayer != null) {
+                libraryLayer.run();
+            }
 
             if(logger.isDebugEnabled()) {
                 logger.debug("====================================================================");
@@ -150,6 +370,9 @@ public class DefaultContextLoader
             );
         }
 
+        resultImage.setClassLoader(subClassLoader);
+        resultImage.setLoadMetrics(metrics);
+
         if(listener != null) {
             listener.loadFinished(resultImage);
         }
@@ -188,34 +411,120 @@ public class DefaultContextLoader
         return SystemPropertyUtils.resolvePlaceholders(path);
     }
 
-    private static class WheelClassLoader extends URLClassLoader {
+    /**
+     * @return 라이브러리 jar가 없거나 저장소 정보(digest, 저장소 파일)가 없으면 null
+     */
+    @SuppressWarnings("unchecked")
+    private SharedLibraryLayers.Reference acquireLibraryLayer(File[] jarFiles, Map<File, JarPackageIndex> jarIndexes,
+                                                              Map<String, Object> loadAttributes, ClassLoader parent) {
+        if(sharedLibraryJarPatterns == null || sharedLibraryJarPatterns.length == 0) {
+            return null;
+        }
+        Map<File, String> digests = (Map<File, String>)loadAttributes.get(DefaultMultiVersionContextContainer.LOAD_ATTR_STAGED_DIGESTS);
+        Map<File, File> blobs = (Map<File, File>)loadAttributes.get(DefaultMultiVersionContextContainer.LOAD_ATTR_STAGED_BLOBS);
+
+        List<File> libraryBlobs = new ArrayList<File>();
+        List<String> libraryDigests = new ArrayList<String>();
+        Map<File, JarPackageIndex> libraryIndexes = new HashMap<File, JarPackageIndex>();
+        for(File jarFile : jarFiles) {
+            if(!isSharedLibrary(jarFile)) {
+                continue;
+            }
+            String digest = digests != null ? digests.get(jarFile) : null;
+            File blob = blobs != null ? blobs.get(jarFile) : null;
+            if(digest == null || blob == null) {
+                logger.debug("{} is not staged in the jar store. Shared library classloader is not used.", jarFile);
+                return null;
+            }
+            libraryBlobs.add(blob);
+            libraryDigests.add(digest);
+            if(jarIndexes != null && jarIndexes.containsKey(jarFile)) {
+                libraryIndexes.put(blob, jarIndexes.get(jarFile));
+            }
+        }
+        if(libraryBlobs.isEmpty()) {
+            return null;
+        }
 
-        private File[] jarFiles;
+        return sharedLibraryLayers.acquire(
+                libraryBlobs.toArray(new File[libraryBlobs.size()]),
+                libraryDigests.toArray(new String[libraryDigests.size()]),
+                libraryIndexes, mappedJarAccess, negativeLookupCacheSize, parent);
+    }
 
-        public WheelClassLoader(File[] jarFiles, ClassLoader parent) {
-            super(urlsOf(jarFiles), parent);
-            this.jarFiles = jarFiles;
+    /**
+     * 공유 라이브러리 classloader의 resource는 저장소 파일 경로이므로 저장소 파일에도 같은 index를 대응시킨다.
+     *
+     * @return jar 파일 -&gt; component 후보 index. index가 없으면 null
+     */
+    @SuppressWarnings("unchecked")
+    private Map<File, ComponentCandidateIndex> componentIndexesOf(Map<String, Object> loadAttributes) {
+        Map<File, ComponentCandidateIndex> indexes =
+                (Map<File, ComponentCandidateIndex>)loadAttributes.get(ComponentCandidateIndex.LOAD_ATTRIBUTE);
+        if(indexes == null) {
+            return null;
         }
+        Map<File, File> blobs = (Map<File, File>)loadAttributes.get(DefaultMultiVersionContextContainer.LOAD_ATTR_STAGED_BLOBS);
+        Map<File, ComponentCandidateIndex> result = new HashMap<File, ComponentCandidateIndex>(indexes);
+        if(blobs != null) {
+            for(Map.Entry<File, ComponentCandidateIndex> entry : indexes.entrySet()) {
+                File blob = blobs.get(entry.getKey());
+                if(blob != null) {
+                    result.put(blob, entry.getValue());
+                }
+            }
+        }
+        return result;
+    }
 
-        /**
-         * buildUrlsWithFilePaths
-         * @param   files
-         */
-        static private URL[] urlsOf(File[] files) {
-            URL[] urls = new URL[files.length];
+    private File[] applicationJarsOf(File[] jarFiles) {
+        List<File> applicationJarFiles = new ArrayList<File>();
+        for(File jarFile : jarFiles) {
+            if(!isSharedLibrary(jarFile)) {
+                applicationJarFiles.add(jarFile);
+            }
+        }
+        return applicationJarFiles.toArray(new File[applicationJarFiles.size()]);
+    }
 
-            try {
-                for (int i=0; i < files.length; i++) {
-                    urls[i] = new FileSystemResource(files[i]).getURL();
-                }
-            } catch(MalformedURLException e) {
-                // can not happen
-                throw new IllegalArgumentException(e);
-            } catch (Exception e) {
-                e.printStackTrace();
+    private boolean isSharedLibrary(File jarFile) {
+        return PatternMatchUtils.simpleMatch(sharedLibraryJarPatterns, jarFile.getName());
+    }
+
+    private static long elapsedMilisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * refresh 동안 bean이 초기화되기 전마다 {@link ReloadThrottle#checkpoint}를 호출한다.
+     * refresh가 끝나면 비활성화되어 요청 처리 중에 생성되는 bean(prototype 등)은 기다리지 않는다.
+     */
+    private static class ThrottlingBeanPostProcessor implements BeanPostProcessor {
+
+        private final ReloadThrottle throttle;
+        private final ImageLoadMetrics metrics;
+        private volatile boolean active = true;
+
+        private ThrottlingBeanPostProcessor(ReloadThrottle throttle, ImageLoadMetrics metrics) {
+            this.throttle = throttle;
+            this.metrics = metrics;
+        }
+
+        private void deactivate() {
+            this.active = false;
+        }
+
+        @Override
+        public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+            if(active) {
+                throttle.checkpoint("bean initialization", metrics);
             }
+            return bean;
+        }
 
-            return urls;
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+            return bean;
         }
     }
 }
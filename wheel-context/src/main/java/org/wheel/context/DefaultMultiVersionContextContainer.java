@@ -3,23 +3,39 @@ package org.wheel.context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
-import org.springframework.util.Assert;
-import org.springframework.util.FileCopyUtils;
+import org.springframework.util.StringUtils;
+import org.wheel.context.support.ClassLoaderCleaner;
+import org.wheel.context.support.ComponentCandidateIndex;
 import org.wheel.context.support.DirectoriesSnapshot;
 import org.wheel.context.support.FileUtil;
-import org.wheel.context.support.JarFilenameFilter;
-
+import org.wheel.context.support.JarDirectoryWatcher;
+import org.wheel.context.support.JarPackageIndex;
+import org.wheel.context.support.JarStagingStore;
+import org.wheel.context.support.LastLoadManifest;
+import org.wheel.context.support.MemoryPools;
+import org.wheel.context.support.MemoryPressureMonitor;
+import org.wheel.context.support.UploadQuiescenceDetector;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class DefaultMultiVersionContextContainer implements
-        MultiVersionContextContainer, ContextLoaderListener, ApplicationContextAware, InitializingBean, DisposableBean {
+        MultiVersionContextContainer, ContextLoaderListener, ApplicationContextAware, BeanNameAware, InitializingBean, DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultMultiVersionContextContainer.class);
 
@@ -28,34 +44,86 @@ public class DefaultMultiVersionContextContainer implements
 
     public static final String LOAD_DIRECTIVE_FILENAME = "LOAD_DIRECTIVE";
     public static final String LOAD_ATTR_DIRECTORY_SNAPSHOT = "originalDirectoriesSnapshot";
+    public static final String LOAD_ATTR_STAGED_DIRECTORY = "stagedDirectory";
+    public static final String LOAD_ATTR_STAGED_DIGESTS = "stagedDigests";
+    public static final String LOAD_ATTR_STAGED_BLOBS = "stagedBlobs";
+    public static final String LOAD_ATTR_WARM_UP_ITERATIONS = "warmUpIterations";
+    public static final String LOAD_ATTR_WARM_UP_MILIS = "warmUpMilis";
+    public static final String LOAD_ATTR_REUSED_STAGED_LOAD = "reusedStagedLoad";
 
     private boolean enableAutoReload = true;
     private int monitorIntervalSecs = 30;
+    private boolean useWatchService = true;
     private boolean autoSwitchAfterReload = true;
     private boolean autoSwitchSuccessOnly = true;
     private int maxSuccessImagesInMemory = 2;
     private File srcJarDirectory;
     private File destJarBaseDirectory;
+    private long uploadQuietPeriodMilis = 2 * 1000;
+    private long uploadMaxWaitMilis = 10 * 60 * 1000;
+    private long startLoadUploadMaxWaitMilis = 0;
+    @Deprecated
     private int maxFileCopyRetryCount = 10;
+    @Deprecated
     private int fileCopyRetryIntervalMilis = 2 * 1000;
-
-    private volatile Thread monitorThread = null;   // 변경사항 감지 스레드
+    private long drainTimeoutMilis = 30 * 1000;
+    private int stagingThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private int reclaimIntervalSecs = 60;
+    private int stagedLoadRetentionCount = 3;
+    private long stagedLoadRetentionMaxAgeSecs = 7L * 24 * 60 * 60;
+    private long stagedLoadRetentionMaxBytes = Long.MAX_VALUE;
+    private int warmUpMaxIterations = 10;
+    private long warmUpTargetLatencyMicros = 0;
+    private long warmUpTimeBudgetMilis = 30 * 1000;
+    private long imageMemoryBudgetBytes = 0;
+    private double memoryPressureThresholdRatio = 0.9;
+    private long minLoadHeadroomBytes = 0;
+    private boolean stopLeakedThreads = true;
+    private int leakSuspectDelaySecs = 5 * 60;
+    private int leakCheckIntervalSecs = 60;
+    private boolean canaryEnabled = false;
+    private int[] canaryWeightSteps = { 1, 10, 50, 100 };
+    private int canaryStepIntervalSecs = 60;
+    private boolean canaryAutoPromote = true;
+    private final CanaryPromotionPolicy canaryPromotionPolicy = new CanaryPromotionPolicy();
+    private final ReloadThrottle reloadThrottle = new ReloadThrottle();
+    private boolean jmxEnabled = true;
+    private boolean reuseLastStagedLoad = true;
+    private String jmxObjectName;
+
+    private volatile JarDirectoryWatcher.Registration watchRegistration = null;   // 변경사항 감지 등록
+    private final AtomicBoolean reloadQueued = new AtomicBoolean(false);
 
     private ExecutorService asyncReloadExecutorService; // asyncReloadTask 호출 시 사용할 executor
+    private ExecutorService retireExecutorService;      // retire된 image의 drain 및 close에 사용할 executor
+    private ScheduledExecutorService canaryScheduler;   // canary 단계 평가에 사용할 scheduler
 
     private File preparedDestJarBaseDirectory;
-    private volatile ContextLoadImage currentActive = null;
+    private JarStagingStore stagingStore;
+    private StagedLoadReclaimer reclaimer;
+    private UploadQuiescenceDetector quiescenceDetector;
+    private MemoryPressureMonitor memoryPressureMonitor;
+    private ClassLoaderCleaner classLoaderCleaner;
+    private ClassLoaderLeakDetector leakDetector;
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong loadFailureCount = new AtomicLong();
+    private final AtomicReference<HistoryState> state = new AtomicReference<HistoryState>(HistoryState.EMPTY);
     private volatile DirectoriesSnapshot lastDirectoriesSnapshot = null;
-    private Stack<ContextLoadImage> history = new Stack<ContextLoadImage>();
-    private volatile boolean firstLoad = true;
 
     private ApplicationContext applicationContext;
+    private String beanName = "multiVersionContextContainer";
+    private ObjectName registeredObjectName;
 
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         this.applicationContext = applicationContext;
     }
 
+    @Override
+    public void setBeanName(String name) {
+        this.beanName = name;
+    }
+
     public boolean isEnableAutoReload() {
         return enableAutoReload;
     }
@@ -72,6 +140,18 @@ public class DefaultMultiVersionContextContainer implements
         this.monitorIntervalSecs = monitorIntervalSecs;
     }
 
+    public boolean isUseWatchService() {
+        return useWatchService;
+    }
+
+    /**
+     * false로 설정하면 WatchService 대신 polling으로 변경사항을 감지한다.
+     * 원격 파일시스템(NFS 등)처럼 다른 호스트에서의 변경이 이벤트로 전달되지 않는 경우에 사용한다.
+     */
+    public void setUseWatchService(boolean useWatchService) {
+        this.useWatchService = useWatchService;
+    }
+
     public boolean isAutoSwitchAfterReload() {
         return autoSwitchAfterReload;
     }
@@ -92,6 +172,9 @@ public class DefaultMultiVersionContextContainer implements
         return maxSuccessImagesInMemory;
     }
 
+    /**
+     * context를 유지할 success image의 최대 개수. imageMemoryBudgetBytes가 지정되면 사용되지 않는다.
+     */
     public void setMaxSuccessImagesInMemory(int maxSuccessImagesInMemory) {
         this.maxSuccessImagesInMemory = maxSuccessImagesInMemory;
     }
@@ -112,400 +195,1576 @@ public class DefaultMultiVersionContextContainer implements
         this.destJarBaseDirectory = destJarBaseDirectory;
     }
 
+    public long getUploadQuietPeriodMilis() {
+        return uploadQuietPeriodMilis;
+    }
+
+    /**
+     * jar 디렉토리가 이 시간 동안 변하지 않아야 업로드가 끝난 것으로 보고 reload 한다.
+     * 이 시간 안에 연속해서 발생한 변경은 한 번의 reload로 합쳐진다.
+     */
+    public void setUploadQuietPeriodMilis(long uploadQuietPeriodMilis) {
+        this.uploadQuietPeriodMilis = uploadQuietPeriodMilis;
+    }
+
+    public long getUploadMaxWaitMilis() {
+        return uploadMaxWaitMilis;
+    }
+
+    /**
+     * 업로드 완료를 기다리는 최대 시간. 이 시간이 지나도 디렉토리가 안정화되지 않으면 reload를 포기한다.
+     */
+    public void setUploadMaxWaitMilis(long uploadMaxWaitMilis) {
+        this.uploadMaxWaitMilis = uploadMaxWaitMilis;
+    }
+
+    public long getStartLoadUploadMaxWaitMilis() {
+        return startLoadUploadMaxWaitMilis;
+    }
+
+    /**
+     * {@link #startLoad()}(기동 시 최초 로드 포함)가 온전하지 않은 jar의 업로드 완료를 기다리는 최대 시간.
+     * 이 시간이 지나면 그대로 로드하여 원인이 담긴 failure image를 남긴다. 기본값 0은 기다리지 않는다.
+     */
+    public void setStartLoadUploadMaxWaitMilis(long startLoadUploadMaxWaitMilis) {
+        this.startLoadUploadMaxWaitMilis = startLoadUploadMaxWaitMilis;
+    }
+
+    /**
+     * @deprecated 업로드 완료는 {@link #setUploadQuietPeriodMilis(long)}로 판단하며, 복사 재시도는 하지 않는다.
+     */
+    @Deprecated
     public int getMaxFileCopyRetryCount() {
         return maxFileCopyRetryCount;
     }
 
+    /**
+     * @deprecated 업로드 완료는 {@link #setUploadQuietPeriodMilis(long)}로 판단하며, 복사 재시도는 하지 않는다.
+     */
+    @Deprecated
     public void setMaxFileCopyRetryCount(int maxFileCopyRetryCount) {
+        logger.warn("maxFileCopyRetryCount is no longer used. Use uploadQuietPeriodMilis instead.");
         this.maxFileCopyRetryCount = maxFileCopyRetryCount;
     }
 
+    /**
+     * @deprecated 업로드 완료는 {@link #setUploadQuietPeriodMilis(long)}로 판단하며, 복사 재시도는 하지 않는다.
+     */
+    @Deprecated
     public int getFileCopyRetryIntervalMilis() {
         return fileCopyRetryIntervalMilis;
     }
 
+    /**
+     * @deprecated 업로드 완료는 {@link #setUploadQuietPeriodMilis(long)}로 판단하며, 복사 재시도는 하지 않는다.
+     */
+    @Deprecated
     public void setFileCopyRetryIntervalMilis(int fileCopyRetryIntervalMilis) {
+        logger.warn("fileCopyRetryIntervalMilis is no longer used. Use uploadQuietPeriodMilis instead.");
         this.fileCopyRetryIntervalMilis = fileCopyRetryIntervalMilis;
     }
 
-    public ContextLoader getLoader() {
-        return loader;
+    public long getDrainTimeoutMilis() {
+        return drainTimeoutMilis;
     }
 
-    public void setLoader(ContextLoader loader) {
-        this.loader = loader;
+    public void setDrainTimeoutMilis(long drainTimeoutMilis) {
+        this.drainTimeoutMilis = drainTimeoutMilis;
     }
 
-    public ExecutorService getAsyncReloadExecutorService() {
-        return asyncReloadExecutorService;
+    public int getStagingThreads() {
+        return stagingThreads;
     }
 
-    public void setAsyncReloadExecutorService(ExecutorService asyncReloadExecutorService) {
-        this.asyncReloadExecutorService = asyncReloadExecutorService;
+    /**
+     * 변경된 jar를 저장소로 병렬 복사할 때 사용할 스레드 수
+     */
+    public void setStagingThreads(int stagingThreads) {
+        this.stagingThreads = stagingThreads;
     }
 
-    public ContextLoadImage getCurrentActive() {
-        return this.currentActive;
+    public int getReclaimIntervalSecs() {
+        return reclaimIntervalSecs;
     }
 
-    @Override
-    public void afterPropertiesSet() throws Exception {
-        prepareDestJarBaseDirectory();
-
-        this.loader.registerListener(this);
+    public void setReclaimIntervalSecs(int reclaimIntervalSecs) {
+        this.reclaimIntervalSecs = reclaimIntervalSecs;
+    }
 
-        this.asyncReloadExecutorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread t = Executors.defaultThreadFactory().newThread(r);
-                t.setDaemon(true);
-                return t;
-            }
-        });
+    public int getStagedLoadRetentionCount() {
+        return stagedLoadRetentionCount;
+    }
 
-        // autoReload 활성화 시 jar 변경감시 개시
-        if(enableAutoReload) {
-            this.monitorThread = new Thread(new JarDirChangeMonitor());
-            this.monitorThread.setDaemon(true);
-            this.monitorThread.setName(
-                    "DefaultMultiVersionContextContainer.MonitoringThread." +
-                            new SimpleDateFormat("yyyyMMddHHmmss").format(new Date())
-            );
-            this.monitorThread.start();
-            logger.info("{} has started.", monitorThread.getName());
-            if(logger.isDebugEnabled()) {
-                logger.debug("{} will check changes on every {} seconds.", monitorThread.getName(), this.monitorIntervalSecs);
-            }
-        } else {
-            logger.info("Auto-reloading is off.");
-        }
+    /**
+     * 사용되지 않는(context가 close된) staged load 디렉토리를 최대 몇 개까지 남겨둘 것인지 설정한다.
+     */
+    public void setStagedLoadRetentionCount(int stagedLoadRetentionCount) {
+        this.stagedLoadRetentionCount = stagedLoadRetentionCount;
     }
 
-    private ContextLoadImage loadImmediatelyAfterCopy() {
-        Map<String, Object> loadAttributes = new HashMap<String, Object>();
-        DirectoriesSnapshot orginalDirectoriesSnapshot = new DirectoriesSnapshot(srcJarDirectory);
-        loadAttributes.put(LOAD_ATTR_DIRECTORY_SNAPSHOT, orginalDirectoriesSnapshot);
+    public long getStagedLoadRetentionMaxAgeSecs() {
+        return stagedLoadRetentionMaxAgeSecs;
+    }
 
-        // Load ID의 결정
-        String loadId = readLoadIdFromDir(this.srcJarDirectory);
-        if(loadId == null) {
-            loadId = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date())
-                    + "_"
-                    + orginalDirectoriesSnapshot.getChecksum();
-        }
-        // JAR 파일 복사
-        File[] destJarFiles;
-        try {
-            destJarFiles = copyAllJarFiles(loadId, this.srcJarDirectory);
-        } catch(IOException ioe) {
-            throw new IllegalStateException("Can't copy jar files.", ioe);
-        }
+    public void setStagedLoadRetentionMaxAgeSecs(long stagedLoadRetentionMaxAgeSecs) {
+        this.stagedLoadRetentionMaxAgeSecs = stagedLoadRetentionMaxAgeSecs;
+    }
 
-        // LOAD
-        ContextLoadImage image = this.loader.load(loadId, destJarFiles, loadAttributes);
+    public long getStagedLoadRetentionMaxBytes() {
+        return stagedLoadRetentionMaxBytes;
+    }
 
-        // 로드결과 리턴
-        return image;
+    public void setStagedLoadRetentionMaxBytes(long stagedLoadRetentionMaxBytes) {
+        this.stagedLoadRetentionMaxBytes = stagedLoadRetentionMaxBytes;
     }
 
-    private String readLoadIdFromDir(File dir) {
-        File[] files = dir.listFiles(LOAD_DIRECTIVE_FILENAME_FILTER);
-        if(files != null && files.length > 0) {
-            for(File loadDirectiveFile : files) {
-                FileInputStream fis = null;
-                BufferedReader br = null;
-                try {
-                    fis = new FileInputStream(loadDirectiveFile);
-                    br = new BufferedReader(new InputStreamReader(fis));
-                    String line = null;
-                    while((line = br.readLine()) != null) {
-                        // #으로 시작하지 않는 첫번째 행을 trim 해서 load id로 반환
-                        if(line.startsWith("#")) continue;
-                        else return line.trim();
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } finally {
-                    if(br != null) {
-                        try { br.close(); } catch(IOException e) { e.printStackTrace(System.err);}
-                    }
-                    if(fis != null) {
-                        try { fis.close(); } catch(IOException e) { e.printStackTrace(System.err);}
-                    }
-                }
-            }
-        }
+    public int getWarmUpMaxIterations() {
+        return warmUpMaxIterations;
+    }
 
-        return null;
+    /**
+     * 새 image 활성화 전 warm-up의 최대 반복 횟수. 0이면 warm-up을 하지 않는다.
+     */
+    public void setWarmUpMaxIterations(int warmUpMaxIterations) {
+        this.warmUpMaxIterations = warmUpMaxIterations;
     }
 
-    @Override
-    public void destroy() throws Exception {
-        logger.debug("destory()");
-        asyncReloadExecutorService.shutdownNow();
+    public long getWarmUpTargetLatencyMicros() {
+        return warmUpTargetLatencyMicros;
+    }
 
-        if(this.monitorThread != null) {
-            this.monitorThread.interrupt();
-        }
+    /**
+     * warm-up 1회의 소요시간이 이 값 이하가 되면 반복 횟수와 관계 없이 warm-up을 끝낸다. 0이면 사용하지 않는다.
+     */
+    public void setWarmUpTargetLatencyMicros(long warmUpTargetLatencyMicros) {
+        this.warmUpTargetLatencyMicros = warmUpTargetLatencyMicros;
     }
 
-    @Override
-    public Future<ContextLoadImage> startLoad() {
-        AsyncReloadTask asyncReloadTask = new AsyncReloadTask();
-        Future<ContextLoadImage> future = asyncReloadExecutorService.submit(asyncReloadTask);
-        return future;
+    public long getWarmUpTimeBudgetMilis() {
+        return warmUpTimeBudgetMilis;
     }
 
-    @Override
-    public void loadFinished(ContextLoadImage image) {
-        appendNew(image);
+    /**
+     * warm-up에 사용할 최대 시간. 이 시간을 넘기면 목표에 도달하지 않았더라도 image를 활성화한다.
+     */
+    public void setWarmUpTimeBudgetMilis(long warmUpTimeBudgetMilis) {
+        this.warmUpTimeBudgetMilis = warmUpTimeBudgetMilis;
     }
 
-    @Override
-    public ContextLoadImage current() {
-        return currentActive;
+    public long getImageMemoryBudgetBytes() {
+        return imageMemoryBudgetBytes;
     }
 
-    @Override
-    public ContextLoadImage switchToLatestSuccess() throws IllegalStateException {
-        synchronized (history) {
-            while(!history.empty()) {
-                ContextLoadImage image = history.peek();
-                if(image.isSuccess() && !image.isContextClosed()) {
-                    changeCurrent(image);
-                    return image;
-                }
-            }
-        }
-        throw new IllegalStateException("No success image, or no context available");
+    /**
+     * 0보다 크면 maxSuccessImagesInMemory 대신 image별 메모리 사용량 추정치({@link ImageFootprint#getEstimatedBytes()})의 합이
+     * 이 값을 넘지 않도록 오래된 image의 context를 close한다. current와 canary image는 항상 유지된다.
+     */
+    public void setImageMemoryBudgetBytes(long imageMemoryBudgetBytes) {
+        this.imageMemoryBudgetBytes = imageMemoryBudgetBytes;
     }
 
-    private void changeCurrent(ContextLoadImage image) {
-        if(listenerList != null) {
-            for(MultiVersionContextContainerListener listener : listenerList) {
-                listener.beforeActivation(image);
-            }
-        }
+    public double getMemoryPressureThresholdRatio() {
+        return memoryPressureThresholdRatio;
+    }
 
-        this.currentActive = image;
+    /**
+     * old generation(GC 후 사용량) 또는 metaspace 사용량이 최대 크기의 이 비율을 넘으면
+     * current와 canary를 제외한 모든 image의 context를 close한다. 0이면 감시하지 않는다.
+     */
+    public void setMemoryPressureThresholdRatio(double memoryPressureThresholdRatio) {
+        this.memoryPressureThresholdRatio = memoryPressureThresholdRatio;
     }
 
-    @Override
-    public ContextLoadImage forceSwitchTo(int index) {
-        synchronized (history) {
-            ContextLoadImage image = history.elementAt(index);
-            if(image.isContextClosed()) {
-                throw new IllegalArgumentException("Success image, but the context inside has been already closed for freeing memory. image=" + image);
-            }
-            changeCurrent(image);
-            return image;
-        }
+    public long getMinLoadHeadroomBytes() {
+        return minLoadHeadroomBytes;
     }
 
-    @Override
-    public ContextLoadImage removeFromHistory(int index) {
-        synchronized (history) {
-            ContextLoadImage image = history.remove(index);
-            if(image.isSuccess() && !image.isContextClosed()) {
-                image.closeContext();
-            }
+    /**
+     * reload 시작 전에 확보되어 있어야 하는 최소 heap 여유공간.
+     * current image의 footprint가 이보다 크면 footprint만큼의 여유공간이 필요하다.
+     * 여유공간이 부족하면 reload를 시작하지 않는다.
+     */
+    public void setMinLoadHeadroomBytes(long minLoadHeadroomBytes) {
+        this.minLoadHeadroomBytes = minLoadHeadroomBytes;
+    }
 
-            return image;
-        }
+    public boolean isStopLeakedThreads() {
+        return stopLeakedThreads;
     }
 
-    @Override
-    public int size() {
-        synchronized (history) {
-            return history.size();
-        }
+    /**
+     * retire된 image의 class로 실행중인 thread(executor, Timer 포함)를 중단시킬지 여부. false이면 경고만 남긴다.
+     */
+    public void setStopLeakedThreads(boolean stopLeakedThreads) {
+        this.stopLeakedThreads = stopLeakedThreads;
     }
 
-    @Override
-    public List<ContextLoadImage> getHistoryCopy() {
-        List<ContextLoadImage> immutableHistory = new ArrayList<ContextLoadImage>();
-        immutableHistory.addAll(this.history);
-        return immutableHistory;
+    public int getLeakSuspectDelaySecs() {
+        return leakSuspectDelaySecs;
     }
 
     /**
-     * 로딩 이미지 추가
-     * @param newImage
+     * retire된 image의 classloader가 이 시간이 지나도록 GC 되지 않으면 leak으로 보고한다.
      */
-    private void appendNew(ContextLoadImage newImage) {
-        synchronized (history) {
-            this.lastDirectoriesSnapshot = (DirectoriesSnapshot)newImage.getLoadAttributes().get(LOAD_ATTR_DIRECTORY_SNAPSHOT);
+    public void setLeakSuspectDelaySecs(int leakSuspectDelaySecs) {
+        this.leakSuspectDelaySecs = leakSuspectDelaySecs;
+    }
 
-            this.history.push(newImage);
+    public int getLeakCheckIntervalSecs() {
+        return leakCheckIntervalSecs;
+    }
 
-            if(firstLoad) {
-                changeCurrent(newImage);
-                this.firstLoad = false;
-                return;
-            }
+    public void setLeakCheckIntervalSecs(int leakCheckIntervalSecs) {
+        this.leakCheckIntervalSecs = leakCheckIntervalSecs;
+    }
 
-            // max를 넘지 않도록 기존 image의 context를 close한다(메모리 free 목적)
-            freeExceedingOldContext();
+    /**
+     * 추적을 시작한 retired classloader 수(누적)
+     */
+    public long getTrackedClassLoaderCount() {
+        return leakDetector.getTrackedCount();
+    }
 
-            if(autoSwitchAfterReload) {
-                if(newImage.isSuccess()) {
-                    changeCurrent(newImage);
-                } else if(!newImage.isSuccess() && !autoSwitchSuccessOnly) {
-                    changeCurrent(newImage);
-                    logger.warn("Forced applying failed image={}, because activeSuccessOnly is false.", newImage.getId());
-                }
-            }
-        }
+    /**
+     * GC 된 retired classloader 수(누적)
+     */
+    public long getCollectedClassLoaderCount() {
+        return leakDetector.getCollectedCount();
     }
 
-    private void freeExceedingOldContext() {
-        int successImageCount = 0;
-        for(int i = this.history.size() - 1; i >= 0; i--) {
-            ContextLoadImage image = this.history.get(i);
-            if(image.isSuccess()) {
-                successImageCount++;
-                if(successImageCount > this.maxSuccessImagesInMemory) {
-                    if(logger.isInfoEnabled()) {
-                        logger.info("Closing {}. maxSuccessImagesInMemory={} has been exceeded.", image, this.maxSuccessImagesInMemory);
-                    }
-                    image.closeContext();
-                    break;  // 1개만 지우면 됨.
-                }
-            }
-        }
+    /**
+     * 현재 leak으로 의심되는 classloader 수
+     */
+    public long getSuspectedClassLoaderLeakCount() {
+        return leakDetector.getSuspectedLeakCount();
     }
 
-    @Override
-    public void addListener(MultiVersionContextContainerListener listener) {
-        listenerList.add(listener);
+    /**
+     * 누적 load 횟수(실패 포함)
+     */
+    public long getLoadCount() {
+        return loadCount.get();
     }
 
-    private class AsyncReloadTask implements Callable<ContextLoadImage> {
-        @Override
-        public ContextLoadImage call() throws Exception {
-            ContextLoadImage image = loadImmediatelyAfterCopy();
-            return image;
-        }
+    public long getLoadFailureCount() {
+        return loadFailureCount.get();
     }
 
-    private class JarDirChangeMonitor implements Runnable {
-        @Override
-        public void run() {
-            try {
-                long monitorIntervalMilis = monitorIntervalSecs * 1000;
-                while(true) {
-                    Thread.sleep(monitorIntervalMilis);
-                    if(lastDirectoriesSnapshot != null) {
-                        DirectoriesSnapshot newDirectorysSnapshot = new DirectoriesSnapshot(srcJarDirectory);
-                        boolean hasChanged = lastDirectoriesSnapshot.checkChanges(newDirectorysSnapshot);
-                        if(!hasChanged) {
-                            continue;
-                        }
-
-                        if(!Thread.currentThread().isInterrupted()) {
-                            logger.debug("Detected changes of directory entries.");
-                            loadImmediatelyAfterCopy();
-                        }
-                    }
-                }
-            } catch(InterruptedException e) {
-                logger.info("{} has been interruppted internally. Terminating chage-monitoring.");
-            } catch(NullPointerException e) {
-                try {
-                    logger.info("Monitor thread has been forced into termination. Possible resons are, "
-                            + "1) Server reloaded the war, so current log4j is terminated."
-                            + "2) Others. "
-                            + "Exception message is {}"
-                            , e.getMessage()
-                    );
-                } catch(Exception e2) {
-                    // log4j가 중지되면 info 내에서 NullPointerException이 발생한다.
-                    System.out.println(Thread.currentThread() + " has been forced into termination. Possible reasons are, "
-                            + "1) Server reloaded the war, so current log4j is terminated."
-                            + "2) Others. "
-                            + "If following stack trace is about log4j, it's not a problem, but normal."
-                    );
-                    e2.printStackTrace(System.err);
-                }
-            }
-        }
+    public boolean isReuseLastStagedLoad() {
+        return reuseLastStagedLoad;
     }
 
-    private File[] copyAllJarFiles(String loadId, File jarDirectory) throws IOException {
-        Assert.notNull(jarDirectory, "jarDirectories must not be null.");
-        List<File> srcJarFileList = new ArrayList<File>();
-        File[] jars = jarDirectory.listFiles(new JarFilenameFilter());
-        if(jars != null && jars.length > 0) {
-            for(File jar : jars) {
-                srcJarFileList.add(jar);
-            }
-        }
+    /**
+     * true(기본값)이면 마지막으로 활성화된 success load를 기록해 두고, 기동 시 원본 jar와 설정이 그대로이면
+     * digest 계산과 staging 없이 그 load 디렉토리를 다시 로드한다.
+     */
+    public void setReuseLastStagedLoad(boolean reuseLastStagedLoad) {
+        this.reuseLastStagedLoad = reuseLastStagedLoad;
+    }
 
-        String destDirName = loadId;
-        File destFileDirectory = new File(this.destJarBaseDirectory, destDirName);
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
 
-        List<File> destJarFileList = new ArrayList<File>();
-        FileUtil.createDirectoryIfNotPresent(destFileDirectory);
-        for(File jarFile : srcJarFileList) {
-            String filename = jarFile.getName();
-            File destFile = new File(destFileDirectory, filename);
-            copyFileSafely(jarFile, destFile);
-            destJarFileList.add(destFile);
-        }
+    /**
+     * true(기본값)이면 platform MBeanServer에 {@link MultiVersionContextContainerMXBean}을 등록한다.
+     */
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
 
-        return destJarFileList.toArray(new File[srcJarFileList.size()]);
+    public String getJmxObjectName() {
+        return jmxObjectName;
     }
 
-    private void prepareDestJarBaseDirectory() throws IOException {
-        this.preparedDestJarBaseDirectory = this.destJarBaseDirectory;
-        if(this.preparedDestJarBaseDirectory == null) {
-            this.preparedDestJarBaseDirectory = new File(
-                    System.getProperty("java.io.tmpdir") + File.separator + "loads"
-            );
-        }
+    /**
+     * 지정하지 않으면 org.wheel.context:type=MultiVersionContextContainer,name=&lt;bean name&gt; 으로 등록된다.
+     */
+    public void setJmxObjectName(String jmxObjectName) {
+        this.jmxObjectName = jmxObjectName;
+    }
 
-        FileUtil.createDirectoryIfNotPresent(this.preparedDestJarBaseDirectory);
+    public boolean isCanaryEnabled() {
+        return canaryEnabled;
     }
 
-    private void copyFileSafely(File srcFile, File destFile) {
-        // FTP 업로드가 완료되지 않은 상태에서 여기까지 오는 경우가 있음.
-        // 이 경우 file copy가 실패하므로, 약간의 delay 후에 retry 한다.
-        // 성공하면 그 즉시 break for
-        IOException fileCopyException = null;
+    /**
+     * true로 설정하면 reload된 image를 바로 활성화하지 않고 canary로 실행한다.
+     * canary image는 canaryWeightSteps의 첫 단계 비율의 요청부터 처리한다.
+     */
+    public void setCanaryEnabled(boolean canaryEnabled) {
+        this.canaryEnabled = canaryEnabled;
+    }
 
-        for(int i = 0; i < maxFileCopyRetryCount; i++) {
-            if(i > 0) {
-                // RETRY 상태(i>0)인 경우 로그 및 sleep...
-                logger.debug("[{}] Retrying file-copy after {} ms......", (i+1), fileCopyRetryIntervalMilis);
-                try {
-                    Thread.sleep(fileCopyRetryIntervalMilis);
-                } catch(InterruptedException ie) {
-                    throw new RuntimeException("This thread has been interrupted!", ie);
-                }
-            }
+    public int[] getCanaryWeightSteps() {
+        return canaryWeightSteps;
+    }
 
-            try {
-                // 복사 시도해서 성공하면 break
-                FileCopyUtils.copy(srcFile, destFile);
-                fileCopyException = null;
-                break;  // break for
-            } catch(IOException ioe) {
-                // 예외발생... File upload가 끝나지 않은 경우가 대부분
-                fileCopyException = ioe;
-                logger.debug("FAILED copying [{}] to [{}]. This may be because of file-uploading is underway.", srcFile.getAbsolutePath(), destFile.getAbsolutePath());
+    /**
+     * canary weight 단계. "1,10,50,100" 형식. 마지막 단계를 통과하면 canary가 current로 승격된다.
+     */
+    public void setCanaryWeightSteps(String canaryWeightSteps) {
+        String[] tokens = StringUtils.tokenizeToStringArray(canaryWeightSteps, ",");
+        int[] steps = new int[tokens.length];
+        for(int i = 0; i < tokens.length; i++) {
+            steps[i] = Integer.parseInt(tokens[i]);
+            if(steps[i] < 0 || steps[i] > 100 || (i > 0 && steps[i] < steps[i - 1])) {
+                throw new IllegalArgumentException("canaryWeightSteps must be ascending percentages. " + canaryWeightSteps);
             }
         }
-
-        // 예외발생여부 확인
-        if(fileCopyException != null) {
-            throw new IllegalArgumentException(
-                    "Failed to copy srcFile=[" + srcFile.getAbsolutePath() + "] to [" + destFile.getAbsolutePath() + "]",
-                    fileCopyException
-            );
+        if(steps.length == 0) {
+            throw new IllegalArgumentException("canaryWeightSteps is empty.");
         }
+        this.canaryWeightSteps = steps;
+    }
+
+    public int getCanaryStepIntervalSecs() {
+        return canaryStepIntervalSecs;
+    }
+
+    /**
+     * canary의 각 단계를 유지하는 최소 시간
+     */
+    public void setCanaryStepIntervalSecs(int canaryStepIntervalSecs) {
+        this.canaryStepIntervalSecs = canaryStepIntervalSecs;
+    }
+
+    public boolean isCanaryAutoPromote() {
+        return canaryAutoPromote;
     }
 
-    private List<MultiVersionContextContainerListener> listenerList = new ArrayList<MultiVersionContextContainerListener>();
+    /**
+     * false로 설정하면 canary 단계가 자동으로 진행되지 않으며,
+     * {@link #setCanaryWeightPercent(int)}, {@link #promoteCanary()}, {@link #rollbackCanary()}로 직접 제어해야 한다.
+     */
+    public void setCanaryAutoPromote(boolean canaryAutoPromote) {
+        this.canaryAutoPromote = canaryAutoPromote;
+    }
+
+    public void setCanaryMinRequestsPerStep(long canaryMinRequestsPerStep) {
+        this.canaryPromotionPolicy.setMinRequests(canaryMinRequestsPerStep);
+    }
+
+    public void setCanaryMaxErrorRateIncrease(double canaryMaxErrorRateIncrease) {
+        this.canaryPromotionPolicy.setMaxErrorRateIncrease(canaryMaxErrorRateIncrease);
+    }
+
+    public void setCanaryMaxLatencyRatio(double canaryMaxLatencyRatio) {
+        this.canaryPromotionPolicy.setMaxLatencyRatio(canaryMaxLatencyRatio);
+    }
+
+    /**
+     * reload 스레드의 priority. 기본값은 {@link Thread#MIN_PRIORITY}
+     */
+    public void setReloadThreadPriority(int reloadThreadPriority) {
+        this.reloadThrottle.setThreadPriority(reloadThreadPriority);
+    }
+
+    /**
+     * current와 canary image에서 처리중인 요청이 이 수를 넘으면 reload가 다음 단계로 진행하지 않고 기다린다. 0이면 확인하지 않는다.
+     */
+    public void setReloadMaxInFlightRequests(int reloadMaxInFlightRequests) {
+        this.reloadThrottle.setMaxInFlightRequests(reloadMaxInFlightRequests);
+    }
+
+    /**
+     * current image의 최근 평균 처리시간이 이 값을 넘으면 reload가 다음 단계로 진행하지 않고 기다린다. 0이면 확인하지 않는다.
+     */
+    public void setReloadMaxMeanLatencyMicros(long reloadMaxMeanLatencyMicros) {
+        this.reloadThrottle.setMaxMeanLatencyMicros(reloadMaxMeanLatencyMicros);
+    }
+
+    /**
+     * 한 load가 서비스 요청에 양보하며 기다리는 시간의 합의 상한
+     */
+    public void setReloadMaxYieldMilis(long reloadMaxYieldMilis) {
+        this.reloadThrottle.setMaxYieldMilisPerLoad(reloadMaxYieldMilis);
+    }
+
+    /**
+     * staging 시 jar 복사의 초당 byte 수 상한. 0이면 제한하지 않는다.
+     */
+    public void setCopyBytesPerSecond(long copyBytesPerSecond) {
+        this.reloadThrottle.getCopyRateLimiter().setBytesPerSecond(copyBytesPerSecond);
+    }
+
+    public ContextLoader getLoader() {
+        return loader;
+    }
+
+    public void setLoader(ContextLoader loader) {
+        this.loader = loader;
+    }
+
+    public ExecutorService getAsyncReloadExecutorService() {
+        return asyncReloadExecutorService;
+    }
+
+    public void setAsyncReloadExecutorService(ExecutorService asyncReloadExecutorService) {
+        this.asyncReloadExecutorService = asyncReloadExecutorService;
+    }
+
+    public ContextLoadImage getCurrentActive() {
+        return current();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        prepareDestJarBaseDirectory();
+        this.stagingStore = new JarStagingStore(this.preparedDestJarBaseDirectory, this.stagingThreads);
+        this.stagingStore.setCopyRateLimiter(this.reloadThrottle.getCopyRateLimiter());
+        this.reloadThrottle.setServingLoad(new ReloadThrottle.ServingLoad() {
+            @Override
+            public int getInFlightRequests() {
+                HistoryState s = state.get();
+                return (s.current != null ? s.current.getLeaseCount() : 0) + (s.canary != null ? s.canary.getLeaseCount() : 0);
+            }
+
+            @Override
+            public ImageTrafficStats getTrafficStats() {
+                ContextLoadImage current = current();
+                return current != null ? current.getTrafficStats() : null;
+            }
+        });
+
+        this.quiescenceDetector = new UploadQuiescenceDetector();
+        this.quiescenceDetector.setQuietPeriodMilis(this.uploadQuietPeriodMilis);
+        this.quiescenceDetector.setMaxWaitMilis(this.uploadMaxWaitMilis);
+
+        this.reclaimer = new StagedLoadReclaimer(this.stagingStore, this);
+        this.reclaimer.setRetentionCount(this.stagedLoadRetentionCount);
+        this.reclaimer.setRetentionMaxAgeMilis(this.stagedLoadRetentionMaxAgeSecs * 1000);
+        this.reclaimer.setRetentionMaxBytes(this.stagedLoadRetentionMaxBytes);
+        this.reclaimer.start(this.reclaimIntervalSecs * 1000L);
+
+        if(memoryPressureThresholdRatio > 0) {
+            this.memoryPressureMonitor = new MemoryPressureMonitor(memoryPressureThresholdRatio, new MemoryPressureMonitor.Listener() {
+                @Override
+                public void memoryThresholdExceeded(String poolName) {
+                    evictNonServingImages("memory threshold of " + poolName + " has been exceeded");
+                }
+            });
+            this.memoryPressureMonitor.start();
+        }
+
+        this.classLoaderCleaner = new ClassLoaderCleaner();
+        this.classLoaderCleaner.setStopThreads(this.stopLeakedThreads);
+        this.leakDetector = new ClassLoaderLeakDetector(this.classLoaderCleaner);
+        this.leakDetector.setLeakSuspectDelayMilis(this.leakSuspectDelaySecs * 1000L);
+        this.leakDetector.start(this.leakCheckIntervalSecs * 1000L);
+
+        this.loader.registerListener(this);
+
+        this.asyncReloadExecutorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = DAEMON_THREAD_FACTORY.newThread(r);
+                t.setPriority(reloadThrottle.getThreadPriority());
+                return t;
+            }
+        });
+        this.retireExecutorService = Executors.newCachedThreadPool(DAEMON_THREAD_FACTORY);
+
+        if(canaryEnabled && canaryAutoPromote) {
+            this.canaryScheduler = Executors.newSingleThreadScheduledExecutor(DAEMON_THREAD_FACTORY);
+            this.canaryScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        evaluateCanary();
+                    } catch(RuntimeException e) {
+                        logger.warn("Failed to evaluate canary.", e);
+                    }
+                }
+            }, CANARY_CHECK_INTERVAL_MILIS, CANARY_CHECK_INTERVAL_MILIS, TimeUnit.MILLISECONDS);
+        }
+
+        if(jmxEnabled) {
+            registerMBean();
+        }
+
+        // autoReload 활성화 시 jar 변경감시 개시
+        if(enableAutoReload) {
+            this.watchRegistration = JarDirectoryWatcher.getSharedInstance().register(
+                    this.srcJarDirectory,
+                    this.monitorIntervalSecs * 1000L,
+                    this.useWatchService,
+                    new JarDirChangeListener());
+            if(logger.isDebugEnabled() && this.watchRegistration.isPolling()) {
+                logger.debug("{} will be polled on every {} seconds at least.", this.srcJarDirectory, this.monitorIntervalSecs);
+            }
+        } else {
+            logger.info("Auto-reloading is off.");
+        }
+    }
+
+    /**
+     * @param snapshotStartNanos 변경 감지 후 snapshot을 만들기 시작한 시각(System.nanoTime())
+     */
+    private ContextLoadImage loadImmediatelyAfterCopy(DirectoriesSnapshot orginalDirectoriesSnapshot, long snapshotStartNanos) {
+        Map<String, Object> loadAttributes = new HashMap<String, Object>();
+        ImageLoadMetrics metrics = new ImageLoadMetrics();
+        loadAttributes.put(ImageLoadMetrics.LOAD_ATTRIBUTE, metrics);
+        loadAttributes.put(ReloadThrottle.LOAD_ATTRIBUTE, reloadThrottle);
+
+        // 로드된 snapshot은 다음 변경 감지의 기준이 되므로 digest를 모두 계산해 둔다.
+        // 이전 snapshot과 size/lastModified가 같은 jar는 이전 digest가 재사용된다.
+        orginalDirectoriesSnapshot.computeDigests();
+        loadAttributes.put(LOAD_ATTR_DIRECTORY_SNAPSHOT, orginalDirectoriesSnapshot);
+        metrics.setSnapshotMilis(elapsedMilisSince(snapshotStartNanos));
+
+        // Load ID의 결정
+        String loadId = readLoadIdFromDir(this.srcJarDirectory);
+        if(loadId == null) {
+            loadId = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date())
+                    + "_"
+                    + orginalDirectoriesSnapshot.getChecksum();
+        }
+        // staging 및 load가 끝나 history에 추가될 때까지 reclaimer가 디렉토리를 삭제하지 않도록 한다.
+        File loadDirectory = new File(this.preparedDestJarBaseDirectory, loadId);
+        this.reclaimer.protect(loadDirectory);
+        try {
+            // JAR 파일 staging (저장소에 없는 jar만 복사된다)
+            JarStagingStore.StagingResult stagingResult;
+            long copyStartNanos = System.nanoTime();
+            this.reloadThrottle.checkpoint("copy", metrics);
+            try {
+                stagingResult = this.stagingStore.stage(loadId, orginalDirectoriesSnapshot);
+            } catch(IOException ioe) {
+                throw new IllegalStateException("Can't copy jar files.", ioe);
+            }
+            metrics.setCopyMilis(elapsedMilisSince(copyStartNanos));
+            metrics.setJarCount(stagingResult.getJarFiles().length);
+            metrics.setStagedBytes(sizeOf(stagingResult.getJarFiles()));
+            metrics.setCopiedBytes(stagingResult.getCopiedBytes());
+            loadAttributes.put(LOAD_ATTR_STAGED_DIRECTORY, stagingResult.getLoadDirectory());
+            loadAttributes.put(LOAD_ATTR_STAGED_DIGESTS, stagingResult.getDigests());
+            putStoreAttributes(loadAttributes, stagingResult.getDigests());
+
+            // LOAD
+            ContextLoadImage image = this.loader.load(loadId, stagingResult.getJarFiles(), loadAttributes);
+
+            // 로드결과 리턴
+            return image;
+        } finally {
+            this.reclaimer.unprotect(loadDirectory);
+        }
+    }
+
+    /**
+     * 저장소에 캐시된 jar index, component 후보 index와, staged jar에 해당하는 저장소 파일을 loader에 전달한다.
+     * 저장소 파일은 load 디렉토리가 삭제되어도 다른 load가 참조하는 동안 유지되므로 여러 image가 공유하는 classloader가 사용한다.
+     * jar index를 읽지 못하면 classloader가 직접 만들고, component 후보 index를 읽지 못하면 component scan이 모든 class를 읽는다.
+     */
+    private void putStoreAttributes(Map<String, Object> loadAttributes, Map<File, String> stagedDigests) {
+        Map<File, File> stagedBlobs = new LinkedHashMap<File, File>();
+        for(Map.Entry<File, String> entry : stagedDigests.entrySet()) {
+            stagedBlobs.put(entry.getKey(), this.stagingStore.blobOf(entry.getValue()));
+        }
+        loadAttributes.put(LOAD_ATTR_STAGED_BLOBS, stagedBlobs);
+        try {
+            loadAttributes.put(JarPackageIndex.LOAD_ATTRIBUTE, this.stagingStore.indexesOf(stagedDigests));
+        } catch(IOException e) {
+            logger.warn("Can't read jar indexes from {}.", this.stagingStore.getStoreDirectory(), e);
+        }
+        try {
+            loadAttributes.put(ComponentCandidateIndex.LOAD_ATTRIBUTE, this.stagingStore.componentIndexesOf(stagedDigests));
+        } catch(IOException e) {
+            logger.warn("Can't read component indexes from {}. Component scan will read every class.",
+                    this.stagingStore.getStoreDirectory(), e);
+        }
+    }
+
+    /**
+     * 같은 이름이 이미 등록되어 있으면(같은 JVM의 다른 애플리케이션 등) 경고만 남기고 등록하지 않는다.
+     */
+    private void registerMBean() throws MalformedObjectNameException {
+        ObjectName objectName = new ObjectName(this.jmxObjectName != null ? this.jmxObjectName
+                : "org.wheel.context:type=MultiVersionContextContainer,name=" + ObjectName.quote(this.beanName));
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MultiVersionContextContainerManagement(this), objectName);
+            this.registeredObjectName = objectName;
+            logger.debug("Registered MBean {}.", objectName);
+        } catch(InstanceAlreadyExistsException e) {
+            logger.warn("MBean {} is already registered. Set jmxObjectName to expose this container.", objectName);
+        } catch(JMException e) {
+            logger.warn("Failed to register MBean {}.", objectName, e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if(this.registeredObjectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.registeredObjectName);
+        } catch(JMException e) {
+            logger.debug("Failed to unregister MBean {}.", this.registeredObjectName, e);
+        }
+        this.registeredObjectName = null;
+    }
+
+    /**
+     * 기록된 마지막 success load의 원본 jar, 설정 및 load 디렉토리가 그대로이면 그 디렉토리를 다시 로드한다.
+     * 기록된 jar는 이미 온전함이 확인되었으므로 업로드 완료를 기다리지 않는다.
+     *
+     * @param snapshot  digest가 계산되지 않은 원본 디렉토리의 snapshot. 기록과 같은 jar에는 기록된 digest가 적용된다.
+     * @return 재사용할 수 없으면 null
+     */
+    private ContextLoadImage loadFromLastStaged(DirectoriesSnapshot snapshot, long snapshotStartNanos) {
+        LastLoadManifest manifest = LastLoadManifest.read(this.preparedDestJarBaseDirectory);
+        if(manifest == null) {
+            return null;
+        }
+        String loadId = manifest.getLoadId();
+        String directedLoadId = readLoadIdFromDir(this.srcJarDirectory);
+        if(directedLoadId != null && !directedLoadId.equals(loadId)) {
+            logger.info("{} directs loadId={}. Not reusing the last load={}.", LOAD_DIRECTIVE_FILENAME, directedLoadId, loadId);
+            return null;
+        }
+        if(!manifest.matchesSource(this.srcJarDirectory, this.loader.getConfigLocations(), snapshot)) {
+            return null;
+        }
+
+        File loadDirectory = new File(this.preparedDestJarBaseDirectory, loadId);
+        this.reclaimer.protect(loadDirectory);
+        try {
+            File[] jarFiles = manifest.stagedJarFilesIn(loadDirectory, snapshot);
+            if(jarFiles == null) {
+                return null;
+            }
+
+            Map<String, Object> loadAttributes = new HashMap<String, Object>();
+            ImageLoadMetrics metrics = new ImageLoadMetrics();
+            metrics.setSnapshotMilis(elapsedMilisSince(snapshotStartNanos));
+            metrics.setCopyMilis(0);
+            metrics.setJarCount(jarFiles.length);
+            metrics.setStagedBytes(sizeOf(jarFiles));
+            loadAttributes.put(ImageLoadMetrics.LOAD_ATTRIBUTE, metrics);
+            loadAttributes.put(ReloadThrottle.LOAD_ATTRIBUTE, reloadThrottle);
+            loadAttributes.put(LOAD_ATTR_DIRECTORY_SNAPSHOT, snapshot);
+            loadAttributes.put(LOAD_ATTR_STAGED_DIRECTORY, loadDirectory);
+            Map<File, String> stagedDigests = new LinkedHashMap<File, String>();
+            for(File jarFile : jarFiles) {
+                stagedDigests.put(jarFile, snapshot.getDigest(new File(this.srcJarDirectory, jarFile.getName())));
+            }
+            loadAttributes.put(LOAD_ATTR_STAGED_DIGESTS, stagedDigests);
+            loadAttributes.put(LOAD_ATTR_REUSED_STAGED_LOAD, Boolean.TRUE);
+            putStoreAttributes(loadAttributes, stagedDigests);
+
+            logger.info("Reusing the staged directory of the last successful load={}.", loadId);
+            return this.loader.load(loadId, jarFiles, loadAttributes);
+        } finally {
+            this.reclaimer.unprotect(loadDirectory);
+        }
+    }
+
+    /**
+     * 활성화된 success image를 다음 기동 시 재사용할 수 있도록 기록한다.
+     */
+    private void recordLastSuccessLoad(ContextLoadImage image) {
+        if(!reuseLastStagedLoad || image.getLoadAttributes() == null) {
+            return;
+        }
+        DirectoriesSnapshot snapshot = (DirectoriesSnapshot)image.getLoadAttributes().get(LOAD_ATTR_DIRECTORY_SNAPSHOT);
+        if(snapshot == null) {
+            return;
+        }
+        try {
+            LastLoadManifest.of(image.getId(), this.srcJarDirectory, this.loader.getConfigLocations(), snapshot)
+                    .store(this.preparedDestJarBaseDirectory);
+        } catch(IOException e) {
+            logger.warn("Failed to record the last successful load={}.", image.getId(), e);
+        } catch(RuntimeException e) {
+            logger.warn("Failed to record the last successful load={}.", image.getId(), e);
+        }
+    }
+
+    private static long sizeOf(File[] files) {
+        long size = 0;
+        for(File file : files) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private static long elapsedMilisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private String readLoadIdFromDir(File dir) {
+        File[] files = dir.listFiles(LOAD_DIRECTIVE_FILENAME_FILTER);
+        if(files != null && files.length > 0) {
+            for(File loadDirectiveFile : files) {
+                FileInputStream fis = null;
+                BufferedReader br = null;
+                try {
+                    fis = new FileInputStream(loadDirectiveFile);
+                    br = new BufferedReader(new InputStreamReader(fis));
+                    String line = null;
+                    while((line = br.readLine()) != null) {
+                        // #으로 시작하지 않는 첫번째 행을 trim 해서 load id로 반환
+                        if(line.startsWith("#")) continue;
+                        else return line.trim();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    if(br != null) {
+                        try { br.close(); } catch(IOException e) { e.printStackTrace(System.err);}
+                    }
+                    if(fis != null) {
+                        try { fis.close(); } catch(IOException e) { e.printStackTrace(System.err);}
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        logger.debug("destory()");
+        asyncReloadExecutorService.shutdownNow();
+        retireExecutorService.shutdownNow();
+        if(canaryScheduler != null) {
+            canaryScheduler.shutdownNow();
+        }
+        if(reclaimer != null) {
+            reclaimer.shutdown();
+        }
+        if(stagingStore != null) {
+            stagingStore.shutdown();
+        }
+        if(memoryPressureMonitor != null) {
+            memoryPressureMonitor.stop();
+        }
+        if(leakDetector != null) {
+            leakDetector.shutdown();
+        }
+        unregisterMBean();
+
+        if(this.watchRegistration != null) {
+            this.watchRegistration.cancel();
+        }
+    }
+
+    @Override
+    public Future<ContextLoadImage> startLoad() {
+        AsyncReloadTask asyncReloadTask = new AsyncReloadTask();
+        Future<ContextLoadImage> future = asyncReloadExecutorService.submit(asyncReloadTask);
+        return future;
+    }
+
+    @Override
+    public void loadFinished(ContextLoadImage image) {
+        loadCount.incrementAndGet();
+        if(!image.isSuccess()) {
+            loadFailureCount.incrementAndGet();
+        }
+
+        // 활성화될 image는 history에 추가하기 전에 warm-up 한다.
+        if(image.isSuccess() && (current() == null || autoSwitchAfterReload)) {
+            this.reloadThrottle.checkpoint("warm-up", image.getLoadMetrics());
+            warmUp(image);
+        }
+
+        long activationStartNanos = System.nanoTime();
+        appendNew(image);
+        image.getLoadMetrics().setActivationMilis(elapsedMilisSince(activationStartNanos));
+        logger.info("Load metrics of image={}: {}", image.getId(), image.getLoadMetrics());
+    }
+
+    /**
+     * 등록된 warmer들을 반복 호출한다.
+     * 반복 횟수가 warmUpMaxIterations에 도달하거나, 1회 소요시간이 warmUpTargetLatencyMicros 이하가 되거나,
+     * warmUpTimeBudgetMilis를 넘기면 종료한다.
+     */
+    private void warmUp(ContextLoadImage image) {
+        if(warmUpMaxIterations <= 0 || warmerList.isEmpty()) {
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        long budgetNanos = TimeUnit.MILLISECONDS.toNanos(warmUpTimeBudgetMilis);
+        long lastLatencyMicros = -1;
+        int iterations = 0;
+
+        try {
+            while(iterations < warmUpMaxIterations) {
+                long iterationStartNanos = System.nanoTime();
+                for(ContextLoadImageWarmer warmer : warmerList) {
+                    warmer.warmUp(image);
+                }
+                iterations++;
+                lastLatencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - iterationStartNanos);
+
+                if(warmUpTargetLatencyMicros > 0 && lastLatencyMicros <= warmUpTargetLatencyMicros) {
+                    break;
+                }
+                if(System.nanoTime() - startNanos >= budgetNanos) {
+                    logger.warn("Warm-up time budget({} ms) has been exhausted for image={}. last latency={} us",
+                            warmUpTimeBudgetMilis, image.getId(), lastLatencyMicros);
+                    break;
+                }
+            }
+        } catch(Exception e) {
+            logger.warn("Warm-up has failed for image={}. Activating without further warm-up.", image.getId(), e);
+        }
+
+        long elapsedMilis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        image.getLoadAttributes().put(LOAD_ATTR_WARM_UP_ITERATIONS, iterations);
+        image.getLoadAttributes().put(LOAD_ATTR_WARM_UP_MILIS, elapsedMilis);
+        image.getLoadMetrics().setWarmUpMilis(elapsedMilis);
+        logger.info("Warmed up image={} with {} iteration(s) in {} ms. last latency={} us",
+                image.getId(), iterations, elapsedMilis, lastLatencyMicros);
+    }
+
+    @Override
+    public ContextLoadImage current() {
+        return state.get().current;
+    }
+
+    @Override
+    public ContextLoadImage acquireCurrent() {
+        ContextLoadImage image = current();
+        while(image != null) {
+            if(image.tryAcquireLease()) {
+                return image;
+            }
+
+            // acquire 도중 current가 교체된 경우에만 재시도한다.
+            ContextLoadImage latest = current();
+            if(latest == image) {
+                throw new IllegalStateException("Current image has been retired. image=" + image.getId());
+            }
+            image = latest;
+        }
+        throw new IllegalStateException("No image has been loaded yet.");
+    }
+
+    @Override
+    public boolean tryAcquire(ContextLoadImage image) {
+        return image.tryAcquireLease();
+    }
+
+    @Override
+    public void release(ContextLoadImage image) {
+        image.releaseLease();
+    }
+
+    @Override
+    public ContextLoadImage switchToLatestSuccess() throws IllegalStateException {
+        HistoryState next = commit(new Transition() {
+            @Override
+            HistoryState apply(HistoryState s) {
+                if(isServable(s.current)) {
+                    return s;
+                }
+                for(int i = s.history.size() - 1; i >= 0; i--) {
+                    ContextLoadImage image = s.history.get(i);
+                    if(isServable(image) && !s.isRetired(image)) {
+                        return s.withCurrent(image);
+                    }
+                }
+                throw new IllegalStateException("No success image, or no context available");
+            }
+        });
+        return next.current;
+    }
+
+    @Override
+    public ContextLoadImage forceSwitchTo(final int index) {
+        HistoryState next = commit(new Transition() {
+            @Override
+            HistoryState apply(HistoryState s) {
+                ContextLoadImage image = s.history.get(index);
+                if(image.isContextClosed() || (image.isSuccess() && (image.isRetired() || s.isRetired(image)))) {
+                    throw new IllegalArgumentException("Success image, but the context inside has been already closed for freeing memory. image=" + image);
+                }
+                return s.withCurrent(image);
+            }
+        });
+        return next.current;
+    }
+
+    @Override
+    public ContextLoadImage removeFromHistory(final int index) {
+        final ContextLoadImage[] removed = new ContextLoadImage[1];
+        commit(new Transition() {
+            @Override
+            HistoryState apply(HistoryState s) {
+                ContextLoadImage image = s.history.get(index);
+                if(image == s.current || image == s.canary) {
+                    throw new IllegalStateException("Can't remove an image serving requests. image=" + image.getId());
+                }
+                removed[0] = image;
+                return s.without(index);
+            }
+        });
+
+        ContextLoadImage image = removed[0];
+        if(image.isSuccess() && !image.isContextClosed()) {
+            retire(image);
+        }
+        reclaimer.imageDetached(image);
+        return image;
+    }
+
+    @Override
+    public int size() {
+        return state.get().history.size();
+    }
+
+    @Override
+    public List<ContextLoadImage> getHistoryCopy() {
+        return new ArrayList<ContextLoadImage>(state.get().history);
+    }
+
+    /**
+     * history의 버전. history, current, canary가 바뀔 때마다 증가한다.
+     */
+    public long getHistoryVersion() {
+        return state.get().version;
+    }
+
+    @Override
+    public ContextLoadImage canary() {
+        return state.get().canary;
+    }
+
+    @Override
+    public int getCanaryWeightPercent() {
+        return state.get().canaryWeightPercent;
+    }
+
+    @Override
+    public void setCanaryWeightPercent(final int weightPercent) {
+        if(weightPercent < 0 || weightPercent > 100) {
+            throw new IllegalArgumentException("weightPercent must be 0~100. " + weightPercent);
+        }
+        commit(new Transition() {
+            @Override
+            HistoryState apply(HistoryState s) {
+                if(s.canary == null) {
+                    throw new IllegalStateException("No canary image.");
+                }
+                return s.withCanary(s.canary, weightPercent, s.canaryStepIndex);
+            }
+        });
+    }
+
+    @Override
+    public ContextLoadImage promoteCanary() {
+        HistoryState next = commit(new Transition() {
+            @Override
+            HistoryState apply(HistoryState s) {
+                if(s.canary == null) {
+                    throw new IllegalStateException("No canary image.");
+                }
+                return s.withCurrent(s.canary);
+            }
+        });
+        logger.info("Promoted canary image={}. {}", next.current.getId(), next.current.getTrafficStats());
+        return next.current;
+    }
+
+    @Override
+    public ContextLoadImage rollbackCanary() {
+        final ContextLoadImage[] rolledBack = new ContextLoadImage[1];
+        commit(new Transition() {
+            @Override
+            HistoryState apply(HistoryState s) {
+                rolledBack[0] = s.canary;
+                return s.canary == null ? s : s.withCanary(null, 0, 0);
+            }
+        });
+
+        ContextLoadImage canary = rolledBack[0];
+        if(canary != null) {
+            logger.warn("Rolled back canary image={}. {}", canary.getId(), canary.getTrafficStats());
+            retireUnlessServing(canary);
+        }
+        return canary;
+    }
+
+    /**
+     * canary의 현재 단계가 canaryStepIntervalSecs 이상 지났으면 단계 동안의 통계로 다음 단계 진행, 보류 또는 rollback을 결정한다.
+     * 평가하는 동안 state가 바뀌었으면 이번 평가는 버려진다.
+     */
+    private void evaluateCanary() {
+        HistoryState s = state.get();
+        if(s.canary == null || s.current == null) {
+            return;
+        }
+        if(System.currentTimeMillis() - s.canaryStepStartMilis < this.canaryStepIntervalSecs * 1000L) {
+            return;
+        }
+
+        ImageTrafficStats canaryWindow = s.canary.getTrafficStats().since(s.canaryStepBaseStats);
+        ImageTrafficStats stableWindow = s.current.getTrafficStats().since(s.stableStepBaseStats);
+        CanaryPromotionPolicy.Verdict verdict = this.canaryPromotionPolicy.evaluate(canaryWindow, stableWindow);
+        if(logger.isDebugEnabled()) {
+            logger.debug("Canary verdict={}. canary=[{}], stable=[{}]", verdict, canaryWindow, stableWindow);
+        }
+
+        HistoryState next;
+        switch(verdict) {
+            case ROLLBACK:
+                next = s.withCanary(null, 0, 0);
+                break;
+            case ADVANCE:
+                if(s.canaryStepIndex + 1 < this.canaryWeightSteps.length) {
+                    next = s.withCanary(s.canary, this.canaryWeightSteps[s.canaryStepIndex + 1], s.canaryStepIndex + 1);
+                } else {
+                    next = s.withCurrent(s.canary);
+                }
+                break;
+            default:
+                return;
+        }
+
+        if(!publish(s, next)) {
+            logger.debug("State has been changed while evaluating canary. Retrying on the next round.");
+            return;
+        }
+
+        if(verdict == CanaryPromotionPolicy.Verdict.ROLLBACK) {
+            logger.warn("Rolled back canary image={}, which is worse than current image={}. canary=[{}], stable=[{}]",
+                    s.canary.getId(), s.current.getId(), canaryWindow, stableWindow);
+            retireUnlessServing(s.canary);
+        } else if(next.canary == null) {
+            logger.info("Promoted canary image={}. {}", s.canary.getId(), s.canary.getTrafficStats());
+        }
+    }
+
+    private static boolean isServable(ContextLoadImage image) {
+        return image != null && image.isSuccess() && !image.isContextClosed() && !image.isRetired();
+    }
+
+    /**
+     * 로딩 이미지 추가
+     * @param newImage
+     */
+    private void appendNew(final ContextLoadImage newImage) {
+        final ContextLoadImage[] replacedCanary = new ContextLoadImage[1];
+        HistoryState next = commit(new Transition() {
+            @Override
+            HistoryState apply(HistoryState s) {
+                replacedCanary[0] = null;
+                HistoryState appended = s.with(newImage);
+
+                if(s.current == null) {
+                    // 최초 로드는 성공 여부와 상관 없이 활성화한다.
+                    return appended.withCurrent(newImage);
+                }
+
+                if(autoSwitchAfterReload) {
+                    if(newImage.isSuccess() && canaryEnabled && isServable(s.current)) {
+                        replacedCanary[0] = s.canary;
+                        return appended.withCanary(newImage, canaryWeightSteps[0], 0);
+                    } else if(newImage.isSuccess()) {
+                        return appended.withCurrent(newImage);
+                    } else if(!autoSwitchSuccessOnly) {
+                        return appended.withCurrent(newImage);
+                    }
+                }
+                return appended;
+            }
+        });
+
+        this.lastDirectoriesSnapshot = (DirectoriesSnapshot)newImage.getLoadAttributes().get(LOAD_ATTR_DIRECTORY_SNAPSHOT);
+
+        if(next.current == newImage && !newImage.isSuccess()) {
+            logger.warn("Forced applying failed image={}, because activeSuccessOnly is false.", newImage.getId());
+        }
+        if(next.canary == newImage) {
+            logger.info("Canary image={} is serving {}% of requests.", newImage.getId(), next.canaryWeightPercent);
+        }
+        if(replacedCanary[0] != null) {
+            logger.info("Canary image={} has been replaced by {}.", replacedCanary[0].getId(), newImage.getId());
+            retireUnlessServing(replacedCanary[0]);
+        }
+
+        // max를 넘지 않도록 기존 image의 context를 close한다(메모리 free 목적)
+        freeExceedingOldContext();
+    }
+
+    private void freeExceedingOldContext() {
+        if(this.imageMemoryBudgetBytes > 0) {
+            retireSelected(new RetireSelector() {
+                @Override
+                List<ContextLoadImage> select(HistoryState s) {
+                    return exceedingMemoryBudget(s);
+                }
+            }, "imageMemoryBudgetBytes=" + this.imageMemoryBudgetBytes + " has been exceeded");
+            return;
+        }
+
+        retireSelected(new RetireSelector() {
+            @Override
+            List<ContextLoadImage> select(HistoryState s) {
+                List<ContextLoadImage> selected = new ArrayList<ContextLoadImage>();
+                int successImageCount = 0;
+                for(int i = s.history.size() - 1; i >= 0; i--) {
+                    ContextLoadImage image = s.history.get(i);
+                    if(!image.isSuccess() || image.isRetired() || s.isRetired(image)) {
+                        continue;
+                    }
+                    successImageCount++;
+                    if(successImageCount > maxSuccessImagesInMemory) {
+                        selected.add(image);
+                    }
+                }
+                return selected;
+            }
+        }, "maxSuccessImagesInMemory=" + this.maxSuccessImagesInMemory + " has been exceeded");
+    }
+
+    /**
+     * current, canary를 먼저 포함시킨 후 최신 image부터 footprint를 더해 가며 imageMemoryBudgetBytes를 넘는 image를 고른다.
+     * footprint가 측정되지 않은 image는 0으로 계산된다.
+     */
+    private List<ContextLoadImage> exceedingMemoryBudget(HistoryState s) {
+        List<ContextLoadImage> selected = new ArrayList<ContextLoadImage>();
+        long retainedBytes = estimatedBytesOf(s.current) + estimatedBytesOf(s.canary);
+        for(int i = s.history.size() - 1; i >= 0; i--) {
+            ContextLoadImage image = s.history.get(i);
+            if(!image.isSuccess() || image.isRetired() || s.isRetired(image) || image == s.current || image == s.canary) {
+                continue;
+            }
+            long bytes = estimatedBytesOf(image);
+            if(retainedBytes + bytes > this.imageMemoryBudgetBytes) {
+                selected.add(image);
+            } else {
+                retainedBytes += bytes;
+            }
+        }
+        return selected;
+    }
+
+    private static long estimatedBytesOf(ContextLoadImage image) {
+        if(image == null || image.getFootprint() == null) {
+            return 0;
+        }
+        return image.getFootprint().getEstimatedBytes();
+    }
+
+    /**
+     * current와 canary를 제외한 모든 image를 retire 한다.
+     *
+     * @return retire 된 image 수
+     */
+    private int evictNonServingImages(String reason) {
+        List<ContextLoadImage> evicted = retireSelected(new RetireSelector() {
+            @Override
+            List<ContextLoadImage> select(HistoryState s) {
+                return s.history;
+            }
+        }, reason);
+        if(!evicted.isEmpty()) {
+            logger.warn("Evicted {} image(s), because {}.", evicted.size(), reason);
+        }
+        return evicted.size();
+    }
+
+    /**
+     * selector가 고른 image 중 current, canary가 아닌 success image를 retire 한다.
+     * image를 고르는 것과 retire 상태를 기록하는 것이 같은 transition에서 CAS로 적용되므로,
+     * 다른 스레드가 동시에 current나 canary로 지정한 image는 retire 되지 않는다.
+     *
+     * @return retire 된 image
+     */
+    private List<ContextLoadImage> retireSelected(final RetireSelector selector, String reason) {
+        final List<ContextLoadImage> selected = new ArrayList<ContextLoadImage>();
+        commit(new Transition() {
+            @Override
+            HistoryState apply(HistoryState s) {
+                selected.clear();
+                for(ContextLoadImage image : selector.select(s)) {
+                    if(image.isSuccess() && !image.isRetired() && !s.isRetired(image) && image != s.current && image != s.canary) {
+                        selected.add(image);
+                    }
+                }
+                return selected.isEmpty() ? s : s.withRetired(selected);
+            }
+        });
+
+        for(ContextLoadImage image : selected) {
+            logger.info("Closing {}. {}.", image, reason);
+            retire(image);
+        }
+        return selected;
+    }
+
+    /**
+     * current나 canary에서 물러난 image를 retire 한다. 그 사이에 다시 current나 canary로 지정되었으면 retire 하지 않는다.
+     */
+    private void retireUnlessServing(final ContextLoadImage image) {
+        retireSelected(new RetireSelector() {
+            @Override
+            List<ContextLoadImage> select(HistoryState s) {
+                return Collections.singletonList(image);
+            }
+        }, "It is no longer serving requests");
+    }
+
+    /**
+     * 새 image를 로드할 메모리 여유가 있는지 확인한다. current image의 footprint만큼의 여유공간이 필요하다.
+     * 여유가 없으면 current와 canary를 제외한 image를 retire 하고 예외를 던진다.
+     *
+     * @throws IllegalStateException 여유공간이 부족한 경우
+     */
+    private void checkLoadHeadroom() {
+        ContextLoadImage current = current();
+        if(current == null) {
+            return; // 최초 로드
+        }
+
+        ImageFootprint footprint = current.getFootprint();
+        long requiredHeap = Math.max(this.minLoadHeadroomBytes, footprint != null ? footprint.getHeapDeltaBytes() : 0);
+        long requiredMetaspace = footprint != null ? footprint.getMetaspaceDeltaBytes() : 0;
+        long heapHeadroom = MemoryPools.headroomOf(MemoryPools.heapUsedAfterLastGc(), MemoryPools.heapMax());
+        long metaspaceHeadroom = MemoryPools.headroomOf(MemoryPools.metaspaceUsed(), MemoryPools.metaspaceMax());
+
+        if(heapHeadroom < requiredHeap || metaspaceHeadroom < requiredMetaspace) {
+            int evicted = evictNonServingImages("memory headroom is too low to load a new image");
+            throw new IllegalStateException("Not enough memory headroom to load a new image."
+                    + " heap headroom=" + heapHeadroom + " (required " + requiredHeap + ")"
+                    + ", metaspace headroom=" + metaspaceHeadroom + " (required " + requiredMetaspace + ")."
+                    + (evicted > 0 ? " " + evicted + " old image(s) are being closed, retry later." : ""));
+        }
+    }
+
+    /**
+     * transition을 CAS로 적용한다. 다른 스레드가 먼저 state를 바꿨으면 바뀐 state로 다시 적용한다.
+     *
+     * @return 적용된 state
+     */
+    private HistoryState commit(Transition transition) {
+        while(true) {
+            HistoryState s = state.get();
+            HistoryState next = transition.apply(s);
+            if(next == s || publish(s, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * listener에게 변경될 내용을 알린 후 expected가 그대로인 경우에만 next를 게시한다.
+     * listener는 어떤 lock도 잡지 않은 상태로 호출되며, 게시에 실패하면 같은 변경에 대해 다시 호출될 수 있다.
+     * 게시 후 success image가 current가 되었으면 다음 기동 시 재사용할 수 있도록 기록한다.
+     */
+    private boolean publish(HistoryState expected, HistoryState next) {
+        if(next.current != null && next.current != expected.current) {
+            for(MultiVersionContextContainerListener listener : listenerList) {
+                listener.beforeActivation(next.current);
+            }
+        }
+        if(next.canary != expected.canary || next.canaryWeightPercent != expected.canaryWeightPercent) {
+            for(MultiVersionContextContainerListener listener : listenerList) {
+                if(listener instanceof CanaryChangeListener) {
+                    ((CanaryChangeListener)listener).canaryChanged(next.canary, next.canaryWeightPercent);
+                }
+            }
+        }
+
+        if(!state.compareAndSet(expected, next)) {
+            return false;
+        }
+        if(next.current != null && next.current != expected.current && next.current.isSuccess()) {
+            recordLastSuccessLoad(next.current);
+        }
+        return true;
+    }
+
+    private abstract static class RetireSelector {
+        /**
+         * @return s에서 retire 할 image 후보
+         */
+        abstract List<ContextLoadImage> select(HistoryState s);
+    }
+
+    private abstract static class Transition {
+        /**
+         * @return 변경된 state. 변경할 것이 없으면 s를 그대로 반환한다.
+         */
+        abstract HistoryState apply(HistoryState s);
+    }
+
+    /**
+     * history, current, canary의 불변 snapshot. 변경 시에는 복사본을 만들어 CAS로 교체한다.
+     */
+    private static final class HistoryState {
+
+        final long version;
+        final List<ContextLoadImage> history;   // 오래된 것부터
+        final ContextLoadImage current;
+        final ContextLoadImage canary;
+        final int canaryWeightPercent;
+        final int canaryStepIndex;
+        final long canaryStepStartMilis;
+        final ImageTrafficStats canaryStepBaseStats;
+        final ImageTrafficStats stableStepBaseStats;
+        final Set<ContextLoadImage> retired;    // retire가 결정된 history의 image. current, canary가 될 수 없다.
+
+        static final HistoryState EMPTY = new HistoryState(0, Collections.<ContextLoadImage>emptyList(),
+                null, null, 0, 0, 0, null, null, Collections.<ContextLoadImage>emptySet());
+
+        private HistoryState(long version, List<ContextLoadImage> history,
+                             ContextLoadImage current, ContextLoadImage canary,
+                             int canaryWeightPercent, int canaryStepIndex, long canaryStepStartMilis,
+                             ImageTrafficStats canaryStepBaseStats, ImageTrafficStats stableStepBaseStats,
+                             Set<ContextLoadImage> retired) {
+            this.version = version;
+            this.history = history;
+            this.retired = retired;
+            this.current = current;
+            this.canary = canary;
+            this.canaryWeightPercent = canaryWeightPercent;
+            this.canaryStepIndex = canaryStepIndex;
+            this.canaryStepStartMilis = canaryStepStartMilis;
+            this.canaryStepBaseStats = canaryStepBaseStats;
+            this.stableStepBaseStats = stableStepBaseStats;
+        }
+
+        HistoryState with(ContextLoadImage newImage) {
+            List<ContextLoadImage> newHistory = new ArrayList<ContextLoadImage>(history.size() + 1);
+            newHistory.addAll(history);
+            newHistory.add(newImage);
+            return new HistoryState(version + 1, Collections.unmodifiableList(newHistory), current, canary,
+                    canaryWeightPercent, canaryStepIndex, canaryStepStartMilis, canaryStepBaseStats, stableStepBaseStats, retired);
+        }
+
+        HistoryState without(int index) {
+            List<ContextLoadImage> newHistory = new ArrayList<ContextLoadImage>(history);
+            ContextLoadImage removed = newHistory.remove(index);
+            Set<ContextLoadImage> newRetired = retired;
+            if(retired.contains(removed)) {
+                newRetired = newIdentitySet(retired);
+                newRetired.remove(removed);
+                newRetired = Collections.unmodifiableSet(newRetired);
+            }
+            return new HistoryState(version + 1, Collections.unmodifiableList(newHistory), current, canary,
+                    canaryWeightPercent, canaryStepIndex, canaryStepStartMilis, canaryStepBaseStats, stableStepBaseStats, newRetired);
+        }
+
+        /**
+         * images의 retire를 기록한다. images에는 current와 canary가 없어야 한다.
+         */
+        HistoryState withRetired(Collection<ContextLoadImage> images) {
+            Set<ContextLoadImage> newRetired = newIdentitySet(retired);
+            newRetired.addAll(images);
+            return new HistoryState(version + 1, history, current, canary,
+                    canaryWeightPercent, canaryStepIndex, canaryStepStartMilis, canaryStepBaseStats, stableStepBaseStats,
+                    Collections.unmodifiableSet(newRetired));
+        }
+
+        boolean isRetired(ContextLoadImage image) {
+            return retired.contains(image);
+        }
+
+        private static Set<ContextLoadImage> newIdentitySet(Set<ContextLoadImage> images) {
+            Set<ContextLoadImage> set = Collections.newSetFromMap(new IdentityHashMap<ContextLoadImage, Boolean>());
+            set.addAll(images);
+            return set;
+        }
+
+        /**
+         * current를 변경한다. current가 바뀌면(canary 승격 포함) 진행중이던 canary는 종료된다.
+         */
+        HistoryState withCurrent(ContextLoadImage newCurrent) {
+            return new HistoryState(version + 1, history, newCurrent, null, 0, 0, 0, null, null, retired);
+        }
+
+        /**
+         * canary 또는 그 weight를 변경하고 새 단계를 시작한다. canary가 null이면 canary를 종료한다.
+         */
+        HistoryState withCanary(ContextLoadImage newCanary, int weightPercent, int stepIndex) {
+            if(newCanary == null) {
+                return new HistoryState(version + 1, history, current, null, 0, 0, 0, null, null, retired);
+            }
+            return new HistoryState(version + 1, history, current, newCanary, weightPercent, stepIndex,
+                    System.currentTimeMillis(), newCanary.getTrafficStats().copy(), current.getTrafficStats().copy(), retired);
+        }
+    }
+
+    /**
+     * image를 retire 시키고, 진행중인 lease가 모두 반환되면(최대 drainTimeoutMilis) context를 close한다.
+     * drain 대기는 retireExecutorService에서 수행되므로 호출 스레드는 block 되지 않는다.
+     * history에 있는 image는 {@link #retireSelected}로 state에 기록한 후 retire 해야 한다.
+     */
+    private void retire(final ContextLoadImage image) {
+        if(!image.retire()) {
+            return;
+        }
+
+        retireExecutorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if(!image.awaitDrained(drainTimeoutMilis)) {
+                        logger.warn("Drain timeout({} ms) has been exceeded. Closing {} with {} lease(s) in flight.",
+                                drainTimeoutMilis, image.getId(), image.getLeaseCount());
+                    }
+                } catch(InterruptedException e) {
+                    logger.info("Interrupted while draining {}. Closing immediately.", image.getId());
+                    Thread.currentThread().interrupt();
+                }
+                image.closeContext();
+                logger.info("Closed retired image={}.", image.getId());
+                for(MultiVersionContextContainerListener listener : listenerList) {
+                    if(listener instanceof ContextCloseListener) {
+                        ((ContextCloseListener)listener).contextClosed(image);
+                    }
+                }
+                releaseClassLoader(image);
+                reclaimer.requestReclaim();
+            }
+        });
+    }
+
+    /**
+     * context가 close된 image의 classloader에 대한 JVM 전역 참조를 정리하고 close 한 후, GC 되는지 추적한다.
+     */
+    private void releaseClassLoader(ContextLoadImage image) {
+        ClassLoader classLoader = image.takeClassLoader();
+        if(classLoader == null) {
+            return;
+        }
+
+        try {
+            classLoaderCleaner.clean(classLoader);
+        } catch(RuntimeException e) {
+            logger.warn("Failed to clean up classloader of image={}.", image.getId(), e);
+        }
+        leakDetector.track(image.getId(), classLoader);
+    }
+
+    @Override
+    public void addListener(MultiVersionContextContainerListener listener) {
+        listenerList.add(listener);
+    }
+
+    @Override
+    public void addWarmer(ContextLoadImageWarmer warmer) {
+        warmerList.add(warmer);
+    }
+
+    private class AsyncReloadTask implements Callable<ContextLoadImage> {
+        @Override
+        public ContextLoadImage call() throws Exception {
+            checkLoadHeadroom();
+
+            long snapshotStartNanos = System.nanoTime();
+            DirectoriesSnapshot previous = lastDirectoriesSnapshot;
+            if(previous == null && reuseLastStagedLoad) {
+                // 기동 후 최초 로드: 이전 실행의 load를 재사용할 수 있으면 staging 없이 로드한다.
+                DirectoriesSnapshot snapshot = new DirectoriesSnapshot(srcJarDirectory);
+                ContextLoadImage image = loadFromLastStaged(snapshot, snapshotStartNanos);
+                if(image != null) {
+                    return image;
+                }
+                // 재사용하지 못하더라도 기록과 같은 jar의 digest는 다시 계산하지 않는다.
+                previous = snapshot;
+            }
+
+            // 모든 jar가 온전하면 기다리지 않고 바로 로드한다.
+            DirectoriesSnapshot snapshot;
+            try {
+                snapshot = quiescenceDetector.awaitQuiescence(srcJarDirectory, previous, false, startLoadUploadMaxWaitMilis);
+            } catch(IllegalStateException e) {
+                // 온전하지 않은 jar도 그대로 로드하여 원인이 담긴 failure image를 남긴다.
+                logger.warn("{} Loading the directory as it is.", e.getMessage());
+                snapshot = new DirectoriesSnapshot(previous, srcJarDirectory);
+            }
+            ContextLoadImage image = loadImmediatelyAfterCopy(snapshot, snapshotStartNanos);
+            return image;
+        }
+    }
+
+    /**
+     * 감시 스레드로부터 변경 통지를 받아 reload executor에 reload를 요청한다.
+     * 이미 대기중인 reload가 있으면 새로 요청하지 않는다(연속된 이벤트의 병합).
+     */
+    private class JarDirChangeListener implements JarDirectoryWatcher.Listener {
+        @Override
+        public void directoryChanged(File directory) {
+            if(reloadQueued.compareAndSet(false, true)) {
+                try {
+                    asyncReloadExecutorService.submit(new ChangeTriggeredReloadTask());
+                } catch(RejectedExecutionException e) {
+                    reloadQueued.set(false);
+                    logger.debug("Reload executor is shut down. Ignoring changes of {}.", directory);
+                }
+            }
+        }
+    }
+
+    private class ChangeTriggeredReloadTask implements Callable<ContextLoadImage> {
+        @Override
+        public ContextLoadImage call() throws Exception {
+            if(lastDirectoriesSnapshot == null) {
+                reloadQueued.set(false);
+                return null;
+            }
+
+            // 업로드가 끝날 때까지 대기한다. 대기 중에 발생한 변경 통지는 이 reload에 합쳐진다.
+            DirectoriesSnapshot newDirectorysSnapshot;
+            long snapshotStartNanos = System.nanoTime();
+            try {
+                newDirectorysSnapshot = quiescenceDetector.awaitQuiescence(srcJarDirectory, lastDirectoriesSnapshot, true);
+            } catch(IllegalStateException e) {
+                logger.warn("Reload skipped. {}", e.getMessage());
+                return null;
+            } finally {
+                reloadQueued.set(false);
+            }
+
+            DirectoriesSnapshot.ChangeSet changeSet = lastDirectoriesSnapshot.diff(newDirectorysSnapshot);
+            if(changeSet.isEmpty()) {
+                return null;
+            }
+
+            logger.info("Detected changes of directory entries. {}", changeSet);
+            try {
+                checkLoadHeadroom();
+            } catch(IllegalStateException e) {
+                logger.warn("Reload skipped. {} Call startLoad() or change the jars again to reload.", e.getMessage());
+                return null;
+            }
+            return loadImmediatelyAfterCopy(newDirectorysSnapshot, snapshotStartNanos);
+        }
+    }
+
+    private void prepareDestJarBaseDirectory() throws IOException {
+        this.preparedDestJarBaseDirectory = this.destJarBaseDirectory;
+        if(this.preparedDestJarBaseDirectory == null) {
+            this.preparedDestJarBaseDirectory = new File(
+                    System.getProperty("java.io.tmpdir") + File.separator + "loads"
+            );
+        }
+
+        FileUtil.createDirectoryIfNotPresent(this.preparedDestJarBaseDirectory);
+    }
+
+    private List<MultiVersionContextContainerListener> listenerList = new CopyOnWriteArrayList<MultiVersionContextContainerListener>();
+
+    private List<ContextLoadImageWarmer> warmerList = new CopyOnWriteArrayList<ContextLoadImageWarmer>(
+            Collections.<ContextLoadImageWarmer>singletonList(new WarmUpAwareBeanWarmer()));
+
+    private static final long CANARY_CHECK_INTERVAL_MILIS = 1000;
+
+    private static final ThreadFactory DAEMON_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true);
+            return t;
+        }
+    };
 
     private static final FilenameFilter LOAD_DIRECTIVE_FILENAME_FILTER = new FilenameFilter() {
         @Override
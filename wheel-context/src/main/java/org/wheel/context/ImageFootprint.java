@@ -0,0 +1,51 @@
+package org.wheel.context;
+
+/**
+ * image가 로드되면서 사용한 메모리의 추정치.
+ *
+ * metaspace와 heap 증가량은 load 직전과 직후의 사용량 차이이므로 같은 시간에 다른 스레드가 사용한 메모리도 포함된다.
+ * heap 증가량은 마지막 GC 직후의 사용량 차이로, load 중에 GC가 일어나지 않았으면 0이고 일어났더라도 image가 유지하는
+ * heap과는 차이가 크다. 따라서 유지 비용의 추정치({@link #getEstimatedBytes()})에는 포함하지 않는다.
+ */
+public class ImageFootprint {
+
+    private final int loadedClassCount;
+    private final long metaspaceDeltaBytes;
+    private final long heapDeltaBytes;
+
+    public ImageFootprint(int loadedClassCount, long metaspaceDeltaBytes, long heapDeltaBytes) {
+        this.loadedClassCount = loadedClassCount;
+        this.metaspaceDeltaBytes = Math.max(0, metaspaceDeltaBytes);
+        this.heapDeltaBytes = Math.max(0, heapDeltaBytes);
+    }
+
+    /**
+     * image의 classloader가 정의한 class 수
+     */
+    public int getLoadedClassCount() {
+        return loadedClassCount;
+    }
+
+    public long getMetaspaceDeltaBytes() {
+        return metaspaceDeltaBytes;
+    }
+
+    public long getHeapDeltaBytes() {
+        return heapDeltaBytes;
+    }
+
+    /**
+     * image를 메모리에 유지하는 데 드는 비용의 추정치(metaspace).
+     * heap 증가량은 유지되는 heap을 근사하지 못하므로 포함하지 않는다.
+     */
+    public long getEstimatedBytes() {
+        return metaspaceDeltaBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageFootprint [classes=" + loadedClassCount
+                + ", metaspace=" + (metaspaceDeltaBytes >> 10) + "KB"
+                + ", heap=" + (heapDeltaBytes >> 10) + "KB]";
+    }
+}
@@ -0,0 +1,173 @@
+package org.wheel.context;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * image 한 건의 load 단계별 소요시간과 규모.
+ *
+ * 단계는 snapshot(업로드 완료 대기 및 digest 계산) → copy(staging) → classloader 생성 → context refresh →
+ * warm-up → strategy 초기화 → activation(history 반영 및 current 교체) 순으로 진행된다.
+ * 실행되지 않은 단계의 소요시간은 {@link #NOT_MEASURED} 이다.
+ * {@link ReloadThrottle}로 서비스 요청에 양보한 시간은 각 단계의 소요시간에 포함되며 throttledMilis로 따로 집계된다.
+ */
+public class ImageLoadMetrics {
+
+    public static final long NOT_MEASURED = -1;
+
+    /**
+     * load 시 loadAttributes에 metrics가 저장되는 key
+     */
+    public static final String LOAD_ATTRIBUTE = "loadMetrics";
+
+    private volatile long snapshotMilis = NOT_MEASURED;
+    private volatile long copyMilis = NOT_MEASURED;
+    private volatile long classLoaderMilis = NOT_MEASURED;
+    private volatile long refreshMilis = NOT_MEASURED;
+    private volatile long warmUpMilis = NOT_MEASURED;
+    private volatile long strategyInitMilis = NOT_MEASURED;
+    private volatile long activationMilis = NOT_MEASURED;
+
+    private volatile int jarCount;
+    private volatile long stagedBytes;
+    private volatile long copiedBytes;
+    private volatile int beanCount;
+    private final AtomicLong throttledMilis = new AtomicLong();
+
+    public long getSnapshotMilis() {
+        return snapshotMilis;
+    }
+
+    public void setSnapshotMilis(long snapshotMilis) {
+        this.snapshotMilis = snapshotMilis;
+    }
+
+    public long getCopyMilis() {
+        return copyMilis;
+    }
+
+    public void setCopyMilis(long copyMilis) {
+        this.copyMilis = copyMilis;
+    }
+
+    public long getClassLoaderMilis() {
+        return classLoaderMilis;
+    }
+
+    public void setClassLoaderMilis(long classLoaderMilis) {
+        this.classLoaderMilis = classLoaderMilis;
+    }
+
+    public long getRefreshMilis() {
+        return refreshMilis;
+    }
+
+    public void setRefreshMilis(long refreshMilis) {
+        this.refreshMilis = refreshMilis;
+    }
+
+    public long getWarmUpMilis() {
+        return warmUpMilis;
+    }
+
+    public void setWarmUpMilis(long warmUpMilis) {
+        this.warmUpMilis = warmUpMilis;
+    }
+
+    /**
+     * dispatcher가 image의 strategies(HandlerMapping 등)를 초기화하는 데 걸린 시간.
+     * activation 도중에 수행되므로 activationMilis에 포함된다.
+     */
+    public long getStrategyInitMilis() {
+        return strategyInitMilis;
+    }
+
+    public void setStrategyInitMilis(long strategyInitMilis) {
+        this.strategyInitMilis = strategyInitMilis;
+    }
+
+    public long getActivationMilis() {
+        return activationMilis;
+    }
+
+    public void setActivationMilis(long activationMilis) {
+        this.activationMilis = activationMilis;
+    }
+
+    public int getJarCount() {
+        return jarCount;
+    }
+
+    public void setJarCount(int jarCount) {
+        this.jarCount = jarCount;
+    }
+
+    /**
+     * image를 구성하는 jar 크기의 합
+     */
+    public long getStagedBytes() {
+        return stagedBytes;
+    }
+
+    public void setStagedBytes(long stagedBytes) {
+        this.stagedBytes = stagedBytes;
+    }
+
+    /**
+     * staging 저장소에 없어서 실제로 복사한 크기
+     */
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    public void setCopiedBytes(long copiedBytes) {
+        this.copiedBytes = copiedBytes;
+    }
+
+    public int getBeanCount() {
+        return beanCount;
+    }
+
+    public void setBeanCount(int beanCount) {
+        this.beanCount = beanCount;
+    }
+
+    /**
+     * 서비스 요청에 양보하느라 load가 멈춰 있던 시간의 합
+     */
+    public long getThrottledMilis() {
+        return throttledMilis.get();
+    }
+
+    public void addThrottledMilis(long milis) {
+        throttledMilis.addAndGet(milis);
+    }
+
+    /**
+     * 측정된 단계들의 소요시간 합. strategy 초기화는 activation에 포함되므로 따로 더하지 않는다.
+     */
+    public long getTotalMilis() {
+        long total = 0;
+        for(long milis : new long[] { snapshotMilis, copyMilis, classLoaderMilis, refreshMilis, warmUpMilis, activationMilis }) {
+            if(milis != NOT_MEASURED) {
+                total += milis;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageLoadMetrics [snapshot=" + snapshotMilis + "ms"
+                + ", copy=" + copyMilis + "ms"
+                + ", classLoader=" + classLoaderMilis + "ms"
+                + ", refresh=" + refreshMilis + "ms"
+                + ", warmUp=" + warmUpMilis + "ms"
+                + ", strategyInit=" + strategyInitMilis + "ms"
+                + ", activation=" + activationMilis + "ms"
+                + ", jars=" + jarCount
+                + ", staged=" + (stagedBytes >> 10) + "KB"
+                + ", copied=" + (copiedBytes >> 10) + "KB"
+                + ", beans=" + beanCount
+                + ", throttled=" + throttledMilis.get() + "ms]";
+    }
+}
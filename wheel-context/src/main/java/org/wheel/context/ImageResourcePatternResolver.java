@@ -0,0 +1,98 @@
+package org.wheel.context;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.wheel.context.support.ParentResourceCache;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * image context의 "classpath*:" pattern resolver.
+ *
+ * {@link WheelClassLoader}(image와 공유 라이브러리 classloader)의 jar는 매번 jar index로 찾고,
+ * 그 위의 부모 classloader에서 찾은 결과는 {@link ParentResourceCache}에 보관해 재사용한다.
+ * 따라서 reload마다 설정 파일을 찾는 비용은 webapp의 jar 수가 아니라 image의 jar 수에 비례한다.
+ * 부모의 resource가 image의 resource보다 먼저 오는 순서는 {@link PathMatchingResourcePatternResolver}와 같다.
+ */
+public class ImageResourcePatternResolver implements ResourcePatternResolver {
+
+    private final ResourceLoader resourceLoader;
+    private final ParentResourceCache parentResourceCache;
+    private final PathMatchingResourcePatternResolver imageResolver;
+
+    public ImageResourcePatternResolver(ResourceLoader resourceLoader, ParentResourceCache parentResourceCache) {
+        this.resourceLoader = resourceLoader;
+        this.parentResourceCache = parentResourceCache;
+        // "classpath*:" 의 root 디렉토리도 WheelClassLoader의 jar에서만 찾는다.
+        this.imageResolver = new PathMatchingResourcePatternResolver(resourceLoader) {
+            @Override
+            protected Resource[] findAllClassPathResources(String location) throws IOException {
+                if(!(getClassLoader() instanceof WheelClassLoader)) {
+                    return super.findAllClassPathResources(location);
+                }
+                return findImageResources(getClassLoader(), location.startsWith("/") ? location.substring(1) : location);
+            }
+        };
+    }
+
+    @Override
+    public Resource getResource(String location) {
+        return resourceLoader.getResource(location);
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return resourceLoader.getClassLoader();
+    }
+
+    @Override
+    public Resource[] getResources(String locationPattern) throws IOException {
+        ClassLoader classLoader = getClassLoader();
+        if(!locationPattern.startsWith(CLASSPATH_ALL_URL_PREFIX) || !(classLoader instanceof WheelClassLoader)) {
+            return imageResolver.getResources(locationPattern);
+        }
+        ClassLoader parent = classLoader;
+        while(parent instanceof WheelClassLoader) {
+            parent = parent.getParent();
+        }
+        if(parent == null) {
+            return new PathMatchingResourcePatternResolver(resourceLoader).getResources(locationPattern);
+        }
+
+        Set<Resource> result = new LinkedHashSet<Resource>();
+        result.addAll(Arrays.asList(parentResourceCache.getResources(parent, locationPattern)));
+        result.addAll(Arrays.asList(imageResolver.getResources(locationPattern)));
+        return result.toArray(new Resource[result.size()]);
+    }
+
+    /**
+     * @return WheelClassLoader들의 jar에 있는 resource. 부모 쪽 classloader의 jar가 먼저 온다.
+     */
+    private Resource[] findImageResources(ClassLoader classLoader, String path) throws IOException {
+        List<WheelClassLoader> classLoaders = new ArrayList<WheelClassLoader>();
+        for(ClassLoader cl = classLoader; cl instanceof WheelClassLoader; cl = cl.getParent()) {
+            classLoaders.add((WheelClassLoader)cl);
+        }
+        Collections.reverse(classLoaders);
+
+        Set<Resource> result = new LinkedHashSet<Resource>();
+        for(WheelClassLoader wheelClassLoader : classLoaders) {
+            Enumeration<URL> urls = wheelClassLoader.findResources(path);
+            while(urls.hasMoreElements()) {
+                result.add(new UrlResource(urls.nextElement()));
+            }
+        }
+        return result.toArray(new Resource[result.size()]);
+    }
+}
@@ -0,0 +1,70 @@
+package org.wheel.context;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * image가 처리한 요청의 누적 통계(요청 수, 오류 수, 처리시간 합계).
+ * canary 승격 판단에 사용되며, 일정 구간의 통계는 {@link #since(ImageTrafficStats)}로 구한다.
+ */
+public class ImageTrafficStats {
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    public void record(long latencyNanos, boolean error) {
+        requestCount.incrementAndGet();
+        totalLatencyNanos.addAndGet(latencyNanos);
+        if(error) {
+            errorCount.incrementAndGet();
+        }
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    public long getTotalLatencyNanos() {
+        return totalLatencyNanos.get();
+    }
+
+    public double getErrorRate() {
+        long requests = getRequestCount();
+        return requests == 0 ? 0.0 : (double)getErrorCount() / requests;
+    }
+
+    public long getMeanLatencyMicros() {
+        long requests = getRequestCount();
+        return requests == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(getTotalLatencyNanos() / requests);
+    }
+
+    /**
+     * 현재 값의 복사본을 반환한다.
+     */
+    public ImageTrafficStats copy() {
+        return since(null);
+    }
+
+    /**
+     * base 이후에 기록된 통계를 반환한다.
+     *
+     * @param base 이전에 {@link #copy()}로 얻은 통계. null이면 전체 통계.
+     */
+    public ImageTrafficStats since(ImageTrafficStats base) {
+        ImageTrafficStats window = new ImageTrafficStats();
+        window.requestCount.set(getRequestCount() - (base != null ? base.getRequestCount() : 0));
+        window.errorCount.set(getErrorCount() - (base != null ? base.getErrorCount() : 0));
+        window.totalLatencyNanos.set(getTotalLatencyNanos() - (base != null ? base.getTotalLatencyNanos() : 0));
+        return window;
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + getRequestCount() + ", errors=" + getErrorCount() + ", meanLatency=" + getMeanLatencyMicros() + "us";
+    }
+}
@@ -21,6 +21,65 @@ public interface MultiVersionContextContainer {
      */
     ContextLoadImage current();
 
+    /**
+     * 현재 활성화된 image의 lease를 획득하여 반환한다.
+     * lease가 반환({@link #release(ContextLoadImage)})될 때까지 해당 image의 context는 close되지 않는다.
+     * HTTP 요청 이외의 호출자(batch, scheduler 등)는 반드시 try-finally로 release()와 짝지어 사용해야 한다.
+     *
+     * @return lease를 획득한 {@link ContextLoadImage}
+     * @throws IllegalStateException 로드된 image가 없거나, lease를 획득할 수 없는 경우
+     */
+    ContextLoadImage acquireCurrent();
+
+    /**
+     * 지정된 image의 lease 획득을 시도한다. 이미 retire된 image인 경우 false를 반환한다.
+     *
+     * @param image
+     * @return lease 획득 여부
+     */
+    boolean tryAcquire(ContextLoadImage image);
+
+    /**
+     * {@link #acquireCurrent()} 또는 {@link #tryAcquire(ContextLoadImage)}로 획득한 lease를 반환한다.
+     * retire된 image의 마지막 lease가 반환되면 그 image의 context가 close된다.
+     *
+     * @param image
+     */
+    void release(ContextLoadImage image);
+
+    /**
+     * 현재 일부 요청을 처리중인 canary image를 반환한다. canary가 없으면 null.
+     */
+    ContextLoadImage canary();
+
+    /**
+     * canary image로 보낼 요청의 비율(0~100)을 반환한다.
+     */
+    int getCanaryWeightPercent();
+
+    /**
+     * canary image로 보낼 요청의 비율을 변경한다. 100으로 지정해도 승격되지는 않는다.
+     *
+     * @param weightPercent 0~100
+     * @throws IllegalStateException canary가 없는 경우
+     */
+    void setCanaryWeightPercent(int weightPercent);
+
+    /**
+     * canary image를 current()로 승격한다.
+     *
+     * @return 승격된 image
+     * @throws IllegalStateException canary가 없는 경우
+     */
+    ContextLoadImage promoteCanary();
+
+    /**
+     * canary를 중단하고 canary image를 retire 한다. 모든 요청은 current() image가 처리한다.
+     *
+     * @return 중단된 canary image. canary가 없었으면 null
+     */
+    ContextLoadImage rollbackCanary();
+
     /**
      * 이 컨테이너의 current() image를 가장 최근의 success image로 변경한다.
      * 만약 current() image가 success 상태라면 아무 변경도 일어나지 않으며,
@@ -42,6 +101,7 @@ public interface MultiVersionContextContainer {
 
     /**
      * index에 해당하는 image를 history에서 삭제한다.
+     * 삭제된 image의 context는 진행중인 lease가 모두 반환된 후(또는 drain timeout 후)에 close된다.
      *
      * @param index
      *
@@ -68,4 +128,10 @@ public interface MultiVersionContextContainer {
      * @param listener
      */
     void addListener(MultiVersionContextContainerListener listener);
+
+    /**
+     * 새 image가 활성화되기 전에 호출될 warmer를 등록한다.
+     * @param warmer
+     */
+    void addWarmer(ContextLoadImageWarmer warmer);
 }
@@ -2,5 +2,12 @@ package org.wheel.context;
 
 public interface MultiVersionContextContainerListener {
 
+    /**
+     * image가 current로 게시되기 전에 호출된다.
+     * 어떤 lock도 잡지 않은 상태로 호출되며, 다른 변경과 경합한 경우 같은 image 또는 다른 image로 다시 호출될 수 있다.
+     * 따라서 listener는 image를 사용할 준비만 하고, 실제 사용할 image는 {@link MultiVersionContextContainer#current()}로 판단해야 한다.
+     *
+     * @param image
+     */
     void beforeActivation(ContextLoadImage image);
 }
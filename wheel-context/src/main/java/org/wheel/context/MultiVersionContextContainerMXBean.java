@@ -0,0 +1,96 @@
+package org.wheel.context;
+
+/**
+ * {@link DefaultMultiVersionContextContainer}의 JMX 관리 인터페이스.
+ *
+ * LastLoad* 속성은 history에 가장 마지막으로 추가된 image의 값이며, 측정되지 않은 단계는 -1 이다.
+ */
+public interface MultiVersionContextContainerMXBean {
+
+    String getCurrentImageId();
+
+    String getCanaryImageId();
+
+    int getCanaryWeightPercent();
+
+    int getHistorySize();
+
+    long getHistoryVersion();
+
+    /**
+     * history의 각 image 요약. 오래된 것부터
+     */
+    String[] getHistory();
+
+    /**
+     * 누적 load 횟수(실패 포함)
+     */
+    long getLoadCount();
+
+    long getLoadFailureCount();
+
+    String getLastLoadImageId();
+
+    boolean isLastLoadSuccess();
+
+    long getLastLoadTotalMilis();
+
+    long getLastLoadSnapshotMilis();
+
+    long getLastLoadCopyMilis();
+
+    long getLastLoadClassLoaderMilis();
+
+    long getLastLoadRefreshMilis();
+
+    long getLastLoadWarmUpMilis();
+
+    long getLastLoadStrategyInitMilis();
+
+    long getLastLoadActivationMilis();
+
+    int getLastLoadJarCount();
+
+    long getLastLoadStagedBytes();
+
+    long getLastLoadCopiedBytes();
+
+    long getLastLoadThrottledMilis();
+
+    int getLastLoadBeanCount();
+
+    int getLastLoadClassCount();
+
+    /**
+     * current image의 메모리 사용량 추정치({@link ImageFootprint#getEstimatedBytes()})
+     */
+    long getCurrentFootprintBytes();
+
+    /**
+     * context가 열려 있는 모든 image의 메모리 사용량 추정치 합
+     */
+    long getLoadedImagesFootprintBytes();
+
+    long getTrackedClassLoaderCount();
+
+    long getCollectedClassLoaderCount();
+
+    long getSuspectedClassLoaderLeakCount();
+
+    /**
+     * reload를 수행하고 끝날 때까지 대기한다.
+     *
+     * @return 로드된 image의 id
+     */
+    String load();
+
+    String switchToLatestSuccess();
+
+    String forceSwitchTo(int index);
+
+    String removeFromHistory(int index);
+
+    String promoteCanary();
+
+    String rollbackCanary();
+}
@@ -0,0 +1,245 @@
+package org.wheel.context;
+
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@link DefaultMultiVersionContextContainer}를 JMX에 노출하는 adapter.
+ *
+ * JMX client에 애플리케이션 class가 없어도 되도록 java.lang의 exception만 던진다.
+ */
+class MultiVersionContextContainerManagement implements MultiVersionContextContainerMXBean {
+
+    private final DefaultMultiVersionContextContainer container;
+
+    MultiVersionContextContainerManagement(DefaultMultiVersionContextContainer container) {
+        this.container = container;
+    }
+
+    @Override
+    public String getCurrentImageId() {
+        return idOf(container.current());
+    }
+
+    @Override
+    public String getCanaryImageId() {
+        return idOf(container.canary());
+    }
+
+    @Override
+    public int getCanaryWeightPercent() {
+        return container.getCanaryWeightPercent();
+    }
+
+    @Override
+    public int getHistorySize() {
+        return container.size();
+    }
+
+    @Override
+    public long getHistoryVersion() {
+        return container.getHistoryVersion();
+    }
+
+    @Override
+    public String[] getHistory() {
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        ContextLoadImage current = container.current();
+        ContextLoadImage canary = container.canary();
+        List<ContextLoadImage> history = container.getHistoryCopy();
+
+        String[] summaries = new String[history.size()];
+        for(int i = 0; i < history.size(); i++) {
+            ContextLoadImage image = history.get(i);
+            String status = image == current ? "current"
+                    : image == canary ? "canary"
+                    : !image.isSuccess() ? "failure"
+                    : image.isContextClosed() || image.isRetired() ? "closed"
+                    : "standby";
+            summaries[i] = i + ": " + image.getId()
+                    + " [" + status + "]"
+                    + " loaded at " + df.format(image.getLoadStartTime())
+                    + " in " + image.getLoadMetrics().getTotalMilis() + "ms"
+                    + (image.getFootprint() != null ? ", " + image.getFootprint() : "");
+        }
+        return summaries;
+    }
+
+    @Override
+    public long getLoadCount() {
+        return container.getLoadCount();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return container.getLoadFailureCount();
+    }
+
+    @Override
+    public String getLastLoadImageId() {
+        return idOf(lastLoaded());
+    }
+
+    @Override
+    public boolean isLastLoadSuccess() {
+        ContextLoadImage image = lastLoaded();
+        return image != null && image.isSuccess();
+    }
+
+    @Override
+    public long getLastLoadTotalMilis() {
+        return lastLoadMetrics().getTotalMilis();
+    }
+
+    @Override
+    public long getLastLoadSnapshotMilis() {
+        return lastLoadMetrics().getSnapshotMilis();
+    }
+
+    @Override
+    public long getLastLoadCopyMilis() {
+        return lastLoadMetrics().getCopyMilis();
+    }
+
+    @Override
+    public long getLastLoadClassLoaderMilis() {
+        return lastLoadMetrics().getClassLoaderMilis();
+    }
+
+    @Override
+    public long getLastLoadRefreshMilis() {
+        return lastLoadMetrics().getRefreshMilis();
+    }
+
+    @Override
+    public long getLastLoadWarmUpMilis() {
+        return lastLoadMetrics().getWarmUpMilis();
+    }
+
+    @Override
+    public long getLastLoadStrategyInitMilis() {
+        return lastLoadMetrics().getStrategyInitMilis();
+    }
+
+    @Override
+    public long getLastLoadActivationMilis() {
+        return lastLoadMetrics().getActivationMilis();
+    }
+
+    @Override
+    public int getLastLoadJarCount() {
+        return lastLoadMetrics().getJarCount();
+    }
+
+    @Override
+    public long getLastLoadStagedBytes() {
+        return lastLoadMetrics().getStagedBytes();
+    }
+
+    @Override
+    public long getLastLoadCopiedBytes() {
+        return lastLoadMetrics().getCopiedBytes();
+    }
+
+    @Override
+    public long getLastLoadThrottledMilis() {
+        return lastLoadMetrics().getThrottledMilis();
+    }
+
+    @Override
+    public int getLastLoadBeanCount() {
+        return lastLoadMetrics().getBeanCount();
+    }
+
+    @Override
+    public int getLastLoadClassCount() {
+        ContextLoadImage image = lastLoaded();
+        return image != null && image.getFootprint() != null ? image.getFootprint().getLoadedClassCount() : 0;
+    }
+
+    @Override
+    public long getCurrentFootprintBytes() {
+        ContextLoadImage image = container.current();
+        return image != null && image.getFootprint() != null ? image.getFootprint().getEstimatedBytes() : 0;
+    }
+
+    @Override
+    public long getLoadedImagesFootprintBytes() {
+        long bytes = 0;
+        for(ContextLoadImage image : container.getHistoryCopy()) {
+            if(image.getFootprint() != null && !image.isContextClosed()) {
+                bytes += image.getFootprint().getEstimatedBytes();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getTrackedClassLoaderCount() {
+        return container.getTrackedClassLoaderCount();
+    }
+
+    @Override
+    public long getCollectedClassLoaderCount() {
+        return container.getCollectedClassLoaderCount();
+    }
+
+    @Override
+    public long getSuspectedClassLoaderLeakCount() {
+        return container.getSuspectedClassLoaderLeakCount();
+    }
+
+    @Override
+    public String load() {
+        try {
+            return idOf(container.startLoad().get());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading.");
+        } catch(ExecutionException e) {
+            throw new IllegalStateException("Failed to load. " + e.getCause());
+        }
+    }
+
+    @Override
+    public String switchToLatestSuccess() {
+        return idOf(container.switchToLatestSuccess());
+    }
+
+    @Override
+    public String forceSwitchTo(int index) {
+        return idOf(container.forceSwitchTo(index));
+    }
+
+    @Override
+    public String removeFromHistory(int index) {
+        return idOf(container.removeFromHistory(index));
+    }
+
+    @Override
+    public String promoteCanary() {
+        return idOf(container.promoteCanary());
+    }
+
+    @Override
+    public String rollbackCanary() {
+        return idOf(container.rollbackCanary());
+    }
+
+    private ContextLoadImage lastLoaded() {
+        List<ContextLoadImage> history = container.getHistoryCopy();
+        return history.isEmpty() ? null : history.get(history.size() - 1);
+    }
+
+    private ImageLoadMetrics lastLoadMetrics() {
+        ContextLoadImage image = lastLoaded();
+        return image != null ? image.getLoadMetrics() : EMPTY_METRICS;
+    }
+
+    private static String idOf(ContextLoadImage image) {
+        return image != null ? image.getId() : null;
+    }
+
+    private static final ImageLoadMetrics EMPTY_METRICS = new ImageLoadMetrics();
+}
@@ -0,0 +1,35 @@
+package org.wheel.context;
+
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.wheel.context.support.ParallelPreInstantiationBeanFactory;
+
+/**
+ * non-lazy singleton을 병렬로 생성하는 {@link CachingClassPathXmlApplicationContext}.
+ * 초기화 시 I/O를 하는 독립적인 bean이 많은 경우 {@link DefaultContextLoader#setContextClass}로 지정하여 load 시간을 줄인다.
+ *
+ * @see ParallelPreInstantiationBeanFactory
+ */
+public class ParallelClassPathXmlApplicationContext extends CachingClassPathXmlApplicationContext {
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public ParallelClassPathXmlApplicationContext() {
+        super();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * singleton 생성에 사용할 스레드 수. 기본값은 processor 수이며 1이면 기존과 같이 순서대로 생성한다.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    protected DefaultListableBeanFactory createBeanFactory() {
+        return new ParallelPreInstantiationBeanFactory(getInternalParentBeanFactory(), this.parallelism);
+    }
+}
@@ -0,0 +1,190 @@
+package org.wheel.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wheel.context.support.IoRateLimiter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * reload가 서비스 중인 요청과 CPU, I/O를 다투지 않도록 한다.
+ *
+ * load 단계의 경계(checkpoint)마다 처리중인 요청 수와 최근 평균 처리시간을 확인하여, 기준을 넘으면 기준 아래로
+ * 내려갈 때까지 reload를 멈춘다. 한 load가 멈추는 시간의 합은 maxYieldMilisPerLoad 로 제한되므로 부하가 계속되더라도
+ * load는 완료된다. 기준이 0이면 확인하지 않는다.
+ * reload 스레드는 threadPriority로 실행되고, jar 복사 대역폭은 {@link #getCopyRateLimiter()}로 제한된다.
+ */
+public class ReloadThrottle {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReloadThrottle.class);
+
+    /**
+     * load 시 loadAttributes에 throttle이 저장되는 key
+     */
+    public static final String LOAD_ATTRIBUTE = "reloadThrottle";
+
+    private static final long POLL_INTERVAL_MILIS = 50;
+    private static final long LATENCY_SAMPLE_MILIS = 200;
+
+    /**
+     * 서비스 중인 image의 부하
+     */
+    public interface ServingLoad {
+
+        /**
+         * 처리중인 요청 수
+         */
+        int getInFlightRequests();
+
+        /**
+         * 서비스 중인 image의 누적 통계. 없으면 null
+         */
+        ImageTrafficStats getTrafficStats();
+    }
+
+    private int threadPriority = Thread.MIN_PRIORITY;
+    private int maxInFlightRequests = 0;
+    private long maxMeanLatencyMicros = 0;
+    private long maxYieldMilisPerLoad = 60 * 1000;
+    private final IoRateLimiter copyRateLimiter = new IoRateLimiter();
+
+    private volatile ServingLoad servingLoad;
+
+    // 최근 평균 처리시간의 측정 구간. guarded by this
+    private ImageTrafficStats sampledStats;
+    private ImageTrafficStats sampleBase;
+    private long sampleStartNanos;
+    private long recentMeanLatencyMicros;
+
+    public int getThreadPriority() {
+        return threadPriority;
+    }
+
+    /**
+     * reload 스레드의 priority. OS에 따라 무시될 수 있다(Linux의 HotSpot은 기본적으로 무시한다).
+     */
+    public void setThreadPriority(int threadPriority) {
+        this.threadPriority = Math.max(Thread.MIN_PRIORITY, Math.min(Thread.MAX_PRIORITY, threadPriority));
+    }
+
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    public long getMaxMeanLatencyMicros() {
+        return maxMeanLatencyMicros;
+    }
+
+    public void setMaxMeanLatencyMicros(long maxMeanLatencyMicros) {
+        this.maxMeanLatencyMicros = maxMeanLatencyMicros;
+    }
+
+    public long getMaxYieldMilisPerLoad() {
+        return maxYieldMilisPerLoad;
+    }
+
+    public void setMaxYieldMilisPerLoad(long maxYieldMilisPerLoad) {
+        this.maxYieldMilisPerLoad = maxYieldMilisPerLoad;
+    }
+
+    public IoRateLimiter getCopyRateLimiter() {
+        return copyRateLimiter;
+    }
+
+    public ServingLoad getServingLoad() {
+        return servingLoad;
+    }
+
+    public void setServingLoad(ServingLoad servingLoad) {
+        this.servingLoad = servingLoad;
+    }
+
+    /**
+     * 서비스 부하가 기준을 넘으면 기준 아래로 내려가거나 load의 양보 시간을 모두 쓸 때까지 기다린다.
+     * 기다린 시간은 metrics의 throttledMilis에 더해진다. interrupt되면 기다리지 않고 반환한다.
+     *
+     * @param phase  다음에 수행할 단계. log에 사용된다.
+     */
+    public void checkpoint(String phase, ImageLoadMetrics metrics) {
+        ServingLoad servingLoad = this.servingLoad;
+        if(servingLoad == null || (maxInFlightRequests <= 0 && maxMeanLatencyMicros <= 0)) {
+            return;
+        }
+        long remainingMilis = maxYieldMilisPerLoad - metrics.getThrottledMilis();
+        if(remainingMilis <= 0 || !isOverloaded(servingLoad)) {
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(remainingMilis);
+        boolean exhausted = false;
+        try {
+            do {
+                long leftNanos = deadlineNanos - System.nanoTime();
+                if(leftNanos <= 0) {
+                    exhausted = true;
+                    break;
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.min(TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL_MILIS), leftNanos));
+            } while(isOverloaded(servingLoad));
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long yieldedMilis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        metrics.addThrottledMilis(yieldedMilis);
+        if(exhausted) {
+            logger.info("Reload has used up its yield budget({} ms) before {}. Proceeding under load. inFlight={}, meanLatency={}us",
+                    maxYieldMilisPerLoad, phase, servingLoad.getInFlightRequests(), recentMeanLatencyMicros(servingLoad));
+        } else {
+            logger.debug("Reload yielded {} ms to serving requests before {}.", yieldedMilis, phase);
+        }
+    }
+
+    private boolean isOverloaded(ServingLoad servingLoad) {
+        if(maxInFlightRequests > 0 && servingLoad.getInFlightRequests() > maxInFlightRequests) {
+            return true;
+        }
+        return maxMeanLatencyMicros > 0 && recentMeanLatencyMicros(servingLoad) > maxMeanLatencyMicros;
+    }
+
+    /**
+     * LATENCY_SAMPLE_MILIS 이상 지난 측정 구간의 평균 처리시간. 구간이 끝나지 않았으면 이전 구간의 값을 반환한다.
+     * 서비스 중인 image가 바뀌면 새 image의 통계로 측정을 다시 시작한다.
+     */
+    private synchronized long recentMeanLatencyMicros(ServingLoad servingLoad) {
+        ImageTrafficStats stats = servingLoad.getTrafficStats();
+        long now = System.nanoTime();
+        if(stats == null) {
+            sampledStats = null;
+            recentMeanLatencyMicros = 0;
+            return 0;
+        }
+        if(stats != sampledStats) {
+            sampledStats = stats;
+            sampleBase = stats.copy();
+            sampleStartNanos = now;
+            recentMeanLatencyMicros = 0;
+            return 0;
+        }
+        if(now - sampleStartNanos >= TimeUnit.MILLISECONDS.toNanos(LATENCY_SAMPLE_MILIS)) {
+            recentMeanLatencyMicros = stats.since(sampleBase).getMeanLatencyMicros();
+            sampleBase = stats.copy();
+            sampleStartNanos = now;
+        }
+        return recentMeanLatencyMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "ReloadThrottle [priority=" + threadPriority
+                + ", maxInFlightRequests=" + maxInFlightRequests
+                + ", maxMeanLatency=" + maxMeanLatencyMicros + "us"
+                + ", maxYieldPerLoad=" + maxYieldMilisPerLoad + "ms"
+                + ", copyBytesPerSecond=" + copyRateLimiter.getBytesPerSecond() + "]";
+    }
+}
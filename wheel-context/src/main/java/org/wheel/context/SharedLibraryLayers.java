@@ -0,0 +1,106 @@
+package org.wheel.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wheel.context.support.ClassLoaderCleaner;
+import org.wheel.context.support.JarPackageIndex;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 여러 image가 공유하는 라이브러리 jar의 classloader들.
+ *
+ * 라이브러리 jar 목록(이름과 digest)이 같은 image들은 하나의 classloader를 부모로 사용하므로,
+ * 라이브러리 class는 reload마다 다시 로드되지 않고 metaspace에도 한 번만 올라간다.
+ * 참조하는 image의 classloader가 모두 close되면 라이브러리 classloader도 정리된다.
+ */
+class SharedLibraryLayers {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedLibraryLayers.class);
+
+    private final Map<String, Layer> layers = new HashMap<String, Layer>();   // key: 이름=digest 목록
+    private final ClassLoaderCleaner cleaner = new ClassLoaderCleaner();
+
+    /**
+     * 라이브러리 classloader를 참조한다. 반환된 callback을 실행하면 참조를 반환한다. callback은 한 번만 동작한다.
+     *
+     * @param jarFiles  라이브러리 jar. 이 classloader보다 오래 유지되는 경로여야 한다.
+     * @param digests   jar별 content digest
+     */
+    synchronized Reference acquire(File[] jarFiles, String[] digests, Map<File, JarPackageIndex> indexes,
+                                   boolean mappedJarAccess, int negativeLookupCacheSize, ClassLoader parent) {
+        StringBuilder key = new StringBuilder();
+        for(int i = 0; i < jarFiles.length; i++) {
+            key.append(jarFiles[i].getName()).append('=').append(digests[i]).append(';');
+        }
+        key.append(System.identityHashCode(parent));
+
+        Layer layer = layers.get(key.toString());
+        if(layer == null || layer.parent != parent) {
+            WheelClassLoader classLoader = new WheelClassLoader(jarFiles, indexes, mappedJarAccess, parent);
+            classLoader.setNegativeLookupCacheSize(negativeLookupCacheSize);
+            layer = new Layer(key.toString(), classLoader, parent);
+            layers.put(layer.key, layer);
+            logger.info("Created shared library classloader with {} jar(s).", jarFiles.length);
+        } else {
+            logger.debug("Reusing shared library classloader with {} jar(s), {} image(s) sharing it.",
+                    jarFiles.length, layer.referenceCount);
+        }
+        layer.referenceCount++;
+        return new Reference(layer);
+    }
+
+    private void release(Layer layer) {
+        synchronized(this) {
+            if(--layer.referenceCount > 0) {
+                return;
+            }
+            if(layers.get(layer.key) == layer) {
+                layers.remove(layer.key);
+            }
+        }
+        // 정리는 스레드 목록 등을 확인하므로 다른 image의 load를 막지 않도록 lock 밖에서 수행한다.
+        logger.info("No image uses the shared library classloader any more. Cleaning it up. {} class(es) were defined.",
+                layer.classLoader.getDefinedClassCount());
+        cleaner.clean(layer.classLoader);
+    }
+
+    private static class Layer {
+        private final String key;
+        private final WheelClassLoader classLoader;
+        private final ClassLoader parent;
+        private int referenceCount;
+
+        private Layer(String key, WheelClassLoader classLoader, ClassLoader parent) {
+            this.key = key;
+            this.classLoader = classLoader;
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * image 하나의 라이브러리 classloader 참조
+     */
+    class Reference implements Runnable {
+        private final Layer layer;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reference(Layer layer) {
+            this.layer = layer;
+        }
+
+        WheelClassLoader getClassLoader() {
+            return layer.classLoader;
+        }
+
+        @Override
+        public void run() {
+            if(released.compareAndSet(false, true)) {
+                release(layer);
+            }
+        }
+    }
+}
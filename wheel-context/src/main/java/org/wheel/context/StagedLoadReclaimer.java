@@ -0,0 +1,284 @@
+package org.wheel.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileSystemUtils;
+import org.wheel.context.support.JarStagingStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 더 이상 사용되지 않는 staged load 디렉토리(destJarBaseDirectory/&lt;loadId&gt;)를 삭제한다.
+ *
+ * current image 및 context가 살아있는 image의 디렉토리는 삭제하지 않는다.
+ * context가 close되고 container가 classloader를 정리한 image의 디렉토리는, 남아있는 failure image의 classloader를
+ * close한 뒤 retention 조건(개수, 경과시간, 전체 크기)을 넘는 오래된 것부터 삭제한다.
+ * 이전 실행에서 남은 디렉토리도 같은 조건으로 정리된다.
+ * 디렉토리 삭제 후에는 어떤 디렉토리에서도 참조되지 않는 저장소 파일을 삭제한다.
+ *
+ * 정리 작업은 전용 스레드에서 수행되므로 요청 처리 및 reload 스레드에 영향을 주지 않는다.
+ */
+public class StagedLoadReclaimer {
+
+    private static final Logger logger = LoggerFactory.getLogger(StagedLoadReclaimer.class);
+
+    private final JarStagingStore stagingStore;
+    private final MultiVersionContextContainer container;
+
+    private int retentionCount = 3;
+    private long retentionMaxAgeMilis = 7L * 24 * 60 * 60 * 1000;
+    private long retentionMaxBytes = Long.MAX_VALUE;
+
+    // staging 중이라 아직 history에 추가되지 않은 디렉토리
+    private final Set<File> protectedDirectories = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    // history에서 제거되었지만 아직 디렉토리가 정리되지 않은 image
+    private final Map<File, ContextLoadImage> detachedImages = new ConcurrentHashMap<File, ContextLoadImage>();
+
+    private final AtomicBoolean reclaimRequested = new AtomicBoolean(false);
+    private ScheduledExecutorService scheduler;
+
+    public StagedLoadReclaimer(JarStagingStore stagingStore, MultiVersionContextContainer container) {
+        this.stagingStore = stagingStore;
+        this.container = container;
+    }
+
+    public void setRetentionCount(int retentionCount) {
+        this.retentionCount = retentionCount;
+    }
+
+    public void setRetentionMaxAgeMilis(long retentionMaxAgeMilis) {
+        this.retentionMaxAgeMilis = retentionMaxAgeMilis;
+    }
+
+    public void setRetentionMaxBytes(long retentionMaxBytes) {
+        this.retentionMaxBytes = retentionMaxBytes;
+    }
+
+    public void start(long intervalMilis) {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "StagedLoadReclaimer");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reclaimSafely();
+            }
+        }, intervalMilis, intervalMilis, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if(this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * staging을 시작하기 전에 호출하여 해당 디렉토리가 삭제되지 않도록 한다.
+     */
+    public void protect(File loadDirectory) {
+        this.protectedDirectories.add(loadDirectory);
+    }
+
+    /**
+     * image가 history에 추가된 후(또는 load가 실패한 후) 호출한다.
+     */
+    public void unprotect(File loadDirectory) {
+        this.protectedDirectories.remove(loadDirectory);
+    }
+
+    /**
+     * history에서 제거된 image를 정리 대상으로 등록하고 정리를 요청한다.
+     */
+    public void imageDetached(ContextLoadImage image) {
+        File loadDirectory = loadDirectoryOf(image);
+        if(loadDirectory != null) {
+            this.detachedImages.put(loadDirectory, image);
+        }
+        requestReclaim();
+    }
+
+    /**
+     * 정리 작업을 비동기로 요청한다. 이미 요청이 대기중이면 무시된다.
+     */
+    public void requestReclaim() {
+        if(this.scheduler != null && reclaimRequested.compareAndSet(false, true)) {
+            try {
+                this.scheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        reclaimRequested.set(false);
+                        reclaimSafely();
+                    }
+                });
+            } catch(RejectedExecutionException e) {
+                reclaimRequested.set(false);
+            }
+        }
+    }
+
+    private void reclaimSafely() {
+        try {
+            reclaim();
+        } catch(RuntimeException e) {
+            logger.warn("Failed to reclaim staged load directories.", e);
+        }
+    }
+
+    void reclaim() {
+        ContextLoadImage current = container.current();
+
+        // 1. 디렉토리별 image 수집 및 사용중인 디렉토리 판별
+        Set<File> liveDirectories = new HashSet<File>(this.protectedDirectories);
+        Map<File, List<ContextLoadImage>> imagesByDirectory = new HashMap<File, List<ContextLoadImage>>();
+        List<ContextLoadImage> images = new ArrayList<ContextLoadImage>(container.getHistoryCopy());
+        images.addAll(this.detachedImages.values());
+        for(ContextLoadImage image : images) {
+            File loadDirectory = loadDirectoryOf(image);
+            if(loadDirectory == null) {
+                continue;
+            }
+            List<ContextLoadImage> sameDirectoryImages = imagesByDirectory.get(loadDirectory);
+            if(sameDirectoryImages == null) {
+                sameDirectoryImages = new ArrayList<ContextLoadImage>();
+                imagesByDirectory.put(loadDirectory, sameDirectoryImages);
+            }
+            sameDirectoryImages.add(image);
+            if(!isReclaimable(image, current)) {
+                liveDirectories.add(loadDirectory);
+            }
+        }
+
+        // 2. 사용되지 않는 디렉토리의 classloader를 close 하여 file handle을 해제한다.
+        List<File> candidates = new ArrayList<File>();
+        File[] loadDirectories = stagingStore.getBaseDirectory().listFiles();
+        if(loadDirectories == null) {
+            return;
+        }
+        for(File loadDirectory : loadDirectories) {
+            if(!loadDirectory.isDirectory()
+                    || loadDirectory.equals(stagingStore.getStoreDirectory())
+                    || liveDirectories.contains(loadDirectory)) {
+                continue;
+            }
+            List<ContextLoadImage> sameDirectoryImages = imagesByDirectory.get(loadDirectory);
+            if(sameDirectoryImages != null) {
+                for(ContextLoadImage image : sameDirectoryImages) {
+                    closeClassLoader(image);
+                }
+            }
+            candidates.add(loadDirectory);
+        }
+
+        // 3. retention 조건을 넘는 디렉토리를 오래된 것부터 삭제한다.
+        Collections.sort(candidates, NEWEST_FIRST);
+        long now = System.currentTimeMillis();
+        long retainedBytes = 0;
+        int retainedCount = 0;
+        int deletedCount = 0;
+        for(File candidate : candidates) {
+            long bytes = sizeOf(candidate);
+            boolean retain = retainedCount < this.retentionCount
+                    && now - candidate.lastModified() <= this.retentionMaxAgeMilis
+                    && retainedBytes + bytes <= this.retentionMaxBytes;
+            if(retain) {
+                retainedCount++;
+                retainedBytes += bytes;
+                continue;
+            }
+
+            if(FileSystemUtils.deleteRecursively(candidate)) {
+                deletedCount++;
+                this.detachedImages.remove(candidate);
+                logger.info("Deleted staged load directory={}.", candidate);
+            } else {
+                logger.warn("Failed to delete staged load directory={}. It will be retried later.", candidate);
+            }
+        }
+
+        // 4. 참조되지 않는 저장소 파일 삭제
+        if(deletedCount > 0) {
+            long freedBytes = stagingStore.sweepUnreferencedBlobs();
+            logger.debug("Freed {} byte(s) from the staging store.", freedBytes);
+        }
+    }
+
+    private boolean isReclaimable(ContextLoadImage image, ContextLoadImage current) {
+        if(image == current || image.getLeaseCount() > 0) {
+            return false;
+        }
+        // failure image는 context가 없으므로 current가 아니면 정리 대상이다.
+        if(!image.isSuccess()) {
+            return true;
+        }
+        // success image의 classloader는 retire 시 container가 정리하므로, context가 close된 후에도 그 정리가 끝날 때까지 기다린다.
+        return image.isContextClosed() && image.getClassLoader() == null;
+    }
+
+    private void closeClassLoader(ContextLoadImage image) {
+        ClassLoader classLoader = image.takeClassLoader();
+        if(classLoader == null) {
+            return;
+        }
+
+        if(classLoader instanceof Closeable) {
+            try {
+                ((Closeable)classLoader).close();
+                logger.debug("Closed classloader of image={}.", image.getId());
+            } catch(IOException e) {
+                logger.warn("Failed to close classloader of image={}.", image.getId(), e);
+            }
+        }
+    }
+
+    private static File loadDirectoryOf(ContextLoadImage image) {
+        Map<String, Object> loadAttributes = image.getLoadAttributes();
+        if(loadAttributes == null) {
+            return null;
+        }
+        return (File)loadAttributes.get(DefaultMultiVersionContextContainer.LOAD_ATTR_STAGED_DIRECTORY);
+    }
+
+    private static long sizeOf(File directory) {
+        long size = 0;
+        File[] files = directory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                size += file.isDirectory() ? sizeOf(file) : file.length();
+            }
+        }
+        return size;
+    }
+
+    private static final Comparator<File> NEWEST_FIRST = new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+            long m1 = f1.lastModified();
+            long m2 = f2.lastModified();
+            return (m1 > m2) ? -1 : ((m1 == m2) ? 0 : 1);
+        }
+    };
+}
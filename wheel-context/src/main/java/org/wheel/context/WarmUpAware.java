@@ -0,0 +1,10 @@
+package org.wheel.context;
+
+/**
+ * 로드된 context의 bean이 구현하면, image가 활성화되기 전 warm-up 단계에서 반복 호출된다.
+ * cache 적재, connection pool 초기화, 주요 code path 실행 등에 사용한다.
+ */
+public interface WarmUpAware {
+
+    void warmUp() throws Exception;
+}
@@ -0,0 +1,22 @@
+package org.wheel.context;
+
+import org.springframework.context.ApplicationContext;
+
+/**
+ * image의 context에 정의된 {@link WarmUpAware} bean들을 호출하는 warmer.
+ * 부모 context의 bean은 호출하지 않는다.
+ */
+public class WarmUpAwareBeanWarmer implements ContextLoadImageWarmer {
+
+    @Override
+    public void warmUp(ContextLoadImage image) throws Exception {
+        ApplicationContext context = image.getApplicationContext();
+        if(context == null) {
+            return;
+        }
+
+        for(WarmUpAware bean : context.getBeansOfType(WarmUpAware.class).values()) {
+            bean.warmUp();
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package org.wheel.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.wheel.context.support.BoundedNameSet;
+import org.wheel.context.support.JarEntrySource;
+import org.wheel.context.support.JarFileEntrySource;
+import org.wheel.context.support.JarPackageIndex;
+import org.wheel.context.support.MappedJarEntrySource;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * 로드된 jar들의 classloader.
+ *
+ * 생성 시 디렉토리(package) -&gt; jar 목록 index를 만들어 두고, class와 resource를 찾을 때
+ * 모든 jar를 순서대로 뒤지는 대신 index로 후보 jar만 확인한다.
+ * jar별 index가 주어지면({@link JarPackageIndex#LOAD_ATTRIBUTE}) jar를 다시 읽지 않는다.
+ * manifest에 Class-Path가 있는 jar가 있으면 index에서 찾지 못한 이름은 {@link URLClassLoader}의 검색으로 넘긴다.
+ *
+ * mappedJarAccess이면 class는 memory-map된 jar에서 읽는다({@link MappedJarEntrySource}).
+ * map할 수 없는 jar(서명, ZIP64 등)는 {@link JarFile}로 읽는다. resource의 URL은 두 경우 모두 jar: URL이다.
+ *
+ * parallel capable로 등록되어 classloader 전체가 아닌 class 이름별로 잠그므로,
+ * refresh 및 warm-up 스레드들이 서로 다른 class를 동시에 정의할 수 있다.
+ * 하위 클래스도 parallel capable이 되려면 static 초기화에서 {@link #registerAsParallelCapable()}를 호출해야 한다.
+ *
+ * 기본적으로 부모에게 먼저 위임하며, package prefix별로 이 classloader에서 먼저 찾도록 설정할 수 있다({@link Delegation}).
+ * 부모와 이 classloader 모두에서 찾지 못한 class 이름은 크기가 제한된 negative cache에 기록되어,
+ * 같은 이름을 다시 찾을 때는 부모와 jar를 확인하지 않고 바로 {@link ClassNotFoundException}을 던진다.
+ * 위임 규칙과 cache 크기는 classloader를 사용하기 전에 설정해야 한다.
+ */
+public class WheelClassLoader extends URLClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(WheelClassLoader.class);
+
+    private static final int[] NO_JARS = new int[0];
+
+    public static final int DEFAULT_NEGATIVE_LOOKUP_CACHE_SIZE = 4096;
+
+    public enum Delegation {
+        /** 부모에서 먼저 찾고, 없으면 이 classloader의 jar에서 찾는다 */
+        PARENT_FIRST,
+        /** 이 classloader의 jar에서 먼저 찾고, 없으면 부모에서 찾는다 */
+        CHILD_FIRST
+    }
+
+    private final File[] jarFiles;
+    private final URL[] jarUrls;
+    private final Map<String, int[]> jarsByDirectory;   // 디렉토리 -> jarFiles의 index 목록(순서 유지)
+    private final boolean classPathAttribute;
+
+    private final boolean mappedJarAccess;
+    private final AtomicReferenceArray<JarEntrySource> sources;
+    private final Manifest[] manifests;
+    private final Object[] openLocks;
+    private volatile boolean closed;
+    private volatile Runnable closeCallback;
+
+    private volatile DelegationRule[] delegationRules = new DelegationRule[0];   // 긴 prefix 순
+    private volatile BoundedNameSet missingClassNames = new BoundedNameSet(DEFAULT_NEGATIVE_LOOKUP_CACHE_SIZE);
+
+    private final AtomicInteger definedClassCount = new AtomicInteger();
+    private final AtomicLong negativeLookupHitCount = new AtomicLong();
+
+    public WheelClassLoader(File[] jarFiles, ClassLoader parent) {
+        this(jarFiles, null, false, parent);
+    }
+
+    /**
+     * @param indexes   jar 파일 -&gt; index. 없는 jar는 직접 읽어서 만든다. null 가능.
+     * @param mappedJarAccess   jar를 memory-map 해서 읽을지 여부
+     */
+    public WheelClassLoader(File[] jarFiles, Map<File, JarPackageIndex> indexes, boolean mappedJarAccess, ClassLoader parent) {
+        super(urlsOf(jarFiles), parent);
+        this.jarFiles = jarFiles;
+        this.jarUrls = getURLs();
+        this.mappedJarAccess = mappedJarAccess;
+        this.sources = new AtomicReferenceArray<JarEntrySource>(jarFiles.length);
+        this.manifests = new Manifest[jarFiles.length];
+        this.openLocks = new Object[jarFiles.length];
+        for(int i = 0; i < openLocks.length; i++) {
+            openLocks[i] = new Object();
+        }
+
+        Map<String, List<Integer>> directories = new HashMap<String, List<Integer>>();
+        boolean classPathAttribute = false;
+        for(int i = 0; i < jarFiles.length; i++) {
+            JarPackageIndex index = indexes != null ? indexes.get(jarFiles[i]) : null;
+            if(index == null) {
+                try {
+                    index = JarPackageIndex.build(jarFiles[i]);
+                } catch(IOException e) {
+                    // URLClassLoader와 같이 읽을 수 없는 jar는 무시한다.
+                    logger.warn("Can't read {}. Classes in it will not be found.", jarFiles[i], e);
+                    continue;
+                }
+            }
+            classPathAttribute |= index.hasClassPathAttribute();
+            for(String directory : index.getDirectories()) {
+                List<Integer> jars = directories.get(directory);
+                if(jars == null) {
+                    jars = new ArrayList<Integer>(1);
+                    directories.put(directory, jars);
+                }
+                jars.add(i);
+            }
+        }
+
+        this.jarsByDirectory = new HashMap<String, int[]>(directories.size() * 4 / 3 + 1);
+        for(Map.Entry<String, List<Integer>> entry : directories.entrySet()) {
+            List<Integer> jars = entry.getValue();
+            int[] positions = new int[jars.size()];
+            for(int i = 0; i < positions.length; i++) {
+                positions[i] = jars.get(i);
+            }
+            this.jarsByDirectory.put(entry.getKey(), positions);
+        }
+        this.classPathAttribute = classPathAttribute;
+    }
+
+    public File[] getJarFiles() {
+        return jarFiles.clone();
+    }
+
+    /**
+     * package prefix별 위임 규칙을 설정한다. 가장 긴 prefix의 규칙이 적용되며, 규칙이 없으면 {@link Delegation#PARENT_FIRST}이다.
+     * java. 로 시작하는 class는 항상 부모에게 먼저 위임한다.
+     *
+     * @param parentFirstPackages   예: "org.springframework."
+     * @param childFirstPackages    이 image만 가지고 있는 package들
+     */
+    public void setPackageDelegation(String[] parentFirstPackages, String[] childFirstPackages) {
+        Map<String, Delegation> rules = new HashMap<String, Delegation>();
+        if(parentFirstPackages != null) {
+            for(String prefix : parentFirstPackages) {
+                rules.put(prefix.trim(), Delegation.PARENT_FIRST);
+            }
+        }
+        if(childFirstPackages != null) {
+            for(String prefix : childFirstPackages) {
+                rules.put(prefix.trim(), Delegation.CHILD_FIRST);
+            }
+        }
+        rules.put("java.", Delegation.PARENT_FIRST);
+
+        List<String> prefixes = new ArrayList<String>(rules.keySet());
+        Collections.sort(prefixes, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return o2.length() - o1.length();
+            }
+        });
+        DelegationRule[] delegationRules = new DelegationRule[prefixes.size()];
+        for(int i = 0; i < delegationRules.length; i++) {
+            delegationRules[i] = new DelegationRule(prefixes.get(i), rules.get(prefixes.get(i)));
+        }
+        this.delegationRules = delegationRules;
+    }
+
+    /**
+     * @param size  찾지 못한 class 이름을 기억할 최대 개수. 0이면 기억하지 않는다.
+     */
+    public void setNegativeLookupCacheSize(int size) {
+        this.missingClassNames = size > 0 ? new BoundedNameSet(size) : null;
+    }
+
+    /**
+     * negative cache로 부모와 jar 확인을 생략한 횟수
+     */
+    public long getNegativeLookupHitCount() {
+        return negativeLookupHitCount.get();
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        BoundedNameSet missingClassNames = this.missingClassNames;
+        // 찾지 못한 후에 bytecode 생성 library 등이 이 classloader에 직접 정의한 class는 찾을 수 있어야 한다.
+        if(missingClassNames != null && missingClassNames.contains(name) && findLoadedClass(name) == null) {
+            negativeLookupHitCount.incrementAndGet();
+            throw new CachedClassNotFoundException(name);
+        }
+
+        synchronized(getClassLoadingLock(name)) {
+            Class<?> clazz = findLoadedClass(name);
+            if(clazz == null) {
+                try {
+                    clazz = delegationOf(name) == Delegation.CHILD_FIRST ? loadChildFirst(name) : loadParentFirst(name);
+                } catch(ClassNotFoundException e) {
+                    // jar를 읽지 못한 경우 등 원인이 있는 실패는 다시 시도할 수 있도록 기억하지 않는다.
+                    if(missingClassNames != null && e.getCause() == null) {
+                        missingClassNames.add(name);
+                    }
+                    throw e;
+                }
+            }
+            if(resolve) {
+                resolveClass(clazz);
+            }
+            return clazz;
+        }
+    }
+
+    private Delegation delegationOf(String name) {
+        for(DelegationRule rule : this.delegationRules) {
+            if(name.startsWith(rule.prefix)) {
+                return rule.delegation;
+            }
+        }
+        return Delegation.PARENT_FIRST;
+    }
+
+    private Class<?> loadParentFirst(String name) throws ClassNotFoundException {
+        try {
+            return loadFromParent(name);
+        } catch(ClassNotFoundException e) {
+            return findClass(name);
+        }
+    }
+
+    private Class<?> loadChildFirst(String name) throws ClassNotFoundException {
+        try {
+            return findClass(name);
+        } catch(ClassNotFoundException e) {
+            return loadFromParent(name);
+        }
+    }
+
+    private Class<?> loadFromParent(String name) throws ClassNotFoundException {
+        ClassLoader parent = getParent();
+        return parent != null ? parent.loadClass(name) : Class.forName(name, false, null);
+    }
+
+    /**
+     * {@link #loadClass(String, boolean)}가 name별 lock({@link #getClassLoadingLock})을 잡은 상태로 호출한다.
+     */
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String path = name.replace('.', '/').concat(".class");
+        int[] jars = jarsOf(path);
+        for(int i = 0; i < jars.length; i++) {
+            JarEntrySource source = sourceAt(jars[i]);
+            if(source != null && source.contains(path)) {
+                Class<?> clazz = defineClass(name, path, jars[i], source);
+                definedClassCount.incrementAndGet();
+                return clazz;
+            }
+        }
+        if(classPathAttribute) {
+            Class<?> clazz = super.findClass(name);
+            definedClassCount.incrementAndGet();
+            return clazz;
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    @Override
+    public URL findResource(String name) {
+        int[] jars = jarsOf(name);
+        for(int i = 0; i < jars.length; i++) {
+            JarEntrySource source = sourceAt(jars[i]);
+            if(source != null && source.contains(name)) {
+                return resourceUrl(jars[i], name);
+            }
+        }
+        return classPathAttribute ? super.findResource(name) : null;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        if(classPathAttribute) {
+            return super.findResources(name);
+        }
+        int[] jars = jarsOf(name);
+        List<URL> urls = new ArrayList<URL>(jars.length);
+        for(int i = 0; i < jars.length; i++) {
+            JarEntrySource source = sourceAt(jars[i]);
+            if(source != null && source.contains(name)) {
+                urls.add(resourceUrl(jars[i], name));
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    /**
+     * 이 classloader가 정의한(부모에게 위임하지 않은) class 수
+     */
+    public int getDefinedClassCount() {
+        return definedClassCount.get();
+    }
+
+    /**
+     * 모든 jar를 열고, memory-map된 jar는 내용을 미리 메모리에 올려 활성화 후 첫 class 로딩에서 page fault가 나지 않게 한다.
+     */
+    public void pretouch() {
+        for(int i = 0; i < jarFiles.length; i++) {
+            JarEntrySource source = sourceAt(i);
+            if(source != null) {
+                source.pretouch();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        closed = true;
+        for(int i = 0; i < sources.length(); i++) {
+            JarEntrySource source;
+            synchronized(openLocks[i]) {
+                source = sources.getAndSet(i, null);
+            }
+            if(source == null) {
+                continue;
+            }
+            try {
+                source.close();
+            } catch(IOException e) {
+                failure = e;
+            }
+        }
+        super.close();
+
+        Runnable closeCallback = this.closeCallback;
+        this.closeCallback = null;
+        if(closeCallback != null) {
+            closeCallback.run();
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * close 후 한 번 실행할 callback을 설정한다. (예: 부모 classloader의 참조 반환)
+     */
+    public void setCloseCallback(Runnable closeCallback) {
+        this.closeCallback = closeCallback;
+    }
+
+    private int[] jarsOf(String name) {
+        if(name.startsWith("/")) {
+            return NO_JARS;
+        }
+        int[] jars = jarsByDirectory.get(JarPackageIndex.directoryOf(name));
+        return jars != null ? jars : NO_JARS;
+    }
+
+    /**
+     * @return 열린 jar. close되었거나 열 수 없으면 null
+     */
+    private JarEntrySource sourceAt(int position) {
+        JarEntrySource source = sources.get(position);
+        if(source != null) {
+            return source;
+        }
+        // jar를 여는 동안(central directory 읽기) 다른 jar의 class 로딩은 막지 않는다.
+        synchronized(openLocks[position]) {
+            if(closed) {
+                return null;
+            }
+            source = sources.get(position);
+            if(source == null) {
+                try {
+                    source = openSource(jarFiles[position]);
+                    manifests[position] = source.getManifest();
+                    sources.set(position, source);
+                } catch(IOException e) {
+                    logger.warn("Can't open {}.", jarFiles[position], e);
+                    closeQuietly(source);
+                    return null;
+                }
+            }
+            return source;
+        }
+    }
+
+    private JarEntrySource openSource(File jarFile) throws IOException {
+        if(mappedJarAccess) {
+            JarEntrySource source = MappedJarEntrySource.open(jarFile);
+            if(source != null) {
+                return source;
+            }
+            logger.debug("{} can't be mapped. Reading it with JarFile.", jarFile);
+        }
+        return new JarFileEntrySource(jarFile);
+    }
+
+    private Class<?> defineClass(String name, String path, int position, JarEntrySource source) throws ClassNotFoundException {
+        byte[] bytes;
+        try {
+            bytes = source.read(path);
+        } catch(IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        if(bytes == null) {
+            throw new ClassNotFoundException(name);
+        }
+
+        int lastDot = name.lastIndexOf('.');
+        if(lastDot > 0) {
+            definePackageIfAbsent(name.substring(0, lastDot), position);
+        }
+        // code signer는 entry를 끝까지 읽은 후에 확인할 수 있다.
+        CodeSigner[] signers = source.getCodeSigners(path);
+        return defineClass(name, bytes, 0, bytes.length, new CodeSource(jarUrls[position], signers));
+    }
+
+    private void definePackageIfAbsent(String packageName, int position) {
+        Package pkg = getPackage(packageName);
+        if(pkg != null) {
+            if(pkg.isSealed() && !pkg.isSealed(jarUrls[position])) {
+                throw new SecurityException("sealing violation: package " + packageName + " is sealed");
+            }
+            return;
+        }
+        try {
+            Manifest manifest = manifests[position];
+            if(manifest != null) {
+                definePackage(packageName, manifest, jarUrls[position]);
+            } else {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        } catch(IllegalArgumentException e) {
+            // 다른 스레드가 먼저 정의한 경우
+            if(getPackage(packageName) == null) {
+                throw new AssertionError("Cannot find package " + packageName);
+            }
+        }
+    }
+
+    private URL resourceUrl(int position, String name) {
+        try {
+            return new URL("jar:" + jarUrls[position].toExternalForm() + "!/" + new URI(null, null, name, null).getRawPath());
+        } catch(MalformedURLException e) {
+            throw new IllegalStateException(e);
+        } catch(URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class DelegationRule {
+        private final String prefix;
+        private final Delegation delegation;
+
+        private DelegationRule(String prefix, Delegation delegation) {
+            this.prefix = prefix;
+            this.delegation = delegation;
+        }
+    }
+
+    /**
+     * negative cache에서 던지는 exception. 반복되는 miss의 비용을 줄이기 위해 stack trace를 채우지 않는다.
+     */
+    private static class CachedClassNotFoundException extends ClassNotFoundException {
+
+        private static final long serialVersionUID = 1L;
+
+        private CachedClassNotFoundException(String name) {
+            super(name);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private static void closeQuietly(JarEntrySource source) {
+        if(source == null) {
+            return;
+        }
+        try {
+            source.close();
+        } catch(IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * buildUrlsWithFilePaths
+     * @param   files
+     */
+    static private URL[] urlsOf(File[] files) {
+        URL[] urls = new URL[files.length];
+
+        try {
+            for (int i=0; i < files.length; i++) {
+                urls[i] = new FileSystemResource(files[i]).getURL();
+            }
+        } catch(MalformedURLException e) {
+            // can not happen
+            throw new IllegalArgumentException(e);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return urls;
+    }
+}
@@ -0,0 +1,60 @@
+package org.wheel.context.support;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 크기가 제한된 이름 집합. lock 없이 조회할 수 있다.
+ *
+ * 이름을 두 세대로 나누어 보관하고, 현재 세대가 가득 차면 이전 세대를 버리고 현재 세대를 이전 세대로 옮긴다.
+ * 최근에 추가되거나 조회된 이름은 남고, 최대 2 * generationSize 개까지 보관한다.
+ */
+public class BoundedNameSet {
+
+    private final int generationSize;
+    private volatile ConcurrentMap<String, Boolean> current;
+    private volatile ConcurrentMap<String, Boolean> previous;
+
+    public BoundedNameSet(int maxSize) {
+        this.generationSize = Math.max(1, maxSize / 2);
+        this.current = new ConcurrentHashMap<String, Boolean>();
+        this.previous = new ConcurrentHashMap<String, Boolean>();
+    }
+
+    public boolean contains(String name) {
+        if(current.containsKey(name)) {
+            return true;
+        }
+        if(previous.containsKey(name)) {
+            // 자주 조회되는 이름은 현재 세대로 옮겨 남긴다.
+            add(name);
+            return true;
+        }
+        return false;
+    }
+
+    public void add(String name) {
+        ConcurrentMap<String, Boolean> current = this.current;
+        if(current.size() >= generationSize) {
+            synchronized(this) {
+                if(this.current == current) {
+                    this.previous = current;
+                    this.current = new ConcurrentHashMap<String, Boolean>();
+                }
+                current = this.current;
+            }
+        }
+        current.put(name, Boolean.TRUE);
+    }
+
+    public void clear() {
+        synchronized(this) {
+            this.previous = new ConcurrentHashMap<String, Boolean>();
+            this.current = new ConcurrentHashMap<String, Boolean>();
+        }
+    }
+
+    public int size() {
+        return current.size() + previous.size();
+    }
+}
@@ -0,0 +1,214 @@
+package org.wheel.context.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StreamUtils;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 파싱된 XML document를 {@link XmlDocumentCache}에서 재사용하고, 여러 설정 파일을 병렬로 파싱할 수 있는 reader.
+ *
+ * cache key는 설정 파일 내용, encoding, 검증 방식과 classloader에서 보이는 schema 및 namespace handler 구성
+ * (META-INF/spring.schemas, META-INF/spring.handlers 와 그에 등록된 xsd의 내용)의 digest이다.
+ * 내용이 같으면 XML 파싱과 schema 검증을 건너뛰고, cache된 document로 bean definition을 등록한다.
+ * bean definition 자체는 refresh 중에 변경되고 image의 class를 참조할 수 있으므로 cache하지 않는다.
+ */
+public class CachingXmlBeanDefinitionReader extends XmlBeanDefinitionReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingXmlBeanDefinitionReader.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SCHEMA_MAPPINGS_LOCATION = "META-INF/spring.schemas";
+    private static final String HANDLER_MAPPINGS_LOCATION = "META-INF/spring.handlers";
+
+    private final XmlDocumentCache documentCache;
+    private final ClassLoader schemaClassLoader;
+
+    private String schemaDigest;
+    private boolean schemaDigestComputed;
+
+    private final ConcurrentMap<Resource, Document> prefetchedDocuments = new ConcurrentHashMap<Resource, Document>();
+
+    /**
+     * @param schemaClassLoader schema와 namespace handler를 찾는 classloader
+     */
+    public CachingXmlBeanDefinitionReader(BeanDefinitionRegistry registry, XmlDocumentCache documentCache, ClassLoader schemaClassLoader) {
+        super(registry);
+        this.documentCache = documentCache;
+        this.schemaClassLoader = schemaClassLoader;
+    }
+
+    /**
+     * resources의 document를 병렬로 미리 파싱해 둔다. 이후 {@link #loadBeanDefinitions}가 미리 파싱된 document를 사용한다.
+     * 파싱에 실패한 resource는 무시되며, 순차적인 load에서 다시 파싱되어 원래의 exception이 발생한다.
+     */
+    public void prefetchDocuments(List<Resource> resources, int parallelism) {
+        int threads = Math.min(parallelism, resources.size());
+        if(threads < 2) {
+            return;
+        }
+
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        final int priority = Thread.currentThread().getPriority();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true);
+                t.setName("WheelXmlParsing-" + t.getName());
+                t.setContextClassLoader(contextClassLoader);
+                t.setPriority(priority);
+                return t;
+            }
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for(final Resource resource : resources) {
+                futures.add(executorService.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        InputStream in = resource.getInputStream();
+                        try {
+                            prefetchedDocuments.put(resource, loadDocument(new InputSource(in), resource));
+                        } finally {
+                            in.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for(int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch(Exception e) {
+                    logger.debug("Failed to prefetch {}. It will be parsed again.", resources.get(i), e);
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Override
+    protected Document doLoadDocument(InputSource inputSource, Resource resource) throws Exception {
+        Document document = prefetchedDocuments.remove(resource);
+        return document != null ? document : loadDocument(inputSource, resource);
+    }
+
+    private Document loadDocument(InputSource inputSource, Resource resource) throws Exception {
+        String schemaDigest = schemaDigest();
+        if(documentCache == null || schemaDigest == null || inputSource.getByteStream() == null) {
+            return super.doLoadDocument(inputSource, resource);
+        }
+
+        byte[] bytes = StreamUtils.copyToByteArray(inputSource.getByteStream());
+        MessageDigest md = FileUtil.newMessageDigest();
+        md.update(bytes);
+        String key = FileUtil.toHex(md.digest()) + ":" + inputSource.getEncoding()
+                + ":" + getValidationMode() + ":" + schemaDigest;
+
+        Document document = documentCache.get(key);
+        if(document != null) {
+            logger.debug("Reusing parsed document of {}.", resource);
+            return document;
+        }
+
+        InputSource bufferedSource = new InputSource(new ByteArrayInputStream(bytes));
+        bufferedSource.setEncoding(inputSource.getEncoding());
+        bufferedSource.setSystemId(inputSource.getSystemId());
+        document = super.doLoadDocument(bufferedSource, resource);
+        documentCache.put(key, document);
+        return document;
+    }
+
+    /**
+     * @return schema를 확인할 수 없으면 null
+     */
+    private synchronized String schemaDigest() {
+        if(!schemaDigestComputed) {
+            schemaDigestComputed = true;
+            try {
+                schemaDigest = computeSchemaDigest();
+            } catch(IOException e) {
+                logger.warn("Can't read schema mappings. Parsed documents will not be cached.", e);
+            }
+        }
+        return schemaDigest;
+    }
+
+    private String computeSchemaDigest() throws IOException {
+        MessageDigest md = FileUtil.newMessageDigest();
+        TreeSet<String> schemaLocations = new TreeSet<String>();
+        for(String mappingsLocation : new String[] { SCHEMA_MAPPINGS_LOCATION, HANDLER_MAPPINGS_LOCATION }) {
+            // 같은 구성이면 classloader 경로(load 디렉토리 등)와 무관하게 같은 digest가 되도록 내용만 사용한다.
+            List<byte[]> contents = new ArrayList<byte[]>();
+            Enumeration<URL> urls = schemaClassLoader.getResources(mappingsLocation);
+            while(urls.hasMoreElements()) {
+                contents.add(read(urls.nextElement()));
+            }
+            for(byte[] content : contents) {
+                md.update(content);
+                if(SCHEMA_MAPPINGS_LOCATION.equals(mappingsLocation)) {
+                    Properties mappings = new Properties();
+                    mappings.load(new ByteArrayInputStream(content));
+                    for(Map.Entry<Object, Object> entry : mappings.entrySet()) {
+                        schemaLocations.add(String.valueOf(entry.getValue()));
+                    }
+                }
+            }
+        }
+        // xsd의 default 속성 값은 document에 반영되므로 xsd 내용도 포함한다.
+        for(String schemaLocation : schemaLocations) {
+            md.update(schemaLocation.getBytes(UTF_8));
+            URL url = schemaClassLoader.getResource(schemaLocation);
+            if(url != null) {
+                md.update(read(url));
+            }
+        }
+        return FileUtil.toHex(md.digest());
+    }
+
+    private static byte[] read(URL url) throws IOException {
+        // jar: URL의 JarFile이 JVM 전역 cache에 남아 load 디렉토리를 붙잡지 않도록 cache를 사용하지 않는다.
+        URLConnection connection = url.openConnection();
+        connection.setUseCaches(false);
+        InputStream in = connection.getInputStream();
+        try {
+            return StreamUtils.copyToByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 사용되지 않은 미리 파싱된 document를 버린다.
+     */
+    public void clearPrefetchedDocuments() {
+        prefetchedDocuments.clear();
+    }
+}
@@ -0,0 +1,370 @@
+package org.wheel.context.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.CachedIntrospectionResults;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.beans.Introspector;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 더 이상 사용되지 않는 image classloader가 GC 될 수 있도록 JVM 전역에 남아있는 참조를 정리한다.
+ *
+ * JDBC driver 등록, thread의 context classloader, image의 class로 실행되는 thread(executor, Timer 포함),
+ * ThreadLocal 값, Spring 및 java.beans의 introspection cache, ResourceBundle cache를 정리한 후 classloader를 close 한다.
+ *
+ * Thread 및 ThreadLocal 정리에는 JDK 내부 필드에 대한 reflection이 필요하다.
+ * Java 9 이상에서는 --add-opens java.base/java.lang=ALL-UNNAMED --add-opens java.base/java.util=ALL-UNNAMED
+ * 옵션이 없으면 해당 정리는 생략되고 {@link #findRetentionSources(ClassLoader)}의 결과로만 보고된다.
+ */
+public class ClassLoaderCleaner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassLoaderCleaner.class);
+
+    // Spring 버전에 따라 존재하지 않을 수 있는 static cache clear 메소드
+    private static final String[][] SPRING_CACHE_CLEARERS = {
+            { "org.springframework.util.ReflectionUtils", "clearCache" },
+            { "org.springframework.core.annotation.AnnotationUtils", "clearCache" },
+            { "org.springframework.core.annotation.AnnotatedElementUtils", "clearCache" },
+            { "org.springframework.core.ResolvableType", "clearCache" },
+            { "org.springframework.core.SerializableTypeWrapper", "clearCache" }
+    };
+
+    private boolean stopThreads = true;
+
+    private volatile boolean reflectionWarningLogged = false;
+
+    public boolean isStopThreads() {
+        return stopThreads;
+    }
+
+    /**
+     * true이면 image의 class로 실행중인 thread를 중단시킨다(executor는 shutdownNow, 그 외는 interrupt).
+     * false이면 경고만 남긴다.
+     */
+    public void setStopThreads(boolean stopThreads) {
+        this.stopThreads = stopThreads;
+    }
+
+    /**
+     * classloader에 대한 참조를 정리하고 classloader를 close 한다. 각 단계의 실패는 로그만 남기고 계속 진행한다.
+     */
+    public void clean(ClassLoader classLoader) {
+        if(classLoader == null) {
+            return;
+        }
+
+        deregisterJdbcDrivers(classLoader);
+        cleanThreads(classLoader);
+        cleanThreadLocals(classLoader);
+        clearCaches(classLoader);
+
+        if(classLoader instanceof Closeable) {
+            try {
+                ((Closeable)classLoader).close();
+            } catch(IOException e) {
+                logger.warn("Failed to close classloader={}.", classLoader, e);
+            }
+        }
+    }
+
+    /**
+     * classloader를 GC 되지 못하게 하는 것으로 알려진 참조를 찾는다. 찾은 참조는 정리하지 않는다.
+     *
+     * @return 사람이 읽을 수 있는 참조 설명 목록
+     */
+    public List<String> findRetentionSources(ClassLoader classLoader) {
+        List<String> sources = new ArrayList<String>();
+
+        for(Driver driver : registeredDrivers()) {
+            if(isLoadedBy(driver, classLoader)) {
+                sources.add("JDBC driver " + driver.getClass().getName() + " is registered in DriverManager");
+            }
+        }
+
+        for(Thread thread : allThreads()) {
+            String reason = threadRetentionReason(thread, classLoader);
+            if(reason != null) {
+                sources.add("Thread '" + thread.getName() + "' " + reason);
+            }
+            for(Object value : threadLocalValuesLoadedBy(thread, classLoader, false)) {
+                sources.add("ThreadLocal value of thread '" + thread.getName() + "' is an instance of " + value.getClass().getName());
+            }
+        }
+
+        return sources;
+    }
+
+    private void deregisterJdbcDrivers(ClassLoader classLoader) {
+        for(Driver driver : registeredDrivers()) {
+            if(isLoadedBy(driver, classLoader)) {
+                try {
+                    DriverManager.deregisterDriver(driver);
+                    logger.info("Deregistered JDBC driver {} of a retired image.", driver.getClass().getName());
+                } catch(SQLException e) {
+                    logger.warn("Failed to deregister JDBC driver {}.", driver.getClass().getName(), e);
+                } catch(SecurityException e) {
+                    // DriverManager는 driver를 등록한 classloader에서만 해제를 허용한다.
+                    logger.warn("Not allowed to deregister JDBC driver {}. {}", driver.getClass().getName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void cleanThreads(ClassLoader classLoader) {
+        for(Thread thread : allThreads()) {
+            if(thread == Thread.currentThread()) {
+                continue;
+            }
+
+            if(thread.getContextClassLoader() == classLoader) {
+                thread.setContextClassLoader(classLoader.getParent());
+                logger.debug("Reset context classloader of thread '{}'.", thread.getName());
+            }
+
+            String reason = threadRetentionReason(thread, classLoader);
+            if(reason == null) {
+                continue;
+            }
+            if(!stopThreads) {
+                logger.warn("Thread '{}' {}. It will prevent the retired classloader from being collected.", thread.getName(), reason);
+                continue;
+            }
+
+            Object target = readField(thread, Thread.class, "target");
+            ThreadPoolExecutor executor = executorOf(target);
+            if(executor != null) {
+                executor.shutdownNow();
+                logger.warn("Shut down executor of thread '{}', because it {}.", thread.getName(), reason);
+            } else if("java.util.TimerThread".equals(thread.getClass().getName())) {
+                cancelTimer(thread);
+                logger.warn("Cancelled timer thread '{}', because it {}.", thread.getName(), reason);
+            } else {
+                thread.interrupt();
+                logger.warn("Interrupted thread '{}', because it {}.", thread.getName(), reason);
+            }
+        }
+    }
+
+    /**
+     * @return thread가 classloader를 참조하는 이유. 참조하지 않으면 null
+     */
+    private String threadRetentionReason(Thread thread, ClassLoader classLoader) {
+        if(isLoadedBy(thread, classLoader)) {
+            return "is an instance of " + thread.getClass().getName();
+        }
+
+        Object target = readField(thread, Thread.class, "target");
+        if(target != null) {
+            if(isLoadedBy(target, classLoader)) {
+                return "runs " + target.getClass().getName();
+            }
+            ThreadPoolExecutor executor = executorOf(target);
+            if(executor != null) {
+                Object firstTask = readField(target, target.getClass(), "firstTask");
+                if(firstTask != null && isLoadedBy(firstTask, classLoader)) {
+                    return "runs " + firstTask.getClass().getName();
+                }
+                if(isLoadedBy(executor.getThreadFactory(), classLoader)) {
+                    return "was created by " + executor.getThreadFactory().getClass().getName();
+                }
+                for(Runnable queued : executor.getQueue()) {
+                    if(isLoadedBy(queued, classLoader)) {
+                        return "has a queued task " + queued.getClass().getName();
+                    }
+                }
+            }
+        }
+
+        if("java.util.TimerThread".equals(thread.getClass().getName())) {
+            Object queue = readField(thread, thread.getClass(), "queue");
+            Object[] tasks = queue != null ? (Object[])readField(queue, queue.getClass(), "queue") : null;
+            if(tasks != null) {
+                for(Object task : tasks) {
+                    if(task != null && isLoadedBy(task, classLoader)) {
+                        return "has a scheduled TimerTask " + task.getClass().getName();
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private ThreadPoolExecutor executorOf(Object target) {
+        if(target == null || !"java.util.concurrent.ThreadPoolExecutor$Worker".equals(target.getClass().getName())) {
+            return null;
+        }
+        Object executor = readField(target, target.getClass(), "this$0");
+        return executor instanceof ThreadPoolExecutor ? (ThreadPoolExecutor)executor : null;
+    }
+
+    private void cancelTimer(Thread timerThread) {
+        Object queue = readField(timerThread, timerThread.getClass(), "queue");
+        if(queue == null) {
+            timerThread.interrupt();
+            return;
+        }
+        synchronized (queue) {
+            Field newTasksMayBeScheduled = findAccessibleField(timerThread.getClass(), "newTasksMayBeScheduled");
+            Method clear = ReflectionUtils.findMethod(queue.getClass(), "clear");
+            if(newTasksMayBeScheduled == null || clear == null || !makeAccessible(clear)) {
+                timerThread.interrupt();
+                return;
+            }
+            ReflectionUtils.setField(newTasksMayBeScheduled, timerThread, Boolean.FALSE);
+            ReflectionUtils.invokeMethod(clear, queue);
+            queue.notifyAll();
+        }
+    }
+
+    private void cleanThreadLocals(ClassLoader classLoader) {
+        int removed = 0;
+        for(Thread thread : allThreads()) {
+            removed += threadLocalValuesLoadedBy(thread, classLoader, true).size();
+        }
+        if(removed > 0) {
+            logger.info("Removed {} ThreadLocal value(s) of a retired image.", removed);
+        }
+    }
+
+    /**
+     * thread의 ThreadLocal 중 key 또는 value가 classloader에서 로드된 것을 찾는다.
+     *
+     * @param remove true이면 찾은 entry를 제거한다.
+     * @return 찾은 value 목록
+     */
+    private List<Object> threadLocalValuesLoadedBy(Thread thread, ClassLoader classLoader, boolean remove) {
+        List<Object> values = new ArrayList<Object>();
+        for(String mapFieldName : new String[] { "threadLocals", "inheritableThreadLocals" }) {
+            Object map = readField(thread, Thread.class, mapFieldName);
+            if(map == null) {
+                continue;
+            }
+            Object[] table = (Object[])readField(map, map.getClass(), "table");
+            if(table == null) {
+                continue;
+            }
+            for(Object entry : table) {
+                if(entry == null) {
+                    continue;
+                }
+                Object key = ((Reference<?>)entry).get();
+                Object value = readField(entry, entry.getClass(), "value");
+                boolean keyMatched = key != null && isLoadedBy(key, classLoader);
+                boolean valueMatched = value != null && isLoadedBy(value, classLoader);
+                if(!keyMatched && !valueMatched) {
+                    continue;
+                }
+                values.add(valueMatched ? value : key);
+                if(remove) {
+                    // 다른 스레드의 map이므로 ThreadLocal.remove()를 호출할 수 없다. entry를 비워 다음 expunge 때 제거되게 한다.
+                    ((Reference<?>)entry).clear();
+                    writeField(entry, entry.getClass(), "value", null);
+                }
+            }
+        }
+        return values;
+    }
+
+    private void clearCaches(ClassLoader classLoader) {
+        CachedIntrospectionResults.clearClassLoader(classLoader);
+        Introspector.flushCaches();
+        ResourceBundle.clearCache(classLoader);
+
+        for(String[] clearer : SPRING_CACHE_CLEARERS) {
+            if(!ClassUtils.isPresent(clearer[0], ClassLoaderCleaner.class.getClassLoader())) {
+                continue;
+            }
+            try {
+                Class<?> clazz = ClassUtils.forName(clearer[0], ClassLoaderCleaner.class.getClassLoader());
+                Method method = ReflectionUtils.findMethod(clazz, clearer[1]);
+                if(method != null && method.getParameterTypes().length == 0 && makeAccessible(method)) {
+                    ReflectionUtils.invokeMethod(method, null);
+                }
+            } catch(ClassNotFoundException e) {
+                // ignore
+            } catch(RuntimeException e) {
+                logger.debug("Failed to call {}.{}().", clearer[0], clearer[1], e);
+            }
+        }
+    }
+
+    private static Collection<Driver> registeredDrivers() {
+        List<Driver> drivers = new ArrayList<Driver>();
+        Enumeration<Driver> e = DriverManager.getDrivers();
+        while(e.hasMoreElements()) {
+            drivers.add(e.nextElement());
+        }
+        return drivers;
+    }
+
+    private static Collection<Thread> allThreads() {
+        return Thread.getAllStackTraces().keySet();
+    }
+
+    /**
+     * object의 class(또는 object가 Class이면 그 자신)가 classLoader 또는 그 자식 classloader에서 로드되었는지 확인한다.
+     */
+    public static boolean isLoadedBy(Object object, ClassLoader classLoader) {
+        Class<?> clazz = object instanceof Class ? (Class<?>)object : object.getClass();
+        ClassLoader cl = clazz.getClassLoader();
+        while(cl != null) {
+            if(cl == classLoader) {
+                return true;
+            }
+            cl = cl.getParent();
+        }
+        return false;
+    }
+
+    private Object readField(Object target, Class<?> clazz, String name) {
+        Field field = findAccessibleField(clazz, name);
+        return field != null ? ReflectionUtils.getField(field, target) : null;
+    }
+
+    private void writeField(Object target, Class<?> clazz, String name, Object value) {
+        Field field = findAccessibleField(clazz, name);
+        if(field != null) {
+            ReflectionUtils.setField(field, target, value);
+        }
+    }
+
+    private Field findAccessibleField(Class<?> clazz, String name) {
+        Field field = ReflectionUtils.findField(clazz, name);
+        return field != null && makeAccessible(field) ? field : null;
+    }
+
+    /**
+     * Java 9 이상에서 모듈이 열려있지 않으면 false를 반환한다.
+     */
+    private boolean makeAccessible(java.lang.reflect.AccessibleObject accessibleObject) {
+        try {
+            accessibleObject.setAccessible(true);
+            return true;
+        } catch(RuntimeException e) {
+            if(!reflectionWarningLogged) {
+                reflectionWarningLogged = true;
+                logger.info("Can't access JDK internals to clean up threads and ThreadLocals of retired images. "
+                        + "Add --add-opens java.base/java.lang=ALL-UNNAMED --add-opens java.base/java.util=ALL-UNNAMED "
+                        + "--add-opens java.base/java.util.concurrent=ALL-UNNAMED to enable it. {}", e.getMessage());
+            }
+            return false;
+        }
+    }
+}
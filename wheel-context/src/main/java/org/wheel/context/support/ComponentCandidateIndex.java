@@ -0,0 +1,155 @@
+package org.wheel.context.support;
+
+import org.springframework.asm.AnnotationVisitor;
+import org.springframework.asm.ClassReader;
+import org.springframework.asm.ClassVisitor;
+import org.springframework.asm.SpringAsmInfo;
+import org.springframework.util.StreamUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * jar에서 component scan의 후보가 될 수 있는 class entry 목록.
+ *
+ * class 수준의 annotation이 하나라도 있는 class만 포함한다. @Component, @Controller, @RequestMapping 등의 stereotype과
+ * 그것을 meta-annotation으로 가진 annotation은 모두 class 수준에 선언되므로, annotation이 없는 class는
+ * annotation 기반 filter에 해당될 수 없다. 어떤 annotation이 stereotype인지는 다른 jar에 따라 달라지므로 구분하지 않는다.
+ * jar 내용이 같으면 index도 같으므로 content digest 별로 한 번만 만들어 재사용한다.
+ */
+public class ComponentCandidateIndex {
+
+    public static final String FILE_SUFFIX = ".components";
+
+    /**
+     * jar 파일 -&gt; index 맵을 담는 load attribute
+     */
+    public static final String LOAD_ATTRIBUTE = "componentCandidateIndexes";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String HEADER = "#ComponentCandidateIndex v1";
+    private static final String CLASS_SUFFIX = ".class";
+    private static final int PARSING_OPTIONS = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    private final List<String> candidateEntries;
+
+    private ComponentCandidateIndex(List<String> candidateEntries) {
+        this.candidateEntries = Collections.unmodifiableList(candidateEntries);
+    }
+
+    public static ComponentCandidateIndex build(File jarFile) throws IOException {
+        List<String> candidateEntries = new ArrayList<String>();
+        JarFile jar = new JarFile(jarFile, false);
+        try {
+            Enumeration<JarEntry> entries = jar.entries();
+            while(entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if(entry.isDirectory() || !entry.getName().endsWith(CLASS_SUFFIX)) {
+                    continue;
+                }
+                InputStream in = jar.getInputStream(entry);
+                try {
+                    if(hasClassAnnotation(StreamUtils.copyToByteArray(in))) {
+                        candidateEntries.add(entry.getName());
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            jar.close();
+        }
+        return new ComponentCandidateIndex(candidateEntries);
+    }
+
+    private static boolean hasClassAnnotation(byte[] classBytes) {
+        final boolean[] annotated = new boolean[1];
+        try {
+            new ClassReader(classBytes).accept(new ClassVisitor(SpringAsmInfo.ASM_VERSION) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                    annotated[0] = true;
+                    return null;
+                }
+            }, PARSING_OPTIONS);
+        } catch(RuntimeException e) {
+            // 읽을 수 없는 class는 scan할 때 원래대로 처리되도록 후보에 포함한다.
+            return true;
+        }
+        return annotated[0];
+    }
+
+    /**
+     * @return 후보 class의 entry 이름. jar에서의 순서를 유지한다.
+     */
+    public List<String> getCandidateEntries() {
+        return candidateEntries;
+    }
+
+    /**
+     * 임시파일에 쓴 후 이동하므로 다른 스레드나 프로세스가 쓰다 만 파일을 읽지 않는다.
+     */
+    public void store(File file) throws IOException {
+        File tempFile = File.createTempFile("components-", ".tmp", file.getParentFile());
+        try {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), UTF_8));
+            try {
+                writer.write(HEADER);
+                writer.newLine();
+                for(String entry : candidateEntries) {
+                    writer.write(entry);
+                    writer.newLine();
+                }
+            } finally {
+                writer.close();
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * @return 파일이 없거나 형식이 맞지 않으면 null
+     */
+    public static ComponentCandidateIndex read(File file) throws IOException {
+        if(!file.isFile()) {
+            return null;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            if(!HEADER.equals(reader.readLine())) {
+                return null;
+            }
+            List<String> candidateEntries = new ArrayList<String>();
+            String line;
+            while((line = reader.readLine()) != null) {
+                candidateEntries.add(line);
+            }
+            return new ComponentCandidateIndex(candidateEntries);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ComponentCandidateIndex [candidateEntries=" + candidateEntries.size() + "]";
+    }
+}
@@ -0,0 +1,77 @@
+package org.wheel.context.support;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.util.ResourceUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * jar 안의 class를 찾을 때 jar의 모든 entry 대신 {@link ComponentCandidateIndex}의 후보 class만 반환하는 resolver.
+ * index가 없는 jar와 디렉토리는 {@link PathMatchingResourcePatternResolver}와 같이 찾는다.
+ * annotation 기반 filter만 사용하는 component scan에서만 사용해야 한다({@link IndexedClassPathBeanDefinitionScanner}).
+ */
+public class ComponentIndexResourcePatternResolver extends PathMatchingResourcePatternResolver {
+
+    private final Map<File, ComponentCandidateIndex> indexes = new HashMap<File, ComponentCandidateIndex>();
+
+    /**
+     * @param indexes  jar 파일 -&gt; index
+     */
+    public ComponentIndexResourcePatternResolver(ResourceLoader resourceLoader, Map<File, ComponentCandidateIndex> indexes) {
+        super(resourceLoader);
+        for(Map.Entry<File, ComponentCandidateIndex> entry : indexes.entrySet()) {
+            this.indexes.put(entry.getKey().getAbsoluteFile(), entry.getValue());
+        }
+    }
+
+    @Override
+    protected Set<Resource> doFindPathMatchingJarResources(Resource rootDirResource, String subPattern) throws IOException {
+        URL rootDirUrl = rootDirResource.getURL();
+        String path = rootDirUrl.getPath();
+        int separatorIndex = path.indexOf(ResourceUtils.JAR_URL_SEPARATOR);
+        if(!ResourceUtils.URL_PROTOCOL_JAR.equals(rootDirUrl.getProtocol()) || separatorIndex < 0) {
+            return super.doFindPathMatchingJarResources(rootDirResource, subPattern);
+        }
+
+        ComponentCandidateIndex index;
+        String rootEntryPath;
+        try {
+            File jarFile = ResourceUtils.getFile(new URL(path.substring(0, separatorIndex)));
+            index = indexes.get(jarFile.getAbsoluteFile());
+            rootEntryPath = new URI(path.substring(separatorIndex + ResourceUtils.JAR_URL_SEPARATOR.length())).getPath();
+        } catch(IOException e) {
+            index = null;
+            rootEntryPath = null;
+        } catch(URISyntaxException e) {
+            index = null;
+            rootEntryPath = null;
+        }
+        if(index == null) {
+            return super.doFindPathMatchingJarResources(rootDirResource, subPattern);
+        }
+
+        if(!rootEntryPath.isEmpty() && !rootEntryPath.endsWith("/")) {
+            rootEntryPath += "/";
+        }
+        Set<Resource> result = new LinkedHashSet<Resource>();
+        for(String entryPath : index.getCandidateEntries()) {
+            if(entryPath.startsWith(rootEntryPath)) {
+                String relativePath = entryPath.substring(rootEntryPath.length());
+                if(getPathMatcher().match(subPattern, relativePath)) {
+                    result.add(rootDirResource.createRelative(relativePath));
+                }
+            }
+        }
+        return result;
+    }
+}
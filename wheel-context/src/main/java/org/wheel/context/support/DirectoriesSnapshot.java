@@ -4,49 +4,218 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * jar 디렉토리의 snapshot.
+ *
+ * jar 파일별로 size, lastModified 및 지연 계산되는 content digest를 hash index로 보관한다.
+ * 이전 snapshot을 넘겨 생성하면 size와 lastModified가 같은 jar는 이전 snapshot의 digest를 재사용하므로
+ * 변경되지 않은 jar는 다시 읽지 않는다.
+ *
+ * 파일시스템의 lastModified 정밀도(FAT 2초, ext3 1초 등) 안에서 같은 크기로 다시 쓰인 jar는 size와 lastModified가 같다.
+ * 따라서 snapshot 시각으로부터 {@link #MTIME_GRANULARITY_MILIS} 이내에 수정된 jar(racy)의 digest는 재사용하지 않고,
+ * diff에서도 lastModified가 같다는 것만으로 변경되지 않았다고 보지 않고 digest를 비교한다.
+ */
 public class DirectoriesSnapshot {
 
     private static Logger logger = LoggerFactory.getLogger(DirectoriesSnapshot.class);
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 지원하는 파일시스템 중 가장 거친 lastModified 정밀도
+     */
+    public static final long MTIME_GRANULARITY_MILIS = 2000;
+
+    // key: jar 파일의 absolute path
+    private final Map<String, JarFileState> index;
     private final List<File> jarFileList;
-    private long checksum = 0;
+    private volatile Long checksum = null;
 
     public DirectoriesSnapshot(File... jarDirs) {
+        this(null, jarDirs);
+    }
+
+    /**
+     * @param previous  digest를 재사용할 이전 snapshot. null 가능.
+     * @param jarDirs
+     */
+    public DirectoriesSnapshot(DirectoriesSnapshot previous, File... jarDirs) {
+        this.index = new LinkedHashMap<String, JarFileState>();
         this.jarFileList = new ArrayList<File>();
+        long snapshotTime = System.currentTimeMillis();
         for(File jarDir : jarDirs) {
             if(jarDir == null || !jarDir.exists() || !jarDir.isDirectory()) {
-                throw new IllegalArgumentException("jarDir=" + jarDir.getAbsolutePath() + " is not a directory nor exist.");
+                throw new IllegalArgumentException("jarDir=" + jarDir + " is not a directory nor exist.");
             }
             File[] jarFiles = jarDir.listFiles(new JarFilenameFilter());
+            if(jarFiles == null) {
+                throw new IllegalArgumentException("jarDir=" + jarDir.getAbsolutePath() + " can't be listed.");
+            }
 
             for(File jarFile : jarFiles) {
-                checksum += jarFile.lastModified();
+                String key = jarFile.getAbsolutePath();
+                long size = jarFile.length();
+                long lastModified = jarFile.lastModified();
+
+                JarFileState state = (previous != null ? previous.index.get(key) : null);
+                if(state == null || state.racy || state.size != size || state.lastModified != lastModified) {
+                    state = new JarFileState(jarFile, size, lastModified, snapshotTime - lastModified < MTIME_GRANULARITY_MILIS);
+                }
+
+                this.index.put(key, state);
                 this.jarFileList.add(jarFile);
             }
         }
     }
 
-    public boolean checkChanges(DirectoriesSnapshot newSnapshot) {
-        List<File> oldJarFileList = this.jarFileList;
-        List<File> newJarFileList = newSnapshot.jarFileList;
+    /**
+     * 이 snapshot을 기준으로 newSnapshot과의 차이를 계산한다. jar 개수에 비례하는 시간이 소요된다.
+     *
+     * size가 같고 lastModified만 다른 jar는 digest를 비교하여 내용이 같으면(touch, 동일 artifact 재업로드) 변경으로 보지 않는다.
+     * 이 snapshot에서 racy였던 jar는 lastModified가 같아도 같은 방법으로 digest를 비교한다.
+     * 단, 이 snapshot의 digest가 계산되어 있지 않은 경우 디스크의 내용이 이미 바뀌었을 수 있으므로 변경으로 간주한다.
+     */
+    public ChangeSet diff(DirectoriesSnapshot newSnapshot) {
+        ChangeSet changeSet = new ChangeSet();
 
-        if(!oldJarFileList.containsAll(newJarFileList) ||
-                !newJarFileList.containsAll(oldJarFileList)) {
-            return true;
+        for(Map.Entry<String, JarFileState> entry : newSnapshot.index.entrySet()) {
+            JarFileState newState = entry.getValue();
+            JarFileState oldState = this.index.get(entry.getKey());
+
+            if(oldState == null) {
+                changeSet.added.add(newState.file);
+            } else if(oldState == newState) {
+                continue;
+            } else if(oldState.size != newState.size) {
+                changeSet.modified.add(newState.file);
+            } else if(oldState.lastModified == newState.lastModified && !oldState.racy) {
+                continue;
+            } else if(oldState.isDigestComputed() && oldState.getDigest().equals(newState.getDigest())) {
+                logger.debug("{} has been touched or rewritten, but its content is unchanged.", newState.file);
+            } else {
+                changeSet.modified.add(newState.file);
+            }
         }
 
-        if(this.checksum != newSnapshot.checksum) {
-            logger.debug("this.lastModifiedSum={}, new.lastModifiedSum={}", this.checksum, newSnapshot.checksum);
-            return true;
+        for(Map.Entry<String, JarFileState> entry : this.index.entrySet()) {
+            if(!newSnapshot.index.containsKey(entry.getKey())) {
+                changeSet.removed.add(entry.getValue().file);
+            }
         }
 
+        return changeSet;
+    }
+
+    public boolean checkChanges(DirectoriesSnapshot newSnapshot) {
+        ChangeSet changeSet = diff(newSnapshot);
+        if(!changeSet.isEmpty()) {
+            logger.debug("changes={}", changeSet);
+            return true;
+        }
         return false;
     }
 
+    /**
+     * 두 snapshot의 jar 목록과 jar별 size, lastModified가 모두 같은지 비교한다. digest는 계산하지 않는다.
+     */
+    public boolean hasSameFileStates(DirectoriesSnapshot other) {
+        if(this.index.size() != other.index.size()) {
+            return false;
+        }
+        for(Map.Entry<String, JarFileState> entry : other.index.entrySet()) {
+            JarFileState otherState = entry.getValue();
+            JarFileState state = this.index.get(entry.getKey());
+            if(state == null || state.size != otherState.size || state.lastModified != otherState.lastModified) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 모든 jar의 digest를 계산한다. 로드에 사용되는 snapshot은 이후 diff의 기준이 되므로 이 메소드를 호출해 둔다.
+     */
+    public void computeDigests() {
+        for(JarFileState state : this.index.values()) {
+            state.getDigest();
+        }
+    }
+
+    /**
+     * jar 파일의 content digest를 반환한다. 계산되어 있지 않으면 이 시점에 계산한다.
+     *
+     * @param jarFile 이 snapshot에 포함된 jar 파일
+     * @return hex 문자열 digest
+     */
+    public String getDigest(File jarFile) {
+        return stateOf(jarFile).getDigest();
+    }
+
+    public long getSize(File jarFile) {
+        return stateOf(jarFile).size;
+    }
+
+    public long getLastModified(File jarFile) {
+        return stateOf(jarFile).lastModified;
+    }
+
+    /**
+     * 다른 곳(이전 실행의 기록 등)에서 알고 있는 digest를 사용하도록 한다.
+     * jar의 현재 size, lastModified가 digest를 기록할 당시와 같은 경우에만 적용된다.
+     *
+     * @return 적용되었으면 true
+     */
+    public boolean adoptDigest(File jarFile, long size, long lastModified, String digest) {
+        JarFileState state = this.index.get(jarFile.getAbsolutePath());
+        if(state == null || state.size != size || state.lastModified != lastModified) {
+            return false;
+        }
+        if(state.digest == null) {
+            state.digest = digest;
+        }
+        return state.digest.equals(digest);
+    }
+
+    private JarFileState stateOf(File jarFile) {
+        JarFileState state = this.index.get(jarFile.getAbsolutePath());
+        if(state == null) {
+            throw new IllegalArgumentException(jarFile + " is not in this snapshot.");
+        }
+        return state;
+    }
+
+    /**
+     * 전체 jar의 이름과 digest로부터 계산한 checksum. jar의 순서와 무관하다.
+     */
     public long getChecksum() {
+        if(checksum == null) {
+            List<String> lines = new ArrayList<String>();
+            for(JarFileState state : this.index.values()) {
+                lines.add(state.file.getName() + "=" + state.getDigest());
+            }
+            Collections.sort(lines);
+
+            MessageDigest md = FileUtil.newMessageDigest();
+            for(String line : lines) {
+                md.update(line.getBytes(UTF_8));
+                md.update((byte)'\n');
+            }
+            byte[] bytes = md.digest();
+            long value = 0;
+            for(int i = 0; i < 8; i++) {
+                value = (value << 8) | (bytes[i] & 0xff);
+            }
+            checksum = value & Long.MAX_VALUE;
+        }
         return checksum;
     }
 
@@ -61,4 +230,71 @@ public class DirectoriesSnapshot {
                 ", checksum=" + checksum +
                 '}';
     }
+
+    private static class JarFileState {
+
+        private final File file;
+        private final long size;
+        private final long lastModified;
+        // snapshot 시각과 lastModified의 차이가 정밀도 이내여서, 같은 lastModified로 다시 쓰일 수 있는 상태
+        private final boolean racy;
+        private volatile String digest;
+
+        private JarFileState(File file, long size, long lastModified, boolean racy) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.racy = racy;
+        }
+
+        private boolean isDigestComputed() {
+            return digest != null;
+        }
+
+        private String getDigest() {
+            if(digest == null) {
+                try {
+                    digest = FileUtil.digestOf(file);
+                } catch(IOException e) {
+                    throw new IllegalStateException("Can't compute digest of " + file, e);
+                }
+            }
+            return digest;
+        }
+    }
+
+    /**
+     * 두 snapshot 사이의 jar 변경사항.
+     */
+    public static class ChangeSet {
+
+        private final List<File> added = new ArrayList<File>();
+        private final List<File> removed = new ArrayList<File>();
+        private final List<File> modified = new ArrayList<File>();
+
+        public List<File> getAdded() {
+            return added;
+        }
+
+        public List<File> getRemoved() {
+            return removed;
+        }
+
+        public List<File> getModified() {
+            return modified;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "ChangeSet{" +
+                    "added=" + added +
+                    ", removed=" + removed +
+                    ", modified=" + modified +
+                    '}';
+        }
+    }
 }
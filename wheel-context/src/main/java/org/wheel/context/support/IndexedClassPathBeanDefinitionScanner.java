@@ -0,0 +1,71 @@
+package org.wheel.context.support;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.context.annotation.ClassPathBeanDefinitionScanner;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.type.filter.TypeFilter;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * jar의 {@link ComponentCandidateIndex}에 있는 class만 읽는 scanner.
+ *
+ * 기본 filter(@Component, @ManagedBean, @Named)는 class 수준의 annotation만 확인하므로 annotation이 없는 class를 건너뛰어도
+ * 결과가 같다. include-filter가 추가되면(assignable, regex 등) annotation이 없는 class도 해당될 수 있으므로 모든 class를 읽는다.
+ * 후보 class의 metadata는 매번 읽으며, 변경되지 않은 jar의 나머지 class는 열지 않는다.
+ */
+public class IndexedClassPathBeanDefinitionScanner extends ClassPathBeanDefinitionScanner {
+
+    private final Map<File, ComponentCandidateIndex> indexes;
+    private boolean annotationFiltersOnly = true;
+
+    private ResourceLoader resourceLoader;
+    private ResourceLoader indexedResourceLoader;
+    private ResourceLoader activeResourceLoader;
+
+    /**
+     * @param indexes  jar 파일 -&gt; index
+     */
+    public IndexedClassPathBeanDefinitionScanner(BeanDefinitionRegistry registry, boolean useDefaultFilters,
+                                                 Map<File, ComponentCandidateIndex> indexes) {
+        super(registry, useDefaultFilters);
+        this.indexes = indexes;
+        if(this.resourceLoader != null) {
+            this.indexedResourceLoader = new ComponentIndexResourcePatternResolver(this.resourceLoader, indexes);
+        }
+    }
+
+    @Override
+    public void setResourceLoader(ResourceLoader resourceLoader) {
+        super.setResourceLoader(resourceLoader);
+        this.resourceLoader = resourceLoader;
+        this.activeResourceLoader = resourceLoader;
+        // 상위 클래스의 생성자에서 호출되면 indexes가 아직 없다.
+        this.indexedResourceLoader = indexes != null ? new ComponentIndexResourcePatternResolver(resourceLoader, indexes) : null;
+    }
+
+    @Override
+    public void addIncludeFilter(TypeFilter includeFilter) {
+        super.addIncludeFilter(includeFilter);
+        this.annotationFiltersOnly = false;
+    }
+
+    @Override
+    public void resetFilters(boolean useDefaultFilters) {
+        super.resetFilters(useDefaultFilters);
+        this.annotationFiltersOnly = true;
+    }
+
+    @Override
+    public Set<BeanDefinition> findCandidateComponents(String basePackage) {
+        ResourceLoader resourceLoader = annotationFiltersOnly ? indexedResourceLoader : this.resourceLoader;
+        if(resourceLoader != null && resourceLoader != activeResourceLoader) {
+            super.setResourceLoader(resourceLoader);
+            activeResourceLoader = resourceLoader;
+        }
+        return super.findCandidateComponents(basePackage);
+    }
+}
@@ -0,0 +1,63 @@
+package org.wheel.context.support;
+
+import org.springframework.beans.factory.xml.DefaultNamespaceHandlerResolver;
+import org.springframework.beans.factory.xml.NamespaceHandler;
+import org.springframework.beans.factory.xml.XmlReaderContext;
+import org.springframework.context.annotation.ClassPathBeanDefinitionScanner;
+import org.springframework.context.annotation.ComponentScanBeanDefinitionParser;
+import org.springframework.context.config.ContextNamespaceHandler;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * context namespace의 &lt;context:component-scan&gt;이 {@link IndexedClassPathBeanDefinitionScanner}를 사용하도록 하는 resolver.
+ * 다른 namespace와 context namespace의 다른 element는 {@link DefaultNamespaceHandlerResolver}와 같다.
+ */
+public class IndexedContextNamespaceHandlerResolver extends DefaultNamespaceHandlerResolver {
+
+    private final Map<File, ComponentCandidateIndex> indexes;
+    private NamespaceHandler contextNamespaceHandler;
+
+    /**
+     * @param indexes  jar 파일 -&gt; index
+     */
+    public IndexedContextNamespaceHandlerResolver(ClassLoader classLoader, Map<File, ComponentCandidateIndex> indexes) {
+        super(classLoader);
+        this.indexes = indexes;
+    }
+
+    @Override
+    public synchronized NamespaceHandler resolve(String namespaceUri) {
+        NamespaceHandler namespaceHandler = super.resolve(namespaceUri);
+        // 사용자가 등록한 다른 handler는 그대로 사용한다.
+        if(namespaceHandler == null || namespaceHandler.getClass() != ContextNamespaceHandler.class) {
+            return namespaceHandler;
+        }
+        if(contextNamespaceHandler == null) {
+            contextNamespaceHandler = new IndexedContextNamespaceHandler(indexes);
+            contextNamespaceHandler.init();
+        }
+        return contextNamespaceHandler;
+    }
+
+    private static class IndexedContextNamespaceHandler extends ContextNamespaceHandler {
+
+        private final Map<File, ComponentCandidateIndex> indexes;
+
+        private IndexedContextNamespaceHandler(Map<File, ComponentCandidateIndex> indexes) {
+            this.indexes = indexes;
+        }
+
+        @Override
+        public void init() {
+            super.init();
+            registerBeanDefinitionParser("component-scan", new ComponentScanBeanDefinitionParser() {
+                @Override
+                protected ClassPathBeanDefinitionScanner createScanner(XmlReaderContext readerContext, boolean useDefaultFilters) {
+                    return new IndexedClassPathBeanDefinitionScanner(readerContext.getRegistry(), useDefaultFilters, indexes);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.wheel.context.support;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 초당 처리 byte 수를 제한한다. 여러 스레드가 공유하며, 전체 처리량이 bytesPerSecond를 넘지 않도록
+ * 각 스레드가 앞서 처리된 양만큼 기다린 뒤 진행한다. bytesPerSecond가 0 이하이면 제한하지 않는다.
+ */
+public class IoRateLimiter {
+
+    private volatile long bytesPerSecond;
+
+    private long nextFreeNanos = System.nanoTime(); // guarded by this
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public boolean isLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    /**
+     * bytes 만큼 처리해도 되는 시점까지 기다린다.
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long rate = bytesPerSecond;
+        if(rate <= 0 || bytes <= 0) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized(this) {
+            long now = System.nanoTime();
+            // 쉬고 있던 시간은 다음 처리량으로 이월하지 않는다.
+            long start = Math.max(nextFreeNanos, now);
+            nextFreeNanos = start + (long)(bytes * (double)TimeUnit.SECONDS.toNanos(1) / rate);
+            waitNanos = start - now;
+        }
+        if(waitNanos <= 0) {
+            return;
+        }
+
+        throttledNanos.addAndGet(waitNanos);
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for I/O rate limit.");
+        }
+    }
+
+    /**
+     * 지금까지 제한으로 기다린 시간의 합
+     */
+    public long getThrottledMilis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+}
@@ -0,0 +1,330 @@
+package org.wheel.context.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM 내의 모든 컨테이너가 공유하는 jar 디렉토리 감시자.
+ *
+ * 디렉토리는 {@link WatchService}로 감시하며 jar 파일의 create/modify/delete 이벤트가 발생하면 listener를 호출한다.
+ * WatchService 등록이 불가능한 파일시스템(또는 명시적으로 polling을 요청한 경우)은 같은 스레드에서 polling으로 감시하며,
+ * 변경이 없으면 polling 간격을 maxBackoffFactor 배까지 늘리고 변경이 감지되면 기본 간격으로 되돌린다.
+ *
+ * 감시 스레드는 최초 등록 시 시작되고, 등록된 디렉토리가 하나도 없으면 종료된다.
+ */
+public final class JarDirectoryWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(JarDirectoryWatcher.class);
+
+    private static final JarDirectoryWatcher SHARED = new JarDirectoryWatcher();
+
+    private static final long MAX_WAIT_MILIS = 500;
+    private static final int MAX_BACKOFF_FACTOR = 16;
+
+    private final JarFilenameFilter jarFilenameFilter = new JarFilenameFilter();
+
+    private final List<Registration> registrations = new ArrayList<Registration>();
+    private final Map<WatchKey, List<Registration>> watchedKeys = new HashMap<WatchKey, List<Registration>>();
+
+    private WatchService watchService;
+    private Thread watcherThread;
+
+    public static JarDirectoryWatcher getSharedInstance() {
+        return SHARED;
+    }
+
+    private JarDirectoryWatcher() {
+    }
+
+    public interface Listener {
+
+        /**
+         * 감시중인 디렉토리의 jar 파일에 변경이 감지되었을 때 감시 스레드에서 호출된다.
+         * 감시 스레드는 모든 컨테이너가 공유하므로 구현체는 실제 작업을 별도 스레드로 넘기고 즉시 반환해야 한다.
+         */
+        void directoryChanged(File directory);
+    }
+
+    /**
+     * 디렉토리 감시를 등록한다.
+     *
+     * @param directory              감시할 디렉토리
+     * @param pollIntervalMilis      polling으로 감시하는 경우의 기본 간격
+     * @param useWatchService        false이면 WatchService를 사용하지 않고 polling 한다(NFS 등 원격 파일시스템)
+     * @param listener
+     * @return 감시 해제에 사용할 {@link Registration}
+     */
+    public synchronized Registration register(File directory, long pollIntervalMilis, boolean useWatchService, Listener listener) {
+        if(directory == null || !directory.isDirectory()) {
+            throw new IllegalArgumentException("directory=" + directory + " is not a directory nor exist.");
+        }
+
+        Registration registration = new Registration(directory, pollIntervalMilis, listener);
+
+        if(useWatchService) {
+            try {
+                if(this.watchService == null) {
+                    this.watchService = FileSystems.getDefault().newWatchService();
+                }
+                WatchKey key = directory.toPath().register(this.watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                registration.watchKey = key;
+
+                List<Registration> sameKeyRegistrations = this.watchedKeys.get(key);
+                if(sameKeyRegistrations == null) {
+                    sameKeyRegistrations = new ArrayList<Registration>();
+                    this.watchedKeys.put(key, sameKeyRegistrations);
+                }
+                sameKeyRegistrations.add(registration);
+            } catch(IOException e) {
+                logger.warn("Can't watch {}, falling back to polling. cause={}", directory, e.toString());
+            } catch(UnsupportedOperationException e) {
+                logger.warn("WatchService is not supported for {}, falling back to polling.", directory);
+            }
+        }
+
+        if(registration.watchKey == null) {
+            registration.startPolling();
+        }
+
+        this.registrations.add(registration);
+        startWatcherThreadIfNecessary();
+
+        logger.info("Watching {} by {}.", directory, (registration.watchKey != null ? "WatchService" : "polling"));
+        return registration;
+    }
+
+    private synchronized void unregister(Registration registration) {
+        if(!this.registrations.remove(registration)) {
+            return;
+        }
+
+        if(registration.watchKey != null) {
+            List<Registration> sameKeyRegistrations = this.watchedKeys.get(registration.watchKey);
+            if(sameKeyRegistrations != null) {
+                sameKeyRegistrations.remove(registration);
+                if(sameKeyRegistrations.isEmpty()) {
+                    this.watchedKeys.remove(registration.watchKey);
+                    registration.watchKey.cancel();
+                }
+            }
+        }
+
+        if(this.registrations.isEmpty() && this.watchService != null) {
+            // 등록된 디렉토리가 없으면 WatchService를 닫아 감시 스레드를 종료시킨다.
+            try {
+                this.watchService.close();
+            } catch(IOException e) {
+                logger.debug("Failed to close WatchService.", e);
+            }
+            this.watchService = null;
+        }
+    }
+
+    private void startWatcherThreadIfNecessary() {
+        if(this.watcherThread != null && this.watcherThread.isAlive()) {
+            return;
+        }
+
+        this.watcherThread = new Thread(new WatchLoop(), "JarDirectoryWatcher");
+        this.watcherThread.setDaemon(true);
+        this.watcherThread.start();
+    }
+
+    private synchronized List<Registration> registrationsOf(WatchKey key) {
+        List<Registration> sameKeyRegistrations = this.watchedKeys.get(key);
+        return sameKeyRegistrations == null
+                ? new ArrayList<Registration>()
+                : new ArrayList<Registration>(sameKeyRegistrations);
+    }
+
+    private synchronized List<Registration> pollingRegistrations() {
+        List<Registration> polling = new ArrayList<Registration>();
+        for(Registration registration : this.registrations) {
+            if(registration.watchKey == null) {
+                polling.add(registration);
+            }
+        }
+        return polling;
+    }
+
+    /**
+     * 감시 스레드 종료 여부를 판단한다. 종료하는 경우 watcherThread를 정리한다.
+     */
+    private synchronized boolean shouldTerminate() {
+        if(this.registrations.isEmpty()) {
+            this.watcherThread = null;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized WatchService currentWatchService() {
+        return this.watchService;
+    }
+
+    private class WatchLoop implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while(!shouldTerminate()) {
+                    List<Registration> polling = pollingRegistrations();
+                    long now = System.currentTimeMillis();
+                    long waitMilis = MAX_WAIT_MILIS;
+                    for(Registration registration : polling) {
+                        waitMilis = Math.min(waitMilis, Math.max(0, registration.nextPollAt - now));
+                    }
+
+                    WatchService ws = currentWatchService();
+                    if(ws != null) {
+                        try {
+                            WatchKey key = ws.poll(waitMilis, TimeUnit.MILLISECONDS);
+                            if(key != null) {
+                                handleWatchKey(key);
+                            }
+                        } catch(ClosedWatchServiceException e) {
+                            // 마지막 등록이 해제되어 WatchService가 닫힌 경우
+                        }
+                    } else if(waitMilis > 0) {
+                        Thread.sleep(waitMilis);
+                    }
+
+                    now = System.currentTimeMillis();
+                    for(Registration registration : polling) {
+                        if(registration.nextPollAt <= now) {
+                            registration.poll(now);
+                        }
+                    }
+                }
+            } catch(InterruptedException e) {
+                logger.info("{} has been interrupted. Terminating change-monitoring.", Thread.currentThread().getName());
+            }
+        }
+
+        private void handleWatchKey(WatchKey key) {
+            boolean hasJarChanges = false;
+            for(WatchEvent<?> event : key.pollEvents()) {
+                if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    hasJarChanges = true;
+                    continue;
+                }
+                Path name = (Path)event.context();
+                if(name != null && jarFilenameFilter.accept(null, name.toString())) {
+                    hasJarChanges = true;
+                }
+            }
+
+            List<Registration> keyRegistrations = registrationsOf(key);
+            if(!key.reset()) {
+                // 디렉토리가 삭제/unmount 되는 등 key가 무효화된 경우 polling으로 전환한다.
+                for(Registration registration : keyRegistrations) {
+                    logger.warn("WatchKey for {} is no longer valid, falling back to polling.", registration.directory);
+                    synchronized (JarDirectoryWatcher.this) {
+                        watchedKeys.remove(key);
+                        registration.watchKey = null;
+                        registration.startPolling();
+                    }
+                }
+            }
+
+            if(hasJarChanges) {
+                for(Registration registration : keyRegistrations) {
+                    registration.fire();
+                }
+            }
+        }
+    }
+
+    public class Registration {
+
+        private final File directory;
+        private final long basePollIntervalMilis;
+        private final Listener listener;
+
+        private volatile WatchKey watchKey;
+
+        // polling 상태. 감시 스레드에서만 접근한다.
+        private DirectoriesSnapshot lastSnapshot;
+        private long currentPollIntervalMilis;
+        private volatile long nextPollAt;
+
+        private Registration(File directory, long basePollIntervalMilis, Listener listener) {
+            this.directory = directory;
+            this.basePollIntervalMilis = Math.max(1, basePollIntervalMilis);
+            this.listener = listener;
+        }
+
+        public File getDirectory() {
+            return directory;
+        }
+
+        public boolean isPolling() {
+            return watchKey == null;
+        }
+
+        /**
+         * 감시를 해제한다.
+         */
+        public void cancel() {
+            unregister(this);
+        }
+
+        private void startPolling() {
+            this.lastSnapshot = takeSnapshot();
+            this.currentPollIntervalMilis = this.basePollIntervalMilis;
+            this.nextPollAt = System.currentTimeMillis() + this.currentPollIntervalMilis;
+        }
+
+        private void poll(long now) {
+            DirectoriesSnapshot newSnapshot = takeSnapshot();
+            boolean hasChanged = lastSnapshot == null
+                    ? newSnapshot != null
+                    : (newSnapshot != null && lastSnapshot.checkChanges(newSnapshot));
+            this.lastSnapshot = newSnapshot;
+
+            if(hasChanged) {
+                this.currentPollIntervalMilis = this.basePollIntervalMilis;
+                fire();
+            } else {
+                this.currentPollIntervalMilis = Math.min(
+                        this.currentPollIntervalMilis * 2,
+                        this.basePollIntervalMilis * MAX_BACKOFF_FACTOR);
+            }
+            this.nextPollAt = now + this.currentPollIntervalMilis;
+        }
+
+        private DirectoriesSnapshot takeSnapshot() {
+            try {
+                return new DirectoriesSnapshot(directory);
+            } catch(IllegalArgumentException e) {
+                logger.warn("Can't take snapshot of {}. cause={}", directory, e.getMessage());
+                return null;
+            }
+        }
+
+        private void fire() {
+            try {
+                listener.directoryChanged(directory);
+            } catch(RuntimeException e) {
+                logger.warn("Listener for {} has thrown an exception.", directory, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.wheel.context.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.CodeSigner;
+import java.util.jar.Manifest;
+
+/**
+ * classloader가 jar의 entry를 읽는 방법.
+ *
+ * @see JarFileEntrySource
+ * @see MappedJarEntrySource
+ */
+public interface JarEntrySource extends Closeable {
+
+    boolean contains(String name);
+
+    /**
+     * @return entry의 내용. entry가 없으면 null
+     */
+    byte[] read(String name) throws IOException;
+
+    /**
+     * {@link #read}로 entry를 읽은 후에 호출해야 서명이 확인된다.
+     *
+     * @return 서명되지 않았으면 null
+     */
+    CodeSigner[] getCodeSigners(String name);
+
+    /**
+     * @return manifest가 없으면 null
+     */
+    Manifest getManifest() throws IOException;
+
+    /**
+     * jar의 내용을 미리 메모리에 올린다. 지원하지 않으면 아무것도 하지 않는다.
+     */
+    void pretouch();
+}
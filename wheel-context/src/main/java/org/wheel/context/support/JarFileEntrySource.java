@@ -0,0 +1,73 @@
+package org.wheel.context.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.CodeSigner;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * {@link JarFile}로 entry를 읽는다. 서명된 jar는 {@link JarFile}이 검증한다.
+ */
+public class JarFileEntrySource implements JarEntrySource {
+
+    private final JarFile jar;
+
+    public JarFileEntrySource(File file) throws IOException {
+        this.jar = new JarFile(file);
+    }
+
+    @Override
+    public boolean contains(String name) {
+        return jar.getEntry(name) != null;
+    }
+
+    @Override
+    public byte[] read(String name) throws IOException {
+        JarEntry entry = jar.getJarEntry(name);
+        if(entry == null) {
+            return null;
+        }
+        InputStream in = jar.getInputStream(entry);
+        try {
+            long size = entry.getSize();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 ? (int)size : 8192);
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public CodeSigner[] getCodeSigners(String name) {
+        JarEntry entry = jar.getJarEntry(name);
+        return entry != null ? entry.getCodeSigners() : null;
+    }
+
+    @Override
+    public Manifest getManifest() throws IOException {
+        return jar.getManifest();
+    }
+
+    @Override
+    public void pretouch() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        jar.close();
+    }
+
+    @Override
+    public String toString() {
+        return "JarFileEntrySource [" + jar.getName() + "]";
+    }
+}
@@ -0,0 +1,145 @@
+package org.wheel.context.support;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * jar에 포함된 entry들의 디렉토리(package) 목록.
+ *
+ * 디렉토리는 entry 이름에서 마지막 '/'까지의 부분이며(디렉토리 entry는 끝의 '/'를 제외하고 계산한다), 최상위는 "" 이다.
+ * classloader는 이 목록으로 class, resource가 있을 수 있는 jar만 찾아본다.
+ * jar 내용이 같으면 index도 같으므로 content digest 별로 한 번만 만들어 재사용한다.
+ */
+public class JarPackageIndex {
+
+    public static final String FILE_SUFFIX = ".idx";
+
+    /**
+     * jar 파일 -&gt; index 맵을 담는 load attribute
+     */
+    public static final String LOAD_ATTRIBUTE = "jarPackageIndexes";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String HEADER = "#JarPackageIndex v1 classPathAttribute=";
+    private static final String ROOT_LINE = "/";
+
+    private final Set<String> directories;
+    private final boolean classPathAttribute;
+
+    private JarPackageIndex(Set<String> directories, boolean classPathAttribute) {
+        this.directories = Collections.unmodifiableSet(directories);
+        this.classPathAttribute = classPathAttribute;
+    }
+
+    public static JarPackageIndex build(File jarFile) throws IOException {
+        Set<String> directories = new HashSet<String>();
+        boolean classPathAttribute;
+        JarFile jar = new JarFile(jarFile, false);
+        try {
+            Enumeration<? extends ZipEntry> entries = jar.entries();
+            while(entries.hasMoreElements()) {
+                directories.add(directoryOf(entries.nextElement().getName()));
+            }
+            Manifest manifest = jar.getManifest();
+            classPathAttribute = manifest != null && manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) != null;
+        } finally {
+            jar.close();
+        }
+        return new JarPackageIndex(directories, classPathAttribute);
+    }
+
+    /**
+     * @param name  jar entry 또는 classloader resource 이름
+     * @return name이 속한 디렉토리. 최상위이면 ""
+     */
+    public static String directoryOf(String name) {
+        int end = name.endsWith("/") ? name.length() - 1 : name.length();
+        int slash = name.lastIndexOf('/', end - 1);
+        return slash < 0 ? "" : name.substring(0, slash + 1);
+    }
+
+    public boolean contains(String directory) {
+        return directories.contains(directory);
+    }
+
+    public Set<String> getDirectories() {
+        return directories;
+    }
+
+    /**
+     * manifest에 Class-Path 속성이 있으면 그 jar들은 index에 포함되지 않는다.
+     */
+    public boolean hasClassPathAttribute() {
+        return classPathAttribute;
+    }
+
+    /**
+     * 임시파일에 쓴 후 이동하므로 다른 스레드나 프로세스가 쓰다 만 파일을 읽지 않는다.
+     */
+    public void store(File file) throws IOException {
+        File tempFile = File.createTempFile("index-", ".tmp", file.getParentFile());
+        try {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), UTF_8));
+            try {
+                writer.write(HEADER + classPathAttribute);
+                writer.newLine();
+                for(String directory : directories) {
+                    writer.write(directory.isEmpty() ? ROOT_LINE : directory);
+                    writer.newLine();
+                }
+            } finally {
+                writer.close();
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * @return 파일이 없거나 형식이 맞지 않으면 null
+     */
+    public static JarPackageIndex read(File file) throws IOException {
+        if(!file.isFile()) {
+            return null;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            String header = reader.readLine();
+            if(header == null || !header.startsWith(HEADER)) {
+                return null;
+            }
+            boolean classPathAttribute = Boolean.parseBoolean(header.substring(HEADER.length()));
+            Set<String> directories = new HashSet<String>();
+            String line;
+            while((line = reader.readLine()) != null) {
+                directories.add(ROOT_LINE.equals(line) ? "" : line);
+            }
+            return new JarPackageIndex(directories, classPathAttribute);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JarPackageIndex [directories=" + directories.size() + ", classPathAttribute=" + classPathAttribute + "]";
+    }
+}
@@ -0,0 +1,506 @@
+package org.wheel.context.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * digest를 key로 하는 content-addressed jar 저장소.
+ *
+ * baseDirectory/.store/&lt;digest&gt;.jar 에 jar 내용이 한 번만 저장되며,
+ * 각 load 디렉토리(baseDirectory/&lt;loadId&gt;)는 저장소의 파일에 대한 hard link로 구성된다.
+ * hard link를 지원하지 않는 파일시스템에서는 {@link FileChannel#transferTo}로 복사한다.
+ * 저장소에 없는 jar만 병렬로 복사되므로 staging 비용은 변경된 jar의 크기에 비례한다.
+ * 각 jar의 {@link JarPackageIndex}와 {@link ComponentCandidateIndex}도 &lt;digest&gt;.idx, &lt;digest&gt;.components 로
+ * 함께 저장되어 load마다 jar를 다시 읽지 않는다.
+ */
+public class JarStagingStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(JarStagingStore.class);
+
+    public static final String STORE_DIRECTORY_NAME = ".store";
+    public static final String MANIFEST_FILENAME = "STAGED_MANIFEST";
+    public static final String BLOB_SUFFIX = ".jar";
+
+    private static final int COPY_CHUNK_BYTES = 256 * 1024;
+
+    private final File baseDirectory;
+    private final File storeDirectory;
+    private final ExecutorService copyExecutorService;
+
+    private volatile boolean hardLinkSupported = true;
+    private volatile IoRateLimiter copyRateLimiter;
+
+    private final ConcurrentMap<String, JarPackageIndex> indexes = new ConcurrentHashMap<String, JarPackageIndex>();
+    private final ConcurrentMap<String, ComponentCandidateIndex> componentIndexes = new ConcurrentHashMap<String, ComponentCandidateIndex>();
+
+    // staging(read)과 저장소 정리(write)가 동시에 수행되지 않도록 한다.
+    private final ReadWriteLock stagingLock = new ReentrantReadWriteLock();
+
+    public JarStagingStore(File baseDirectory, int copyThreads) throws IOException {
+        this.baseDirectory = baseDirectory;
+        this.storeDirectory = new File(baseDirectory, STORE_DIRECTORY_NAME);
+        FileUtil.createDirectoryIfNotPresent(this.storeDirectory);
+
+        this.copyExecutorService = Executors.newFixedThreadPool(Math.max(1, copyThreads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true);
+                t.setName("JarStagingStore-" + t.getName());
+                return t;
+            }
+        });
+    }
+
+    public File getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    public File getStoreDirectory() {
+        return storeDirectory;
+    }
+
+    public IoRateLimiter getCopyRateLimiter() {
+        return copyRateLimiter;
+    }
+
+    /**
+     * jar 복사 대역폭을 제한한다. hard link로 구성되는 파일은 복사하지 않으므로 해당되지 않는다.
+     */
+    public void setCopyRateLimiter(IoRateLimiter copyRateLimiter) {
+        this.copyRateLimiter = copyRateLimiter;
+    }
+
+    public File blobOf(String digest) {
+        return new File(this.storeDirectory, digest + BLOB_SUFFIX);
+    }
+
+    public File indexFileOf(String digest) {
+        return new File(this.storeDirectory, digest + JarPackageIndex.FILE_SUFFIX);
+    }
+
+    /**
+     * 저장소에 있는 jar의 index를 반환한다. 메모리, 저장소의 index 파일 순으로 찾고 없으면 jar를 읽어 만든다.
+     */
+    public JarPackageIndex indexOf(String digest) throws IOException {
+        JarPackageIndex index = indexes.get(digest);
+        if(index != null) {
+            return index;
+        }
+
+        stagingLock.readLock().lock();
+        try {
+            File indexFile = indexFileOf(digest);
+            index = JarPackageIndex.read(indexFile);
+            if(index == null) {
+                index = JarPackageIndex.build(blobOf(digest));
+                index.store(indexFile);
+                logger.debug("Built {} of blob={}.", index, digest);
+            }
+        } finally {
+            stagingLock.readLock().unlock();
+        }
+
+        JarPackageIndex previous = indexes.putIfAbsent(digest, index);
+        return previous != null ? previous : index;
+    }
+
+    /**
+     * @return jar 파일 -&gt; index. digests의 순서를 유지한다.
+     */
+    public Map<File, JarPackageIndex> indexesOf(Map<File, String> digests) throws IOException {
+        Map<File, JarPackageIndex> result = new LinkedHashMap<File, JarPackageIndex>();
+        for(Map.Entry<File, String> entry : digests.entrySet()) {
+            result.put(entry.getKey(), indexOf(entry.getValue()));
+        }
+        return result;
+    }
+
+    public File componentIndexFileOf(String digest) {
+        return new File(this.storeDirectory, digest + ComponentCandidateIndex.FILE_SUFFIX);
+    }
+
+    /**
+     * 저장소에 있는 jar의 component 후보 index를 반환한다. {@link #indexOf}와 같은 순서로 찾는다.
+     */
+    public ComponentCandidateIndex componentIndexOf(String digest) throws IOException {
+        ComponentCandidateIndex index = componentIndexes.get(digest);
+        if(index != null) {
+            return index;
+        }
+
+        stagingLock.readLock().lock();
+        try {
+            File indexFile = componentIndexFileOf(digest);
+            index = ComponentCandidateIndex.read(indexFile);
+            if(index == null) {
+                index = ComponentCandidateIndex.build(blobOf(digest));
+                index.store(indexFile);
+                logger.debug("Built {} of blob={}.", index, digest);
+            }
+        } finally {
+            stagingLock.readLock().unlock();
+        }
+
+        ComponentCandidateIndex previous = componentIndexes.putIfAbsent(digest, index);
+        return previous != null ? previous : index;
+    }
+
+    /**
+     * @return jar 파일 -&gt; component 후보 index. digests의 순서를 유지한다.
+     */
+    public Map<File, ComponentCandidateIndex> componentIndexesOf(Map<File, String> digests) throws IOException {
+        Map<File, ComponentCandidateIndex> result = new LinkedHashMap<File, ComponentCandidateIndex>();
+        for(Map.Entry<File, String> entry : digests.entrySet()) {
+            result.put(entry.getKey(), componentIndexOf(entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * snapshot의 jar들로 baseDirectory/loadId 디렉토리를 구성한다.
+     *
+     * @param loadId
+     * @param snapshot  digest가 계산된 snapshot
+     * @return staging 결과
+     */
+    public StagingResult stage(String loadId, DirectoriesSnapshot snapshot) throws IOException {
+        stagingLock.readLock().lock();
+        try {
+            return doStage(loadId, snapshot);
+        } finally {
+            stagingLock.readLock().unlock();
+        }
+    }
+
+    private StagingResult doStage(String loadId, DirectoriesSnapshot snapshot) throws IOException {
+        List<File> srcJarFileList = snapshot.getJarFileList();
+
+        // 1. 저장소에 없는 jar를 병렬로 저장소에 복사한다. 같은 digest는 한 번만 복사한다.
+        Map<String, Future<String>> copies = new HashMap<String, Future<String>>();
+        for(final File srcJarFile : srcJarFileList) {
+            final String digest = snapshot.getDigest(srcJarFile);
+            if(!copies.containsKey(digest) && !blobOf(digest).exists()) {
+                copies.put(digest, copyExecutorService.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return copyIntoStore(srcJarFile, digest);
+                    }
+                }));
+            }
+        }
+
+        long copiedBytes = 0;
+        Map<String, String> actualDigests = new HashMap<String, String>();
+        for(Map.Entry<String, Future<String>> entry : copies.entrySet()) {
+            String actualDigest = await(entry.getValue());
+            actualDigests.put(entry.getKey(), actualDigest);
+            copiedBytes += blobOf(actualDigest).length();
+        }
+
+        Map<File, String> digests = new LinkedHashMap<File, String>();
+        for(File srcJarFile : srcJarFileList) {
+            String digest = snapshot.getDigest(srcJarFile);
+            String actualDigest = actualDigests.get(digest);
+            digests.put(srcJarFile, actualDigest != null ? actualDigest : digest);
+        }
+
+        // 2. load 디렉토리를 저장소 파일에 대한 link(또는 복사본)로 구성한다.
+        File loadDirectory = new File(this.baseDirectory, loadId);
+        FileUtil.createDirectoryIfNotPresent(loadDirectory);
+
+        List<File> destJarFileList = new ArrayList<File>();
+        Map<File, String> stagedDigests = new LinkedHashMap<File, String>();
+        Properties manifest = new Properties();
+        for(Map.Entry<File, String> entry : digests.entrySet()) {
+            File destFile = new File(loadDirectory, entry.getKey().getName());
+            materialize(blobOf(entry.getValue()), destFile);
+            destJarFileList.add(destFile);
+            stagedDigests.put(destFile, entry.getValue());
+            manifest.setProperty(destFile.getName(), entry.getValue());
+        }
+        writeManifest(loadDirectory, manifest);
+
+        logger.debug("Staged {} jar(s) into {}, {} byte(s) copied.", destJarFileList.size(), loadDirectory, copiedBytes);
+        return new StagingResult(loadDirectory, destJarFileList, stagedDigests, copiedBytes);
+    }
+
+    private String await(Future<String> future) throws IOException {
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while staging jar files.", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException("Failed to stage jar files.", e.getCause());
+        }
+    }
+
+    /**
+     * srcFile을 한 번 읽으면서 임시파일로 복사하고 digest를 계산한 뒤 &lt;digest&gt;.jar 로 이동한다.
+     * snapshot 이후 srcFile이 변경되었다면 실제 내용의 digest로 저장되며 그 digest를 반환한다.
+     */
+    private String copyIntoStore(File srcFile, String expectedDigest) throws IOException {
+        File tempFile = File.createTempFile("staging-", ".tmp", this.storeDirectory);
+        MessageDigest md = FileUtil.newMessageDigest();
+
+        try {
+            FileInputStream in = new FileInputStream(srcFile);
+            try {
+                FileOutputStream out = new FileOutputStream(tempFile);
+                try {
+                    FileChannel inChannel = in.getChannel();
+                    FileChannel outChannel = out.getChannel();
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_CHUNK_BYTES);
+                    IoRateLimiter rateLimiter = this.copyRateLimiter;
+                    while(inChannel.read(buffer) != -1) {
+                        buffer.flip();
+                        if(rateLimiter != null) {
+                            rateLimiter.acquire(buffer.remaining());
+                        }
+                        md.update(buffer.duplicate());
+                        while(buffer.hasRemaining()) {
+                            outChannel.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            String actualDigest = FileUtil.toHex(md.digest());
+            if(!actualDigest.equals(expectedDigest)) {
+                logger.warn("{} has been changed after taking snapshot. expected digest={}, actual digest={}",
+                        srcFile, expectedDigest, actualDigest);
+            }
+
+            try {
+                Files.move(tempFile.toPath(), blobOf(actualDigest).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch(FileAlreadyExistsException e) {
+                // 다른 스레드가 같은 내용을 먼저 저장한 경우
+            }
+            return actualDigest;
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    private void materialize(File blob, File destFile) throws IOException {
+        Files.deleteIfExists(destFile.toPath());
+
+        if(hardLinkSupported) {
+            try {
+                Files.createLink(destFile.toPath(), blob.toPath());
+                return;
+            } catch(UnsupportedOperationException e) {
+                hardLinkSupported = false;
+            } catch(FileSystemException e) {
+                // 다른 파일시스템(cross-device)이거나 link가 허용되지 않는 경우
+                hardLinkSupported = false;
+            }
+            logger.info("Hard links are not supported in {}. Falling back to copying.", this.baseDirectory);
+        }
+
+        transferTo(blob, destFile);
+    }
+
+    private void transferTo(File srcFile, File destFile) throws IOException {
+        FileInputStream in = new FileInputStream(srcFile);
+        try {
+            FileOutputStream out = new FileOutputStream(destFile);
+            try {
+                FileChannel inChannel = in.getChannel();
+                FileChannel outChannel = out.getChannel();
+                long size = inChannel.size();
+                long position = 0;
+                IoRateLimiter rateLimiter = this.copyRateLimiter;
+                while(position < size) {
+                    if(rateLimiter != null && rateLimiter.isLimited()) {
+                        long count = Math.min(COPY_CHUNK_BYTES, size - position);
+                        rateLimiter.acquire(count);
+                        position += inChannel.transferTo(position, count, outChannel);
+                    } else {
+                        position += inChannel.transferTo(position, size - position, outChannel);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeManifest(File loadDirectory, Properties manifest) throws IOException {
+        OutputStream out = new FileOutputStream(new File(loadDirectory, MANIFEST_FILENAME));
+        try {
+            manifest.store(out, "jar name = content digest");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * load 디렉토리의 manifest(jar 이름 -&gt; digest)를 읽는다. manifest가 없으면 null을 반환한다.
+     */
+    public static Properties readManifest(File loadDirectory) {
+        File manifestFile = new File(loadDirectory, MANIFEST_FILENAME);
+        if(!manifestFile.isFile()) {
+            return null;
+        }
+
+        Properties manifest = new Properties();
+        try {
+            FileInputStream in = new FileInputStream(manifestFile);
+            try {
+                manifest.load(in);
+            } finally {
+                in.close();
+            }
+        } catch(IOException e) {
+            logger.warn("Can't read manifest of {}.", loadDirectory, e);
+            return null;
+        }
+        return manifest;
+    }
+
+    /**
+     * baseDirectory에 남아있는 어떤 load 디렉토리의 manifest에서도 참조되지 않는 저장소 파일과 그 index를 삭제한다.
+     * 진행중인 staging이 있으면 끝날 때까지 대기한다.
+     *
+     * @return 삭제된 byte 수
+     */
+    public long sweepUnreferencedBlobs() {
+        stagingLock.writeLock().lock();
+        try {
+            Set<String> referencedDigests = new HashSet<String>();
+            File[] loadDirectories = this.baseDirectory.listFiles();
+            if(loadDirectories != null) {
+                for(File loadDirectory : loadDirectories) {
+                    if(!loadDirectory.isDirectory() || loadDirectory.equals(this.storeDirectory)) {
+                        continue;
+                    }
+                    Properties manifest = readManifest(loadDirectory);
+                    if(manifest == null) {
+                        continue;
+                    }
+                    for(String jarName : manifest.stringPropertyNames()) {
+                        referencedDigests.add(manifest.getProperty(jarName));
+                    }
+                }
+            }
+
+            long freedBytes = 0;
+            File[] blobs = this.storeDirectory.listFiles();
+            if(blobs != null) {
+                for(File blob : blobs) {
+                    String digest = digestOf(blob.getName());
+                    if(referencedDigests.contains(digest)) {
+                        continue;
+                    }
+                    long length = blob.length();
+                    if(blob.delete()) {
+                        freedBytes += length;
+                        logger.debug("Deleted unreferenced blob={}.", blob);
+                    }
+                    indexes.remove(digest);
+                    componentIndexes.remove(digest);
+                }
+            }
+            return freedBytes;
+        } finally {
+            stagingLock.writeLock().unlock();
+        }
+    }
+
+    private static String digestOf(String storeFileName) {
+        for(String suffix : new String[] { BLOB_SUFFIX, JarPackageIndex.FILE_SUFFIX, ComponentCandidateIndex.FILE_SUFFIX }) {
+            if(storeFileName.endsWith(suffix)) {
+                return storeFileName.substring(0, storeFileName.length() - suffix.length());
+            }
+        }
+        return storeFileName;
+    }
+
+    public void shutdown() {
+        copyExecutorService.shutdownNow();
+    }
+
+    /**
+     * staging 결과.
+     */
+    public static class StagingResult {
+
+        private final File loadDirectory;
+        private final List<File> jarFiles;
+        private final Map<File, String> digests;
+        private final long copiedBytes;
+
+        private StagingResult(File loadDirectory, List<File> jarFiles, Map<File, String> digests, long copiedBytes) {
+            this.loadDirectory = loadDirectory;
+            this.jarFiles = Collections.unmodifiableList(jarFiles);
+            this.digests = Collections.unmodifiableMap(digests);
+            this.copiedBytes = copiedBytes;
+        }
+
+        public File getLoadDirectory() {
+            return loadDirectory;
+        }
+
+        public File[] getJarFiles() {
+            return jarFiles.toArray(new File[jarFiles.size()]);
+        }
+
+        /**
+         * @return staged jar 파일 -&gt; content digest
+         */
+        public Map<File, String> getDigests() {
+            return digests;
+        }
+
+        /**
+         * @return 이번 staging에서 저장소로 새로 복사된 byte 수
+         */
+        public long getCopiedBytes() {
+            return copiedBytes;
+        }
+    }
+}
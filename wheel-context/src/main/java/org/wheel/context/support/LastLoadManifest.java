@@ -0,0 +1,215 @@
+package org.wheel.context.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 마지막으로 활성화된 success load의 기록. baseDirectory/LAST_SUCCESS_LOAD 에 저장된다.
+ *
+ * 재기동 시 원본 jar 디렉토리와 설정이 기록과 같으면 digest 계산과 staging 없이 기록된 load 디렉토리를 그대로 로드할 수 있다.
+ * 원본 jar는 size와 lastModified로만 비교하므로 jar를 읽지 않는다.
+ */
+public class LastLoadManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(LastLoadManifest.class);
+
+    public static final String FILENAME = "LAST_SUCCESS_LOAD";
+
+    private static final String KEY_LOAD_ID = "loadId";
+    private static final String KEY_SRC_DIRECTORY = "srcDirectory";
+    private static final String KEY_CONFIG_LOCATIONS = "configLocations";
+    private static final String KEY_JAR_PREFIX = "jar.";
+
+    private final String loadId;
+    private final String srcDirectory;
+    private final String configLocations;
+    private final Map<String, JarEntry> jars;   // key: jar 이름
+
+    private LastLoadManifest(String loadId, String srcDirectory, String configLocations, Map<String, JarEntry> jars) {
+        this.loadId = loadId;
+        this.srcDirectory = srcDirectory;
+        this.configLocations = configLocations;
+        this.jars = jars;
+    }
+
+    /**
+     * @param snapshot  digest가 계산된, load에 사용된 원본 디렉토리의 snapshot
+     */
+    public static LastLoadManifest of(String loadId, File srcDirectory, String[] configLocations, DirectoriesSnapshot snapshot) {
+        Map<String, JarEntry> jars = new LinkedHashMap<String, JarEntry>();
+        for(File jarFile : snapshot.getJarFileList()) {
+            jars.put(jarFile.getName(), new JarEntry(
+                    snapshot.getSize(jarFile), snapshot.getLastModified(jarFile), snapshot.getDigest(jarFile)));
+        }
+        return new LastLoadManifest(loadId, srcDirectory.getAbsolutePath(), joinLocations(configLocations), jars);
+    }
+
+    public String getLoadId() {
+        return loadId;
+    }
+
+    /**
+     * 임시파일에 쓴 후 이동하므로 기록 도중 종료되어도 이전 기록이 깨지지 않는다.
+     */
+    public void store(File baseDirectory) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_LOAD_ID, loadId);
+        properties.setProperty(KEY_SRC_DIRECTORY, srcDirectory);
+        properties.setProperty(KEY_CONFIG_LOCATIONS, configLocations);
+        for(Map.Entry<String, JarEntry> entry : jars.entrySet()) {
+            JarEntry jar = entry.getValue();
+            properties.setProperty(KEY_JAR_PREFIX + entry.getKey(), jar.size + "," + jar.lastModified + "," + jar.digest);
+        }
+
+        File tempFile = File.createTempFile(FILENAME, ".tmp", baseDirectory);
+        try {
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                properties.store(out, "last successful load");
+            } finally {
+                out.close();
+            }
+            Files.move(tempFile.toPath(), new File(baseDirectory, FILENAME).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * @return 기록이 없거나 읽을 수 없으면 null
+     */
+    public static LastLoadManifest read(File baseDirectory) {
+        File file = new File(baseDirectory, FILENAME);
+        if(!file.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+
+            Map<String, JarEntry> jars = new LinkedHashMap<String, JarEntry>();
+            for(String key : properties.stringPropertyNames()) {
+                if(!key.startsWith(KEY_JAR_PREFIX)) {
+                    continue;
+                }
+                String[] values = properties.getProperty(key).split(",");
+                jars.put(key.substring(KEY_JAR_PREFIX.length()),
+                        new JarEntry(Long.parseLong(values[0]), Long.parseLong(values[1]), values[2]));
+            }
+            String loadId = properties.getProperty(KEY_LOAD_ID);
+            if(loadId == null || jars.isEmpty()) {
+                logger.warn("{} is incomplete. Ignoring it.", file);
+                return null;
+            }
+            return new LastLoadManifest(loadId, properties.getProperty(KEY_SRC_DIRECTORY),
+                    properties.getProperty(KEY_CONFIG_LOCATIONS), jars);
+        } catch(IOException e) {
+            logger.warn("Can't read {}. Ignoring it.", file, e);
+            return null;
+        } catch(RuntimeException e) {
+            logger.warn("{} is corrupted. Ignoring it.", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * 원본 디렉토리가 기록과 같은지 확인하고, 같으면 기록된 digest를 snapshot에 적용한다.
+     *
+     * @param snapshot  digest가 계산되지 않은 현재 원본 디렉토리의 snapshot
+     * @return 원본 디렉토리, 설정 및 모든 jar의 size, lastModified가 기록과 같으면 true
+     */
+    public boolean matchesSource(File srcDirectory, String[] configLocations, DirectoriesSnapshot snapshot) {
+        if(!srcDirectory.getAbsolutePath().equals(this.srcDirectory)) {
+            logger.info("Source directory has been changed from {}.", this.srcDirectory);
+            return false;
+        }
+        if(!joinLocations(configLocations).equals(this.configLocations)) {
+            logger.info("Config locations have been changed from {}.", this.configLocations);
+            return false;
+        }
+
+        List<File> jarFiles = snapshot.getJarFileList();
+        if(jarFiles.size() != jars.size()) {
+            logger.info("Jar files have been added or removed since the last load={}.", loadId);
+            return false;
+        }
+        for(File jarFile : jarFiles) {
+            JarEntry jar = jars.get(jarFile.getName());
+            if(jar == null || !snapshot.adoptDigest(jarFile, jar.size, jar.lastModified, jar.digest)) {
+                logger.info("{} has been changed since the last load={}.", jarFile, loadId);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 기록된 load 디렉토리가 온전한지 확인한다.
+     *
+     * @param snapshot  {@link #matchesSource}를 통과한 snapshot
+     * @return snapshot의 jar 순서대로 staged jar 파일들. load 디렉토리가 온전하지 않으면 null
+     */
+    public File[] stagedJarFilesIn(File loadDirectory, DirectoriesSnapshot snapshot) {
+        Properties stagedManifest = JarStagingStore.readManifest(loadDirectory);
+        if(stagedManifest == null) {
+            logger.info("Staged directory={} of the last load is missing or has no manifest.", loadDirectory);
+            return null;
+        }
+
+        List<File> stagedJarFiles = new ArrayList<File>();
+        for(File jarFile : snapshot.getJarFileList()) {
+            JarEntry jar = jars.get(jarFile.getName());
+            File stagedJarFile = new File(loadDirectory, jarFile.getName());
+            if(!jar.digest.equals(stagedManifest.getProperty(jarFile.getName()))
+                    || stagedJarFile.length() != jar.size) {
+                logger.info("{} does not match the last load={}.", stagedJarFile, loadId);
+                return null;
+            }
+            stagedJarFiles.add(stagedJarFile);
+        }
+        return stagedJarFiles.toArray(new File[stagedJarFiles.size()]);
+    }
+
+    private static String joinLocations(String[] configLocations) {
+        return configLocations != null ? StringUtils.arrayToCommaDelimitedString(configLocations) : "";
+    }
+
+    @Override
+    public String toString() {
+        return "LastLoadManifest [loadId=" + loadId + ", srcDirectory=" + srcDirectory
+                + ", configLocations=" + configLocations + ", jars=" + jars.keySet() + "]";
+    }
+
+    private static class JarEntry {
+        private final long size;
+        private final long lastModified;
+        private final String digest;
+
+        private JarEntry(long size, long lastModified, String digest) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
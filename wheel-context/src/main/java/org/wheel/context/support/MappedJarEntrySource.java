@@ -0,0 +1,252 @@
+package org.wheel.context.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.CodeSigner;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * jar 전체를 memory-map 하고 central directory를 한 번만 읽어, entry를 map된 영역에서 바로 읽는다.
+ *
+ * entry마다 stream을 열거나 read 시스템콜을 하지 않으므로 reload 직후 class 로딩이 몰릴 때 비용이 적다.
+ * 서명된 jar, ZIP64 jar, 2GB 이상의 jar는 지원하지 않으며 {@link #open}이 null을 반환한다.
+ * map된 영역은 java에서 명시적으로 해제할 수 없으므로 close 후 이 객체가 GC될 때 해제된다.
+ */
+public class MappedJarEntrySource implements JarEntrySource {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedJarEntrySource.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final File file;
+    private final Map<String, Entry> entries;
+    private volatile MappedByteBuffer mapped;
+
+    private MappedJarEntrySource(File file, MappedByteBuffer mapped, Map<String, Entry> entries) {
+        this.file = file;
+        this.mapped = mapped;
+        this.entries = entries;
+    }
+
+    /**
+     * @return 지원하지 않는 jar이면 null
+     */
+    public static MappedJarEntrySource open(File file) throws IOException {
+        MappedByteBuffer mapped;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if(channel.size() > Integer.MAX_VALUE) {
+                logger.debug("{} is too large to map.", file);
+                return null;
+            }
+            // map된 영역은 channel을 닫아도 유효하다.
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+
+        Map<String, Entry> entries = readCentralDirectory(file, mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        return entries != null ? new MappedJarEntrySource(file, mapped, entries) : null;
+    }
+
+    private static Map<String, Entry> readCentralDirectory(File file, ByteBuffer buffer) throws IOException {
+        int end = -1;
+        int limit = Math.max(0, buffer.limit() - END_HEADER_SIZE - MAX_COMMENT_SIZE);
+        for(int i = buffer.limit() - END_HEADER_SIZE; i >= limit; i--) {
+            if(buffer.getInt(i) == END_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if(end < 0) {
+            throw new ZipException("No end of central directory in " + file);
+        }
+
+        int entryCount = buffer.getShort(end + 10) & 0xFFFF;
+        long centralOffset = buffer.getInt(end + 16) & ZIP64_MAGIC;
+        if(entryCount == 0xFFFF || centralOffset == ZIP64_MAGIC) {
+            logger.debug("{} is a ZIP64 archive.", file);
+            return null;
+        }
+
+        Map<String, Entry> entries = new HashMap<String, Entry>(entryCount * 4 / 3 + 1);
+        int position = (int)centralOffset;
+        for(int i = 0; i < entryCount; i++) {
+            if(position + CENTRAL_HEADER_SIZE > buffer.limit() || buffer.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new ZipException("Invalid central directory header at " + position + " in " + file);
+            }
+            int method = buffer.getShort(position + 10) & 0xFFFF;
+            long compressedSize = buffer.getInt(position + 20) & ZIP64_MAGIC;
+            long size = buffer.getInt(position + 24) & ZIP64_MAGIC;
+            int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+            long localOffset = buffer.getInt(position + 42) & ZIP64_MAGIC;
+            if(compressedSize == ZIP64_MAGIC || size == ZIP64_MAGIC || localOffset == ZIP64_MAGIC) {
+                logger.debug("{} has ZIP64 entries.", file);
+                return null;
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameBuffer = buffer.duplicate();
+            nameBuffer.position(position + CENTRAL_HEADER_SIZE);
+            nameBuffer.get(nameBytes);
+            String name = new String(nameBytes, UTF_8);
+            if(isSignatureFile(name)) {
+                logger.debug("{} is signed.", file);
+                return null;
+            }
+
+            if(!entries.containsKey(name)) {
+                entries.put(name, new Entry(method, (int)compressedSize, (int)size, (int)localOffset));
+            }
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private static boolean isSignatureFile(String name) {
+        if(!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0) {
+            return false;
+        }
+        String upper = name.toUpperCase(Locale.ENGLISH);
+        return upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC")
+                || upper.startsWith("META-INF/SIG-");
+    }
+
+    @Override
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    @Override
+    public byte[] read(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if(entry == null) {
+            return null;
+        }
+        MappedByteBuffer mapped = this.mapped;
+        if(mapped == null) {
+            throw new IOException(file + " is closed.");
+        }
+
+        ByteBuffer buffer = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int local = entry.localOffset;
+        if(buffer.getInt(local) != LOCAL_SIGNATURE) {
+            throw new ZipException("Invalid local header of " + name + " in " + file);
+        }
+        int dataOffset = local + LOCAL_HEADER_SIZE
+                + (buffer.getShort(local + 26) & 0xFFFF) + (buffer.getShort(local + 28) & 0xFFFF);
+        buffer.position(dataOffset);
+
+        if(entry.method == STORED) {
+            byte[] bytes = new byte[entry.size];
+            buffer.get(bytes);
+            return bytes;
+        }
+        if(entry.method != DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " of " + name + " in " + file);
+        }
+
+        // nowrap 모드의 Inflater는 입력 끝에 여분의 byte가 필요하다.
+        byte[] compressed = new byte[entry.compressedSize + 1];
+        buffer.get(compressed, 0, entry.compressedSize);
+        byte[] bytes = new byte[entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            int inflated = 0;
+            while(inflated < bytes.length) {
+                int n = inflater.inflate(bytes, inflated, bytes.length - inflated);
+                if(n == 0) {
+                    break;
+                }
+                inflated += n;
+            }
+            if(inflated != bytes.length) {
+                throw new ZipException("Corrupted entry " + name + " in " + file);
+            }
+            return bytes;
+        } catch(DataFormatException e) {
+            throw new ZipException("Corrupted entry " + name + " in " + file + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 서명된 jar는 열지 않으므로 항상 null
+     */
+    @Override
+    public CodeSigner[] getCodeSigners(String name) {
+        return null;
+    }
+
+    @Override
+    public Manifest getManifest() throws IOException {
+        byte[] bytes = read(JarFile.MANIFEST_NAME);
+        return bytes != null ? new Manifest(new ByteArrayInputStream(bytes)) : null;
+    }
+
+    @Override
+    public void pretouch() {
+        MappedByteBuffer mapped = this.mapped;
+        if(mapped != null) {
+            mapped.load();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.mapped = null;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedJarEntrySource [" + file + ", entries=" + entries.size() + "]";
+    }
+
+    private static final class Entry {
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int localOffset;
+
+        private Entry(int method, int compressedSize, int size, int localOffset) {
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localOffset = localOffset;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.wheel.context.support;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * heap 및 class metadata(Metaspace, PermGen) 영역의 사용량을 조회한다.
+ */
+public class MemoryPools {
+
+    public static final long UNDEFINED = -1;
+
+    private MemoryPools() {
+    }
+
+    public static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * 마지막 GC 직후의 heap 사용량. GC 후 사용량을 제공하지 않는 JVM이면 현재 사용량을 반환한다.
+     * 아직 GC가 일어나지 않은 pool은 0으로 계산된다.
+     */
+    public static long heapUsedAfterLastGc() {
+        long used = 0;
+        boolean supported = false;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            MemoryUsage collectionUsage = pool.getCollectionUsage();
+            if(collectionUsage != null) {
+                used += collectionUsage.getUsed();
+                supported = true;
+            } else {
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return supported ? used : heapUsed();
+    }
+
+    /**
+     * @return heap 최대 크기. 정해지지 않은 경우 {@link #UNDEFINED}
+     */
+    public static long heapMax() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+    }
+
+    /**
+     * Metaspace(또는 Perm Gen) 사용량. Compressed Class Space는 Metaspace에 포함되어 있으므로 따로 더하지 않는다.
+     */
+    public static long metaspaceUsed() {
+        for(MemoryPoolMXBean pool : classMetadataPools()) {
+            if(isMetaspaceOrPermGen(pool)) {
+                return pool.getUsage().getUsed();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return class metadata 영역의 최대 크기. 정해지지 않은 경우(-XX:MaxMetaspaceSize 미지정) {@link #UNDEFINED}
+     */
+    public static long metaspaceMax() {
+        for(MemoryPoolMXBean pool : classMetadataPools()) {
+            if(isMetaspaceOrPermGen(pool)) {
+                return pool.getUsage().getMax();
+            }
+        }
+        return UNDEFINED;
+    }
+
+    /**
+     * @return max가 정해진 경우 max - used, 아니면 Long.MAX_VALUE
+     */
+    public static long headroomOf(long used, long max) {
+        return max < 0 ? Long.MAX_VALUE : Math.max(0, max - used);
+    }
+
+    /**
+     * GC 후에도 남아있는 객체가 쌓이는 heap 영역(old generation 등).
+     * collection usage threshold를 지원하는 heap pool 중 usage threshold도 지원하는 pool이다.
+     */
+    public static List<MemoryPoolMXBean> tenuredPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP
+                    && pool.isCollectionUsageThresholdSupported()
+                    && pool.isUsageThresholdSupported()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    /**
+     * Metaspace(Java 8 이상), Compressed Class Space 또는 Perm Gen(Java 7 이하)
+     */
+    public static List<MemoryPoolMXBean> classMetadataPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.NON_HEAP
+                    && (isMetaspaceOrPermGen(pool) || pool.getName().contains("Class Space"))) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    private static boolean isMetaspaceOrPermGen(MemoryPoolMXBean pool) {
+        String name = pool.getName();
+        return name.contains("Metaspace") || name.contains("Perm Gen");
+    }
+
+    public static String describe(MemoryUsage usage) {
+        return "used=" + (usage.getUsed() >> 20) + "MB, max=" + (usage.getMax() < 0 ? "undefined" : (usage.getMax() >> 20) + "MB");
+    }
+}
@@ -0,0 +1,97 @@
+package org.wheel.context.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+
+/**
+ * old generation 및 class metadata 영역의 사용량이 최대 크기의 thresholdRatio를 넘으면 알려준다.
+ *
+ * heap은 GC 직후의 사용량(collection usage)으로 판단하므로 일시적인 할당으로는 통지되지 않는다.
+ * threshold는 JVM 전역 설정이므로, 이미 다른 곳에서 threshold를 지정한 pool은 건드리지 않는다.
+ */
+public class MemoryPressureMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemoryPressureMonitor.class);
+
+    public interface Listener {
+        /**
+         * JMX 통지 스레드에서 호출되므로 오래 걸리는 작업을 해서는 안 된다.
+         *
+         * @param poolName threshold를 넘은 memory pool
+         */
+        void memoryThresholdExceeded(String poolName);
+    }
+
+    private final double thresholdRatio;
+    private final Listener listener;
+    private NotificationListener notificationListener;
+
+    public MemoryPressureMonitor(double thresholdRatio, Listener listener) {
+        if(thresholdRatio <= 0 || thresholdRatio >= 1) {
+            throw new IllegalArgumentException("thresholdRatio must be between 0 and 1. " + thresholdRatio);
+        }
+        this.thresholdRatio = thresholdRatio;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if(notificationListener != null) {
+            return;
+        }
+
+        for(MemoryPoolMXBean pool : MemoryPools.tenuredPools()) {
+            long max = pool.getUsage().getMax();
+            if(max > 0 && pool.getCollectionUsageThreshold() == 0) {
+                pool.setCollectionUsageThreshold((long)(max * thresholdRatio));
+                logger.debug("Watching collection usage of {} with threshold={} bytes.", pool.getName(), pool.getCollectionUsageThreshold());
+            }
+        }
+        for(MemoryPoolMXBean pool : MemoryPools.classMetadataPools()) {
+            long max = pool.getUsage().getMax();
+            if(max > 0 && pool.isUsageThresholdSupported() && pool.getUsageThreshold() == 0) {
+                pool.setUsageThreshold((long)(max * thresholdRatio));
+                logger.debug("Watching usage of {} with threshold={} bytes.", pool.getName(), pool.getUsageThreshold());
+            }
+        }
+
+        this.notificationListener = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification, Object handback) {
+                String type = notification.getType();
+                if(!MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+                        && !MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)) {
+                    return;
+                }
+                MemoryNotificationInfo info = MemoryNotificationInfo.from((CompositeData)notification.getUserData());
+                logger.warn("Memory threshold of {} has been exceeded. {}", info.getPoolName(), MemoryPools.describe(info.getUsage()));
+                try {
+                    listener.memoryThresholdExceeded(info.getPoolName());
+                } catch(RuntimeException e) {
+                    logger.warn("Memory pressure listener failed.", e);
+                }
+            }
+        };
+        ((NotificationEmitter)ManagementFactory.getMemoryMXBean()).addNotificationListener(this.notificationListener, null, null);
+    }
+
+    public synchronized void stop() {
+        if(notificationListener == null) {
+            return;
+        }
+        try {
+            ((NotificationEmitter)ManagementFactory.getMemoryMXBean()).removeNotificationListener(this.notificationListener);
+        } catch(ListenerNotFoundException e) {
+            // ignore
+        }
+        this.notificationListener = null;
+    }
+}
@@ -0,0 +1,398 @@
+package org.wheel.context.support;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.BeanCurrentlyInCreationException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.SmartFactoryBean;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * non-lazy singleton을 fork-join pool에서 병렬로 생성하는 bean factory.
+ *
+ * bean definition에 드러난 의존관계(depends-on, ref, 생성자 인자, factory-bean)로 graph를 만들고,
+ * 의존하는 singleton이 모두 생성된 bean부터 병렬로 생성한다. graph에서 순환하는 bean은 마지막에 순서대로 생성한다.
+ *
+ * Spring 4.0의 singleton 생성은 registry 전체에 대한 lock을 잡은 채로 수행되므로, 병렬 생성 동안에는 bean별 lock을 사용한다.
+ * autowiring 등 definition에 드러나지 않는 의존으로 다른 스레드가 생성중인 bean이 필요하면 생성이 끝날 때까지 기다리며,
+ * 스레드 간에 서로 기다리는 순환이 생기면 단일 스레드의 순환 참조와 같이 early reference를 사용한다.
+ * 생성에 실패하면 진행중인 생성이 모두 끝난 후 첫 번째 실패를 그대로 던진다.
+ */
+public class ParallelPreInstantiationBeanFactory extends DefaultListableBeanFactory {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int parallelism;
+
+    private volatile boolean parallelPhase = false;
+
+    // 병렬 생성 동안 생성중인 singleton. key: bean 이름
+    private final transient ConcurrentMap<String, Creation> creations = new ConcurrentHashMap<String, Creation>();
+
+    // 다른 스레드의 생성을 기다리는 스레드와 그 대상. 교착 검사를 위해 waitGraphLock 안에서만 변경한다.
+    private final transient Map<Thread, Creation> waiting = new HashMap<Thread, Creation>();
+    private final transient Object waitGraphLock = new Object();
+
+    public ParallelPreInstantiationBeanFactory(BeanFactory parentBeanFactory, int parallelism) {
+        super(parentBeanFactory);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    @Override
+    public void preInstantiateSingletons() throws BeansException {
+        if(logger.isDebugEnabled()) {
+            logger.debug("Pre-instantiating singletons in parallel(" + parallelism + ") in " + this);
+        }
+
+        Map<String, Set<String>> dependencies = buildDependencyGraph();
+        if(parallelism == 1 || dependencies.size() < 2) {
+            instantiateInOrder(dependencies.keySet());
+            return;
+        }
+
+        Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+        Map<String, Integer> pendingCounts = new HashMap<String, Integer>();
+        for(Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+            pendingCounts.put(entry.getKey(), entry.getValue().size());
+            for(String dependency : entry.getValue()) {
+                Set<String> names = dependents.get(dependency);
+                if(names == null) {
+                    names = new LinkedHashSet<String>();
+                    dependents.put(dependency, names);
+                }
+                names.add(entry.getKey());
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism,
+                new InheritingWorkerThreadFactory(Thread.currentThread()), null, false);
+        ExecutorCompletionService<String> completionService = new ExecutorCompletionService<String>(pool);
+        Set<String> remaining = new LinkedHashSet<String>(dependencies.keySet());
+        final Map<String, Throwable> failures = new ConcurrentHashMap<String, Throwable>();
+        Throwable failure = null;
+
+        this.parallelPhase = true;
+        try {
+            int running = 0;
+            for(Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+                if(entry.getValue().isEmpty()) {
+                    completionService.submit(new InstantiationTask(entry.getKey(), failures));
+                    running++;
+                }
+            }
+
+            while(running > 0) {
+                String beanName = takeInterruptibly(completionService);
+                running--;
+                Throwable taskFailure = failures.get(beanName);
+                if(taskFailure != null) {
+                    if(failure == null) {
+                        failure = taskFailure;
+                    }
+                    continue;
+                }
+                remaining.remove(beanName);
+
+                if(failure != null || !dependents.containsKey(beanName)) {
+                    continue;
+                }
+                for(String dependent : dependents.get(beanName)) {
+                    int pendingCount = pendingCounts.get(dependent) - 1;
+                    pendingCounts.put(dependent, pendingCount);
+                    if(pendingCount == 0) {
+                        completionService.submit(new InstantiationTask(dependent, failures));
+                        running++;
+                    }
+                }
+            }
+        } finally {
+            this.parallelPhase = false;
+            pool.shutdown();
+        }
+
+        if(failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        } else if(failure instanceof Error) {
+            throw (Error)failure;
+        } else if(failure != null) {
+            throw new BeanCreationException("Failed to pre-instantiate singletons.", failure);
+        }
+
+        // definition 상에서 순환하는 bean
+        instantiateInOrder(remaining);
+    }
+
+    private void instantiateInOrder(Collection<String> beanNames) {
+        for(String beanName : beanNames) {
+            instantiate(beanName);
+        }
+    }
+
+    /**
+     * DefaultListableBeanFactory.preInstantiateSingletons()와 같은 방식으로 bean 하나를 생성한다.
+     */
+    private void instantiate(String beanName) {
+        if(isFactoryBean(beanName)) {
+            FactoryBean<?> factory = (FactoryBean<?>)getBean(FACTORY_BEAN_PREFIX + beanName);
+            if(factory instanceof SmartFactoryBean && ((SmartFactoryBean<?>)factory).isEagerInit()) {
+                getBean(beanName);
+            }
+        } else {
+            getBean(beanName);
+        }
+    }
+
+    /**
+     * @return 생성할 bean 이름 -&gt; 그 bean이 definition 상에서 의존하는, 생성할 bean 이름들. 등록 순서를 유지한다.
+     */
+    private Map<String, Set<String>> buildDependencyGraph() {
+        Map<String, Set<String>> dependencies = new LinkedHashMap<String, Set<String>>();
+        for(String beanName : getBeanDefinitionNames()) {
+            RootBeanDefinition bd = getMergedLocalBeanDefinition(beanName);
+            if(!bd.isAbstract() && bd.isSingleton() && !bd.isLazyInit()) {
+                dependencies.put(beanName, new LinkedHashSet<String>());
+            }
+        }
+
+        for(Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+            Set<String> referenced = new LinkedHashSet<String>();
+            collectReferences(getMergedLocalBeanDefinition(entry.getKey()), referenced);
+            for(String name : referenced) {
+                String canonicalName = canonicalName(name);
+                if(dependencies.containsKey(canonicalName) && !canonicalName.equals(entry.getKey())) {
+                    entry.getValue().add(canonicalName);
+                }
+            }
+        }
+        return dependencies;
+    }
+
+    private void collectReferences(BeanDefinition bd, Set<String> referenced) {
+        if(bd.getDependsOn() != null) {
+            for(String dependsOn : bd.getDependsOn()) {
+                referenced.add(dependsOn);
+            }
+        }
+        if(bd.getFactoryBeanName() != null) {
+            referenced.add(bd.getFactoryBeanName());
+        }
+        for(PropertyValue pv : bd.getPropertyValues().getPropertyValues()) {
+            collectReferences(pv.getValue(), referenced);
+        }
+        ConstructorArgumentValues args = bd.getConstructorArgumentValues();
+        for(ConstructorArgumentValues.ValueHolder holder : args.getIndexedArgumentValues().values()) {
+            collectReferences(holder.getValue(), referenced);
+        }
+        for(ConstructorArgumentValues.ValueHolder holder : args.getGenericArgumentValues()) {
+            collectReferences(holder.getValue(), referenced);
+        }
+    }
+
+    private void collectReferences(Object value, Set<String> referenced) {
+        if(value instanceof RuntimeBeanReference) {
+            referenced.add(((RuntimeBeanReference)value).getBeanName());
+        } else if(value instanceof BeanDefinitionHolder) {
+            collectReferences(((BeanDefinitionHolder)value).getBeanDefinition(), referenced);
+        } else if(value instanceof BeanDefinition) {
+            collectReferences((BeanDefinition)value, referenced);
+        } else if(value instanceof Collection) {
+            for(Object element : (Collection<?>)value) {
+                collectReferences(element, referenced);
+            }
+        } else if(value instanceof Map) {
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+                collectReferences(entry.getKey(), referenced);
+                collectReferences(entry.getValue(), referenced);
+            }
+        }
+    }
+
+    /**
+     * 병렬 생성 동안에는 registry 전체 lock 대신 bean별로 한 스레드만 생성하도록 한다.
+     */
+    @Override
+    public Object getSingleton(String beanName, ObjectFactory<?> singletonFactory) {
+        if(!parallelPhase) {
+            return super.getSingleton(beanName, singletonFactory);
+        }
+
+        while(true) {
+            Creation creation = new Creation(Thread.currentThread());
+            Creation existing = creations.putIfAbsent(beanName, creation);
+            if(existing == null) {
+                try {
+                    return createSingleton(beanName, singletonFactory);
+                } finally {
+                    creations.remove(beanName);
+                    creation.done.countDown();
+                }
+            }
+
+            if(existing.thread == Thread.currentThread()) {
+                // 같은 스레드 안에서의 순환 참조: 기존과 같이 BeanCurrentlyInCreationException이 발생한다.
+                return super.getSingleton(beanName, singletonFactory);
+            }
+            if(!awaitCreation(existing)) {
+                throw new BeanCurrentlyInCreationException(beanName,
+                        "Requested bean is being created in another thread which is waiting for this thread: Is there an unresolvable circular reference?");
+            }
+            // 생성에 실패했으면 다시 생성을 시도한다(기존과 같이 같은 예외가 발생한다).
+        }
+    }
+
+    private Object createSingleton(String beanName, ObjectFactory<?> singletonFactory) {
+        Object singletonObject = super.getSingleton(beanName, false);
+        if(singletonObject != null) {
+            return singletonObject;
+        }
+
+        if(logger.isDebugEnabled()) {
+            logger.debug("Creating shared instance of singleton bean '" + beanName + "' in " + Thread.currentThread().getName());
+        }
+        beforeSingletonCreation(beanName);
+        try {
+            singletonObject = singletonFactory.getObject();
+            addSingleton(beanName, singletonObject);
+            return singletonObject;
+        } finally {
+            afterSingletonCreation(beanName);
+        }
+    }
+
+    /**
+     * 다른 스레드가 생성중인 bean을 조회하면 생성이 끝날 때까지 기다린다.
+     * 기다리면 교착이 되는 경우에는 기존과 같이 early reference(또는 null)를 반환한다.
+     */
+    @Override
+    protected Object getSingleton(String beanName, boolean allowEarlyReference) {
+        if(parallelPhase) {
+            Creation creation = creations.get(beanName);
+            if(creation != null && creation.thread != Thread.currentThread()) {
+                awaitCreation(creation);
+            }
+        }
+        return super.getSingleton(beanName, allowEarlyReference);
+    }
+
+    /**
+     * @return 생성이 끝났으면 true, 기다리면 교착이 되어 기다리지 않았으면 false
+     */
+    private boolean awaitCreation(Creation creation) {
+        Thread current = Thread.currentThread();
+        synchronized (waitGraphLock) {
+            Creation next = creation;
+            while(next != null) {
+                if(next.thread == current) {
+                    return false;
+                }
+                next = waiting.get(next.thread);
+            }
+            waiting.put(current, creation);
+        }
+
+        try {
+            creation.done.await();
+            return true;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BeanCreationException("Interrupted while waiting for a singleton being created in " + creation.thread.getName());
+        } finally {
+            synchronized (waitGraphLock) {
+                waiting.remove(current);
+            }
+        }
+    }
+
+    private static String takeInterruptibly(ExecutorCompletionService<String> completionService) {
+        try {
+            return completionService.take().get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BeanCreationException("Interrupted while pre-instantiating singletons.");
+        } catch(ExecutionException e) {
+            // InstantiationTask는 예외를 던지지 않는다.
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 실패는 예외를 그대로 전달하기 위해 failures에 담는다(ForkJoinTask는 다른 스레드의 예외를 다시 생성하여 던진다).
+     */
+    private class InstantiationTask implements Callable<String> {
+
+        private final String beanName;
+        private final Map<String, Throwable> failures;
+
+        private InstantiationTask(String beanName, Map<String, Throwable> failures) {
+            this.beanName = beanName;
+            this.failures = failures;
+        }
+
+        @Override
+        public String call() {
+            try {
+                instantiate(beanName);
+            } catch(Throwable t) {
+                failures.put(beanName, t);
+            }
+            return beanName;
+        }
+    }
+
+    private static class Creation {
+        private final Thread thread;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private Creation(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * 기존처럼 refresh를 호출한 스레드의 context classloader로 bean이 생성되도록 한다.
+     * priority도 refresh를 호출한 스레드를 따른다(낮은 priority로 실행되는 reload 등).
+     */
+    private static class InheritingWorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+        private final ClassLoader contextClassLoader;
+        private final int priority;
+
+        private InheritingWorkerThreadFactory(Thread refreshingThread) {
+            this.contextClassLoader = refreshingThread.getContextClassLoader();
+            this.priority = refreshingThread.getPriority();
+        }
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("WheelPreInstantiation-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(contextClassLoader);
+            thread.setPriority(priority);
+            return thread;
+        }
+    }
+}
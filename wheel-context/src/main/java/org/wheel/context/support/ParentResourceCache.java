@@ -0,0 +1,66 @@
+package org.wheel.context.support;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * image classloader의 부모(webapp classloader 등)에서 찾은 "classpath*:" pattern의 resource 목록. reload 간에 공유된다.
+ *
+ * 부모 classloader의 jar와 디렉토리는 JVM이 동작하는 동안 바뀌지 않으므로 pattern마다 한 번만 찾는다.
+ * classloader는 약하게 참조되므로 redeploy된 webapp의 classloader를 붙잡지 않는다.
+ */
+public class ParentResourceCache {
+
+    private final Map<ClassLoader, ConcurrentMap<String, Resource[]>> resourcesByClassLoader =
+            new WeakHashMap<ClassLoader, ConcurrentMap<String, Resource[]>>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param classLoader      부모 classloader
+     * @param locationPattern  "classpath*:"로 시작하는 pattern
+     */
+    public Resource[] getResources(ClassLoader classLoader, String locationPattern) throws IOException {
+        ConcurrentMap<String, Resource[]> resources;
+        synchronized(resourcesByClassLoader) {
+            resources = resourcesByClassLoader.get(classLoader);
+            if(resources == null) {
+                resources = new ConcurrentHashMap<String, Resource[]>();
+                resourcesByClassLoader.put(classLoader, resources);
+            }
+        }
+
+        Resource[] result = resources.get(locationPattern);
+        if(result != null) {
+            hitCount.incrementAndGet();
+            return result.clone();
+        }
+        missCount.incrementAndGet();
+        // 동시에 같은 pattern을 찾아도 결과가 같으므로 먼저 저장된 것을 사용한다.
+        result = new PathMatchingResourcePatternResolver(classLoader).getResources(locationPattern);
+        Resource[] previous = resources.putIfAbsent(locationPattern, result);
+        return (previous != null ? previous : result).clone();
+    }
+
+    public void clear() {
+        synchronized(resourcesByClassLoader) {
+            resourcesByClassLoader.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+}
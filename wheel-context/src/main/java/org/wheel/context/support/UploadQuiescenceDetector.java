@@ -0,0 +1,128 @@
+package org.wheel.context.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.ZipFile;
+
+/**
+ * jar 디렉토리로의 업로드(FTP 등)가 끝났는지 판단한다.
+ *
+ * 디렉토리의 jar 목록과 jar별 size, lastModified가 quietPeriodMilis 동안 변하지 않고,
+ * 모든 jar의 zip central directory를 읽을 수 있으면 업로드가 끝난 것으로 본다.
+ * 반쯤 업로드된 jar는 central directory(파일의 끝)가 없으므로 크기가 잠시 멈추더라도 걸러진다.
+ */
+public class UploadQuiescenceDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadQuiescenceDetector.class);
+
+    private static final long MIN_CHECK_INTERVAL_MILIS = 50;
+
+    private long quietPeriodMilis = 2 * 1000;
+    private long maxWaitMilis = 10 * 60 * 1000;
+
+    public long getQuietPeriodMilis() {
+        return quietPeriodMilis;
+    }
+
+    public void setQuietPeriodMilis(long quietPeriodMilis) {
+        this.quietPeriodMilis = quietPeriodMilis;
+    }
+
+    public long getMaxWaitMilis() {
+        return maxWaitMilis;
+    }
+
+    public void setMaxWaitMilis(long maxWaitMilis) {
+        this.maxWaitMilis = maxWaitMilis;
+    }
+
+    /**
+     * 디렉토리가 안정화될 때까지 최대 maxWaitMilis 동안 대기한 후 그 시점의 snapshot을 반환한다.
+     *
+     * @param directory
+     * @param previous          digest를 재사용할 이전 snapshot. null 가능.
+     * @param requireQuietPeriod false이면 모든 jar가 유효한 경우 quiet period를 기다리지 않고 바로 반환한다(기동 시 최초 로드).
+     * @return 안정화된 snapshot
+     * @throws IllegalStateException maxWaitMilis 이내에 안정화되지 않은 경우
+     */
+    public DirectoriesSnapshot awaitQuiescence(File directory, DirectoriesSnapshot previous, boolean requireQuietPeriod)
+            throws InterruptedException {
+        return awaitQuiescence(directory, previous, requireQuietPeriod, this.maxWaitMilis);
+    }
+
+    /**
+     * @param maxWaitMilis  이 호출에만 적용되는 최대 대기시간. 0이면 불완전한 jar가 있을 때 기다리지 않고 예외를 던진다.
+     * @see #awaitQuiescence(File, DirectoriesSnapshot, boolean)
+     */
+    public DirectoriesSnapshot awaitQuiescence(File directory, DirectoriesSnapshot previous, boolean requireQuietPeriod, long maxWaitMilis)
+            throws InterruptedException {
+
+        long startTime = System.currentTimeMillis();
+        long checkInterval = Math.max(MIN_CHECK_INTERVAL_MILIS, quietPeriodMilis / 4);
+
+        DirectoriesSnapshot stableSnapshot = new DirectoriesSnapshot(previous, directory);
+        long stableSince = requireQuietPeriod ? startTime : startTime - quietPeriodMilis;
+        File lastInvalidJar = null;
+
+        while(true) {
+            long now = System.currentTimeMillis();
+            if(now - stableSince >= quietPeriodMilis) {
+                lastInvalidJar = findInvalidJar(stableSnapshot);
+                if(lastInvalidJar == null) {
+                    if(logger.isDebugEnabled()) {
+                        logger.debug("{} has been quiescent for {} ms. waited {} ms.", directory, quietPeriodMilis, now - startTime);
+                    }
+                    return stableSnapshot;
+                }
+                logger.debug("{} is not a complete jar yet. Waiting for the upload to finish.", lastInvalidJar);
+                stableSince = now;
+            }
+
+            if(now - startTime >= maxWaitMilis) {
+                throw new IllegalStateException("Directory=" + directory + " has not been quiescent for " + maxWaitMilis + " ms."
+                        + (lastInvalidJar != null ? " Invalid jar=" + lastInvalidJar : ""));
+            }
+
+            Thread.sleep(checkInterval);
+
+            DirectoriesSnapshot newSnapshot = new DirectoriesSnapshot(stableSnapshot, directory);
+            if(!stableSnapshot.hasSameFileStates(newSnapshot)) {
+                stableSnapshot = newSnapshot;
+                stableSince = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * central directory를 읽을 수 없는 jar를 반환한다. 모두 유효하면 null.
+     */
+    private File findInvalidJar(DirectoriesSnapshot snapshot) {
+        for(File jarFile : snapshot.getJarFileList()) {
+            if(!isCompleteZip(jarFile)) {
+                return jarFile;
+            }
+        }
+        return null;
+    }
+
+    public static boolean isCompleteZip(File file) {
+        if(file.length() == 0) {
+            return false;
+        }
+
+        ZipFile zipFile = null;
+        try {
+            zipFile = new ZipFile(file);
+            return true;
+        } catch(IOException e) {
+            return false;
+        } finally {
+            if(zipFile != null) {
+                try { zipFile.close(); } catch(IOException e) { /* ignore */ }
+            }
+        }
+    }
+}
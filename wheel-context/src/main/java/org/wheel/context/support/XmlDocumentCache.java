@@ -0,0 +1,87 @@
+package org.wheel.context.support;
+
+import org.w3c.dom.Document;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 파싱 및 schema 검증이 끝난 XML 설정 document의 cache. reload 간에 공유된다.
+ *
+ * key는 설정 파일 내용과 schema, namespace handler 구성의 digest이다({@link CachingXmlBeanDefinitionReader}).
+ * DOM은 읽기만 해도 내부 상태가 바뀔 수 있으므로 cache에는 복사본을 보관하고 조회할 때도 복사본을 반환한다.
+ * 최근에 사용된 maxEntries 개만 유지한다.
+ */
+public class XmlDocumentCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private final Map<String, Document> documents;
+
+    private long hitCount;
+    private long missCount;
+
+    public XmlDocumentCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public XmlDocumentCache(final int maxEntries) {
+        this.documents = new LinkedHashMap<String, Document>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Document> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return cache된 document의 복사본. 없으면 null
+     */
+    public Document get(String key) {
+        synchronized(documents) {
+            Document document = documents.get(key);
+            if(document == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            return (Document)document.cloneNode(true);
+        }
+    }
+
+    /**
+     * document의 복사본을 저장한다. 호출한 쪽은 document를 계속 사용할 수 있다.
+     */
+    public void put(String key, Document document) {
+        Document copy = (Document)document.cloneNode(true);
+        synchronized(documents) {
+            documents.put(key, copy);
+        }
+    }
+
+    public void clear() {
+        synchronized(documents) {
+            documents.clear();
+        }
+    }
+
+    public int size() {
+        synchronized(documents) {
+            return documents.size();
+        }
+    }
+
+    public long getHitCount() {
+        synchronized(documents) {
+            return hitCount;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized(documents) {
+            return missCount;
+        }
+    }
+}
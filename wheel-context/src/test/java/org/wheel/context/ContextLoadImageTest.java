@@ -0,0 +1,109 @@
+package org.wheel.context;
+
+import org.junit.Test;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ContextLoadImageTest {
+
+    static ContextLoadImage newSuccessImage(String id) {
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.refresh();
+        return ContextLoadImage.withSuccess(id, new Date(), new Date(), context, new HashMap<String, Object>());
+    }
+
+    @Test
+    public void onlyFirstRetireWins() {
+        ContextLoadImage image = newSuccessImage("image");
+
+        assertTrue(image.retire());
+        assertFalse(image.retire());
+        assertTrue(image.isRetired());
+    }
+
+    @Test
+    public void leaseIsNotGrantedAfterRetire() throws InterruptedException {
+        ContextLoadImage image = newSuccessImage("image");
+        assertTrue(image.tryAcquireLease());
+
+        image.retire();
+
+        assertFalse(image.tryAcquireLease());
+        assertEquals(1, image.getLeaseCount());
+        assertFalse(image.awaitDrained(10));
+        image.releaseLease();
+        assertTrue(image.awaitDrained(10));
+        assertEquals(0, image.getLeaseCount());
+        assertFalse(image.tryAcquireLease());
+    }
+
+    @Test(timeout = 10000)
+    public void awaitDrainedWaitsForLeaseReleasedInAnotherThread() throws InterruptedException {
+        final ContextLoadImage image = newSuccessImage("image");
+        assertTrue(image.tryAcquireLease());
+        image.retire();
+
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                image.releaseLease();
+            }
+        });
+        releaser.start();
+
+        assertTrue(image.awaitDrained(5000));
+        releaser.join();
+    }
+
+    @Test(timeout = 30000)
+    public void noLeaseIsInFlightAfterDrained() throws InterruptedException {
+        final ContextLoadImage image = newSuccessImage("image");
+        final AtomicBoolean drained = new AtomicBoolean(false);
+        final AtomicInteger leasedAfterDrained = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(4);
+        Thread[] requesters = new Thread[4];
+        for(int i = 0; i < requesters.length; i++) {
+            requesters[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    while(!drained.get()) {
+                        if(image.tryAcquireLease()) {
+                            if(drained.get()) {
+                                leasedAfterDrained.incrementAndGet();
+                            }
+                            image.releaseLease();
+                        }
+                    }
+                }
+            });
+            requesters[i].start();
+        }
+
+        started.await();
+        TimeUnit.MILLISECONDS.sleep(20);
+        image.retire();
+        assertTrue(image.awaitDrained(10000));
+        drained.set(true);
+        for(Thread requester : requesters) {
+            requester.join();
+        }
+
+        assertEquals(0, leasedAfterDrained.get());
+        assertEquals(0, image.getLeaseCount());
+        assertFalse(image.tryAcquireLease());
+    }
+}
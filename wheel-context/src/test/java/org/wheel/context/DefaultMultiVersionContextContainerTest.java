@@ -0,0 +1,204 @@
+package org.wheel.context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DefaultMultiVersionContextContainerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<DefaultMultiVersionContextContainer> containers = new ArrayList<DefaultMultiVersionContextContainer>();
+
+    private File srcJarDirectory;
+    private File destJarBaseDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        srcJarDirectory = temporaryFolder.newFolder("src");
+        destJarBaseDirectory = temporaryFolder.newFolder("dest");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for(DefaultMultiVersionContextContainer container : containers) {
+            container.destroy();
+        }
+    }
+
+    private DefaultMultiVersionContextContainer newContainer(boolean autoSwitchAfterReload) throws Exception {
+        DefaultMultiVersionContextContainer container = new DefaultMultiVersionContextContainer();
+        container.setLoader(new NoopContextLoader());
+        container.setSrcJarDirectory(srcJarDirectory);
+        container.setDestJarBaseDirectory(destJarBaseDirectory);
+        container.setEnableAutoReload(false);
+        container.setJmxEnabled(false);
+        container.setMemoryPressureThresholdRatio(0);
+        container.setWarmUpMaxIterations(0);
+        container.setMaxSuccessImagesInMemory(1);
+        container.setAutoSwitchAfterReload(autoSwitchAfterReload);
+        container.afterPropertiesSet();
+        containers.add(container);
+        return container;
+    }
+
+    /**
+     * retire 된 image의 context는 발급된 lease가 모두 반환된 후에 close 된다.
+     */
+    @Test(timeout = 30000)
+    public void closesRetiredImageOnlyAfterLeaseIsReleased() throws Exception {
+        DefaultMultiVersionContextContainer container = newContainer(true);
+        final List<ContextLoadImage> closedImages = new CopyOnWriteArrayList<ContextLoadImage>();
+        container.addListener(new ContextCloseListener() {
+            @Override
+            public void beforeActivation(ContextLoadImage image) {
+            }
+
+            @Override
+            public void contextClosed(ContextLoadImage image) {
+                closedImages.add(image);
+            }
+        });
+        ContextLoadImage first = ContextLoadImageTest.newSuccessImage("first");
+        container.loadFinished(first);
+        assertTrue(container.tryAcquire(first));
+
+        container.loadFinished(ContextLoadImageTest.newSuccessImage("second"));
+
+        assertTrue(first.isRetired());
+        TimeUnit.MILLISECONDS.sleep(300);
+        assertFalse(first.isContextClosed());
+        assertTrue(closedImages.isEmpty());
+        assertEquals(1, first.getLeaseCount());
+
+        container.release(first);
+        while(!closedImages.contains(first)) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertTrue(first.isContextClosed());
+    }
+
+    @Test
+    public void retiresOldImagesExceedingMax() throws Exception {
+        DefaultMultiVersionContextContainer container = newContainer(true);
+        ContextLoadImage first = ContextLoadImageTest.newSuccessImage("first");
+        ContextLoadImage second = ContextLoadImageTest.newSuccessImage("second");
+
+        container.loadFinished(first);
+        container.loadFinished(second);
+
+        assertSame(second, container.current());
+        assertTrue(first.isRetired());
+        assertFalse(second.isRetired());
+        try {
+            container.forceSwitchTo(0);
+            fail();
+        } catch(IllegalArgumentException expected) {
+        }
+        assertSame(second, container.current());
+    }
+
+    @Test
+    public void doesNotRetireImageServingRequests() throws Exception {
+        DefaultMultiVersionContextContainer container = newContainer(false);
+        ContextLoadImage first = ContextLoadImageTest.newSuccessImage("first");
+        ContextLoadImage second = ContextLoadImageTest.newSuccessImage("second");
+
+        container.loadFinished(first);
+        container.loadFinished(second);
+
+        assertSame(first, container.current());
+        assertFalse(first.isRetired());
+        try {
+            container.removeFromHistory(0);
+            fail();
+        } catch(IllegalStateException expected) {
+        }
+    }
+
+    /**
+     * 오래된 image를 retire 하는 load와 그 image로의 switch가 경합해도 current는 retire 되지 않는다.
+     */
+    @Test(timeout = 60000)
+    public void currentIsNeverRetiredWhileSwitchRacesWithRetire() throws Exception {
+        for(int i = 0; i < 50; i++) {
+            final DefaultMultiVersionContextContainer container = newContainer(false);
+            container.loadFinished(ContextLoadImageTest.newSuccessImage("old-" + i));
+            container.loadFinished(ContextLoadImageTest.newSuccessImage("current-" + i));
+            container.forceSwitchTo(1);
+            final ContextLoadImage latest = ContextLoadImageTest.newSuccessImage("latest-" + i);
+
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread loader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    container.loadFinished(latest);
+                }
+            });
+            Thread switcher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    try {
+                        container.forceSwitchTo(0);
+                    } catch(IllegalArgumentException e) {
+                        // retire가 먼저 된 경우
+                    }
+                }
+            });
+            loader.start();
+            switcher.start();
+            start.countDown();
+            loader.join();
+            switcher.join();
+
+            ContextLoadImage current = container.current();
+            assertFalse(current.getId(), current.isRetired());
+            assertTrue(current.getId(), container.tryAcquire(current));
+            container.release(current);
+            assertFalse(current.isContextClosed());
+
+            container.destroy();
+            containers.remove(container);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class NoopContextLoader implements ContextLoader {
+
+        @Override
+        public ContextLoadImage load(String loadId, File[] jarFiles, Map<String, Object> loadAttributes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void registerListener(ContextLoaderListener listener) {
+        }
+
+        @Override
+        public String[] getConfigLocations() {
+            return new String[0];
+        }
+    }
+}
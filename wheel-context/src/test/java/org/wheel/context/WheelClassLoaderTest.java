@@ -0,0 +1,86 @@
+package org.wheel.context;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class WheelClassLoaderTest {
+
+    private static final String INJECTED_CLASS_NAME = Injected.class.getName();
+
+    @Test
+    public void remembersMissingClass() throws Exception {
+        InjectingClassLoader classLoader = new InjectingClassLoader();
+        try {
+            assertMissing(classLoader, INJECTED_CLASS_NAME);
+            assertEquals(0, classLoader.getNegativeLookupHitCount());
+            assertMissing(classLoader, INJECTED_CLASS_NAME);
+            assertEquals(1, classLoader.getNegativeLookupHitCount());
+        } finally {
+            classLoader.close();
+        }
+    }
+
+    /**
+     * 찾지 못했던 이름이라도 이후 이 classloader에 직접 정의되면 찾을 수 있다.
+     */
+    @Test
+    public void findsClassDefinedAfterMiss() throws Exception {
+        InjectingClassLoader classLoader = new InjectingClassLoader();
+        try {
+            assertMissing(classLoader, INJECTED_CLASS_NAME);
+
+            Class<?> injected = classLoader.inject(INJECTED_CLASS_NAME, bytesOf(Injected.class));
+
+            assertSame(injected, classLoader.loadClass(INJECTED_CLASS_NAME));
+            assertSame(classLoader, injected.getClassLoader());
+        } finally {
+            classLoader.close();
+        }
+    }
+
+    private static void assertMissing(ClassLoader classLoader, String name) {
+        try {
+            classLoader.loadClass(name);
+            fail(name + " should not be found.");
+        } catch(ClassNotFoundException expected) {
+        }
+    }
+
+    private static byte[] bytesOf(Class<?> type) throws IOException {
+        InputStream in = type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * jar가 없고 부모가 bootstrap classloader 이므로 test class를 찾지 못한다.
+     */
+    private static class InjectingClassLoader extends WheelClassLoader {
+
+        private InjectingClassLoader() {
+            super(new File[0], null);
+        }
+
+        private Class<?> inject(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    public static class Injected {
+    }
+}
@@ -0,0 +1,59 @@
+package org.wheel.context.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class DirectoriesSnapshotTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void detectsSameSizeRewriteWithinMtimeGranularity() throws IOException {
+        File dir = temporaryFolder.newFolder("lib");
+        File jar = new File(dir, "a.jar");
+        write(jar, "first");
+        long lastModified = jar.lastModified();
+
+        DirectoriesSnapshot before = new DirectoriesSnapshot(dir);
+        before.computeDigests();
+        write(jar, "other");
+        assertTrue(jar.setLastModified(lastModified));
+        DirectoriesSnapshot after = new DirectoriesSnapshot(before, dir);
+
+        DirectoriesSnapshot.ChangeSet changes = before.diff(after);
+        assertEquals(1, changes.getModified().size());
+        assertEquals(jar, changes.getModified().get(0));
+    }
+
+    @Test
+    public void ignoresUntouchedJar() throws IOException {
+        File dir = temporaryFolder.newFolder("lib");
+        File jar = new File(dir, "a.jar");
+        write(jar, "first");
+        assertTrue(jar.setLastModified(System.currentTimeMillis() - 10 * DirectoriesSnapshot.MTIME_GRANULARITY_MILIS));
+
+        DirectoriesSnapshot before = new DirectoriesSnapshot(dir);
+        before.computeDigests();
+        DirectoriesSnapshot after = new DirectoriesSnapshot(before, dir);
+
+        assertTrue(before.diff(after).isEmpty());
+        assertEquals(before.getDigest(jar), after.getDigest(jar));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.wheel.context.support;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.*;
+
+public class MappedJarEntrySourceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readsStoredAndDeflatedEntriesAsJarFileDoes() throws IOException {
+        File jar = temporaryFolder.newFile("mixed.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest());
+        try {
+            putStored(out, "stored/Empty.class", new byte[0]);
+            putStored(out, "stored/Random.class", randomBytes(4096, 1));
+            putDeflated(out, "deflated/", null);
+            putDeflated(out, "deflated/Empty.class", new byte[0]);
+            putDeflated(out, "deflated/Random.class", randomBytes(100000, 2));
+            putDeflated(out, "deflated/Repeated.txt", repeatedBytes(300000));
+            putStored(out, "deflated/AfterDeflated.class", repeatedBytes(1000));
+            putDeflated(out, "한글/이름.properties", "key=값".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        MappedJarEntrySource source = MappedJarEntrySource.open(jar);
+        assertNotNull(source);
+        JarFile jarFile = new JarFile(jar);
+        try {
+            int compared = 0;
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while(entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                assertTrue(entry.getName(), source.contains(entry.getName()));
+                assertArrayEquals(entry.getName(), readFully(jarFile, entry), source.read(entry.getName()));
+                compared++;
+            }
+            assertEquals(9, compared);
+            assertEquals("wheel", source.getManifest().getMainAttributes().getValue("Created-By"));
+            assertFalse(source.contains("missing.class"));
+            assertNull(source.read("missing.class"));
+        } finally {
+            jarFile.close();
+            source.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void readAfterCloseFails() throws IOException {
+        File jar = temporaryFolder.newFile("closed.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            putDeflated(out, "A.class", randomBytes(100, 3));
+        } finally {
+            out.close();
+        }
+
+        MappedJarEntrySource source = MappedJarEntrySource.open(jar);
+        source.close();
+        source.read("A.class");
+    }
+
+    @Test
+    public void doesNotOpenSignedJar() throws IOException {
+        File jar = temporaryFolder.newFile("signed.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest());
+        try {
+            putDeflated(out, "META-INF/WHEEL.SF", "Signature-Version: 1.0\r\n".getBytes("UTF-8"));
+            putDeflated(out, "A.class", randomBytes(100, 4));
+        } finally {
+            out.close();
+        }
+
+        assertNull(MappedJarEntrySource.open(jar));
+    }
+
+    private static Manifest manifest() {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Created-By", "wheel");
+        return manifest;
+    }
+
+    private static void putStored(JarOutputStream out, String name, byte[] bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        JarEntry entry = new JarEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    private static void putDeflated(JarOutputStream out, String name, byte[] bytes) throws IOException {
+        JarEntry entry = new JarEntry(name);
+        entry.setMethod(ZipEntry.DEFLATED);
+        out.putNextEntry(entry);
+        if(bytes != null) {
+            out.write(bytes);
+        }
+        out.closeEntry();
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] repeatedBytes(int size) {
+        byte[] bytes = new byte[size];
+        for(int i = 0; i < size; i++) {
+            bytes[i] = (byte)('a' + i % 7);
+        }
+        return bytes;
+    }
+
+    private static byte[] readFully(JarFile jarFile, JarEntry entry) throws IOException {
+        InputStream in = jarFile.getInputStream(entry);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.wheel.context.support;
+
+import org.junit.Test;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ParallelPreInstantiationBeanFactoryTest {
+
+    @Test(timeout = 30000)
+    public void resolvesCircularReferencesAcrossThreads() {
+        for(int i = 0; i < 20; i++) {
+            ParallelPreInstantiationBeanFactory factory = new ParallelPreInstantiationBeanFactory(null, 4);
+            factory.registerBeanDefinition("left", autowiredByType(Left.class));
+            factory.registerBeanDefinition("right", autowiredByType(Right.class));
+            factory.registerBeanDefinition("other", new RootBeanDefinition(Other.class));
+
+            factory.preInstantiateSingletons();
+
+            Left left = factory.getBean(Left.class);
+            Right right = factory.getBean(Right.class);
+            assertSame(right, left.getRight());
+            assertSame(left, right.getLeft());
+            factory.destroySingletons();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void createsIndependentBeansInParallel() {
+        Barriered.barrier = new CyclicBarrier(2);
+        Barriered.threads.clear();
+        ParallelPreInstantiationBeanFactory factory = new ParallelPreInstantiationBeanFactory(null, 2);
+        factory.registerBeanDefinition("first", new RootBeanDefinition(Barriered.class));
+        factory.registerBeanDefinition("second", new RootBeanDefinition(Barriered.class));
+
+        factory.preInstantiateSingletons();
+
+        assertEquals(2, Barriered.threads.size());
+        assertNotSame(factory.getBean("first"), factory.getBean("second"));
+    }
+
+    @Test(timeout = 30000)
+    public void createsReferencedBeanFirst() {
+        ParallelPreInstantiationBeanFactory factory = new ParallelPreInstantiationBeanFactory(null, 4);
+        RootBeanDefinition left = new RootBeanDefinition(Left.class);
+        left.getPropertyValues().add("right", new RuntimeBeanReference("right"));
+        factory.registerBeanDefinition("left", left);
+        factory.registerBeanDefinition("right", new RootBeanDefinition(Right.class));
+        factory.registerBeanDefinition("other", new RootBeanDefinition(Other.class));
+
+        factory.preInstantiateSingletons();
+
+        assertSame(factory.getBean("right"), factory.getBean(Left.class).getRight());
+    }
+
+    @Test(expected = BeanCreationException.class, timeout = 30000)
+    public void rethrowsCreationFailure() {
+        ParallelPreInstantiationBeanFactory factory = new ParallelPreInstantiationBeanFactory(null, 4);
+        factory.registerBeanDefinition("left", new RootBeanDefinition(Left.class));
+        factory.registerBeanDefinition("failing", new RootBeanDefinition(Failing.class));
+        factory.registerBeanDefinition("other", new RootBeanDefinition(Other.class));
+
+        factory.preInstantiateSingletons();
+    }
+
+    private static RootBeanDefinition autowiredByType(Class<?> beanClass) {
+        RootBeanDefinition bd = new RootBeanDefinition(beanClass);
+        bd.setAutowireMode(AutowireCapableBeanFactory.AUTOWIRE_BY_TYPE);
+        return bd;
+    }
+
+    private static void pause() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(20);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class Left {
+        private Right right;
+
+        public Left() {
+            pause();
+        }
+
+        public Right getRight() {
+            return right;
+        }
+
+        public void setRight(Right right) {
+            pause();
+            this.right = right;
+        }
+    }
+
+    public static class Right {
+        private Left left;
+
+        public Right() {
+            pause();
+        }
+
+        public Left getLeft() {
+            return left;
+        }
+
+        public void setLeft(Left left) {
+            pause();
+            this.left = left;
+        }
+    }
+
+    public static class Other {
+    }
+
+    public static class Failing {
+        public Failing() {
+            throw new IllegalStateException("failing");
+        }
+    }
+
+    public static class Barriered {
+        static volatile CyclicBarrier barrier;
+        static final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+        public Barriered() throws Exception {
+            threads.add(Thread.currentThread());
+            barrier.await(10, TimeUnit.SECONDS);
+        }
+    }
+}
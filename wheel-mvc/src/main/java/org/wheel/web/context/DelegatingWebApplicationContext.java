@@ -11,21 +11,53 @@ import org.wheel.context.ContextLoadImage;
 import org.wheel.context.MultiVersionContextContainer;
 
 import javax.servlet.ServletContext;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * bean 조회를 요청이 사용하는 image의 context에 위임하는 WebApplicationContext.
+ *
+ * 요청 처리 중에는 {@link #bindRequestImage(ContextLoadImage)}로 지정된 image(요청의 module의 current 또는 canary)에 위임한다.
+ * 요청 밖에서는 container가 하나이면 그 current image에 위임하고, 여러 개이면 어느 module인지 알 수 없으므로 위임하지 않는다.
+ */
 public class DelegatingWebApplicationContext extends AbstractApplicationContext implements WebApplicationContext {
 
     private static final Logger logger = LoggerFactory.getLogger(DelegatingWebApplicationContext.class);
 
     private final ServletContext servletContext;
-    private final MultiVersionContextContainer mvcc;
+    private final List<MultiVersionContextContainer> containers;
 
     private final ConfigurableListableBeanFactory fallbackBeanFactory = new DefaultListableBeanFactory();
 
+    private final ThreadLocal<ContextLoadImage> requestBoundImage = new ThreadLocal<ContextLoadImage>();
+
     public DelegatingWebApplicationContext(WebApplicationContext parent, ServletContext servletContext, MultiVersionContextContainer mvcc) {
+        this(parent, servletContext, Collections.singletonList(mvcc));
+    }
+
+    /**
+     * @param containers  요청 밖에서는 container가 하나인 경우에만 그 current image에 위임한다. close 시에는 모든 container의 image를 close 한다.
+     */
+    public DelegatingWebApplicationContext(WebApplicationContext parent, ServletContext servletContext, List<MultiVersionContextContainer> containers) {
         super(parent);
         this.servletContext = servletContext;
-        this.mvcc = mvcc;
+        this.containers = containers;
+    }
+
+    /**
+     * 현재 스레드의 bean 조회를 image의 context에 위임한다.
+     *
+     * @param image  null이면 지정을 해제한다.
+     * @return 이전에 지정되어 있던 image. 요청 처리가 끝나면 이 메소드로 되돌려야 한다.
+     */
+    public ContextLoadImage bindRequestImage(ContextLoadImage image) {
+        ContextLoadImage previous = requestBoundImage.get();
+        if(image != null) {
+            requestBoundImage.set(image);
+        } else {
+            requestBoundImage.remove();
+        }
+        return previous;
     }
 
     @Override
@@ -59,22 +91,33 @@ public class DelegatingWebApplicationContext extends AbstractApplicationContext
     public void close() {
         super.close();
 
-        // MVCC의 전체 history image를 모두 close 한다.
-        List<ContextLoadImage> history = mvcc.getHistoryCopy();
-        for(ContextLoadImage image : history) {
-            try{
-                image.closeContext();
-                if(logger.isInfoEnabled()) {
-                    logger.info("Closed context of image=" + image);
+        // 각 MVCC의 전체 history image를 모두 close 한다.
+        for(MultiVersionContextContainer mvcc : containers) {
+            List<ContextLoadImage> history = mvcc.getHistoryCopy();
+            for(ContextLoadImage image : history) {
+                try{
+                    image.closeContext();
+                    if(logger.isInfoEnabled()) {
+                        logger.info("Closed context of image=" + image);
+                    }
+                } catch(Exception e) {
+                    logger.warn("Exception occured during close image=" + image, e);
                 }
-            } catch(Exception e) {
-                logger.warn("Exception occured during close image=" + image, e);
             }
         }
     }
 
     private AbstractApplicationContext getDelegateApplicationContext() {
-        ContextLoadImage activeImage = this.mvcc.current();
+        ContextLoadImage activeImage = requestBoundImage.get();
+        if(activeImage == null) {
+            if(this.containers.size() > 1) {
+                throw new IllegalStateException("Outside of a request, beans of " + this.containers.size() + " modules can't be resolved.");
+            }
+            activeImage = this.containers.get(0).current();
+        }
+        if(activeImage == null) {
+            throw new IllegalStateException("Wheel ApplicationContext has not been loaded yet.");
+        }
         if(!activeImage.isSuccess()) {
             throw new IllegalStateException("Insane context.", activeImage.getFailure());
         }
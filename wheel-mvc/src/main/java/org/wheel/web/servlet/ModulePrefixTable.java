@@ -0,0 +1,53 @@
+package org.wheel.web.servlet;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * URL prefix로 module을 찾는 table.
+ *
+ * prefix는 경로의 segment 단위로 비교한다. 경로의 끝에서부터 '/' 단위로 잘라가며 찾으므로
+ * 조회 비용은 prefix 수와 무관하고 경로의 깊이에 비례한다. 초기화 후에는 읽기만 한다.
+ */
+class ModulePrefixTable<T> {
+
+    private final Map<String, T> modules = new HashMap<String, T>();
+
+    /**
+     * @param prefix  "/orders", "/orders/" 등. "" 또는 "/"는 다른 prefix에 해당하지 않는 모든 경로
+     * @return 같은 prefix가 이미 있으면 false
+     */
+    boolean put(String prefix, T module) {
+        String normalized = normalize(prefix);
+        if(modules.containsKey(normalized)) {
+            return false;
+        }
+        modules.put(normalized, module);
+        return true;
+    }
+
+    /**
+     * @return 가장 긴 prefix의 module. 없으면 null
+     */
+    T lookup(String path) {
+        String candidate = normalize(path);
+        while(true) {
+            T module = modules.get(candidate);
+            if(module != null || candidate.isEmpty()) {
+                return module;
+            }
+            candidate = candidate.substring(0, Math.max(0, candidate.lastIndexOf('/')));
+        }
+    }
+
+    private static String normalize(String path) {
+        String normalized = path.trim();
+        if(!normalized.startsWith("/")) {
+            normalized = "/" + normalized;
+        }
+        while(normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+}
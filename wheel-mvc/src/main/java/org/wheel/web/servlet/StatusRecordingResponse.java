@@ -0,0 +1,55 @@
+package org.wheel.web.servlet;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+
+/**
+ * 응답에 설정된 status를 기록한다.
+ *
+ * servlet 2.5의 HttpServletResponse는 status를 조회할 수 없으므로, HandlerExceptionResolver나 handler가
+ * sendError, setStatus로 만든 오류 응답을 요청 통계에 반영하기 위해 사용한다.
+ */
+class StatusRecordingResponse extends HttpServletResponseWrapper {
+
+    private int status = SC_OK;
+
+    StatusRecordingResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    boolean isServerError() {
+        return status >= SC_INTERNAL_SERVER_ERROR;
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        super.setStatus(sc);
+        this.status = sc;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm) {
+        super.setStatus(sc, sm);
+        this.status = sc;
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        super.sendError(sc);
+        this.status = sc;
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        super.sendError(sc, msg);
+        this.status = sc;
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        super.sendRedirect(location);
+        this.status = SC_FOUND;
+    }
+}
@@ -0,0 +1,187 @@
+package org.wheel.web.servlet;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * warm-up 용 가짜 HTTP 요청/응답을 만든다.
+ *
+ * 요청은 method, URI, query string과 attribute만 지원하며 header, session, body는 없다.
+ * 응답으로 쓰여진 내용은 모두 버려진다.
+ */
+class SyntheticRequests {
+
+    private SyntheticRequests() {
+    }
+
+    /**
+     * @param servletContext
+     * @param requestLine    "GET /hello?name=x" 형식. method를 생략하면 GET.
+     */
+    static HttpServletRequest request(ServletContext servletContext, String requestLine) {
+        String line = requestLine.trim();
+        String method = "GET";
+        int space = line.indexOf(' ');
+        if(space > 0) {
+            method = line.substring(0, space).toUpperCase(Locale.ENGLISH);
+            line = line.substring(space + 1).trim();
+        }
+
+        String uri = line;
+        String queryString = null;
+        int question = line.indexOf('?');
+        if(question >= 0) {
+            uri = line.substring(0, question);
+            queryString = line.substring(question + 1);
+        }
+
+        String contextPath = servletContext.getContextPath();
+        if(contextPath == null) {
+            contextPath = "";
+        }
+
+        return (HttpServletRequest)Proxy.newProxyInstance(
+                SyntheticRequests.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class },
+                new RequestHandler(method, contextPath, uri, queryString));
+    }
+
+    static HttpServletResponse response() {
+        return (HttpServletResponse)Proxy.newProxyInstance(
+                SyntheticRequests.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class },
+                new ResponseHandler());
+    }
+
+    private static class RequestHandler implements InvocationHandler {
+
+        private final String method;
+        private final String contextPath;
+        private final String pathInfo;
+        private final String queryString;
+        private final Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        private RequestHandler(String method, String contextPath, String pathInfo, String queryString) {
+            this.method = method;
+            this.contextPath = contextPath;
+            this.pathInfo = pathInfo;
+            this.queryString = queryString;
+
+            if(queryString != null) {
+                for(String pair : queryString.split("&")) {
+                    if(pair.length() == 0) {
+                        continue;
+                    }
+                    int eq = pair.indexOf('=');
+                    String name = eq >= 0 ? pair.substring(0, eq) : pair;
+                    String value = eq >= 0 ? pair.substring(eq + 1) : "";
+                    String[] values = parameters.get(name);
+                    if(values == null) {
+                        parameters.put(name, new String[] { value });
+                    } else {
+                        String[] newValues = new String[values.length + 1];
+                        System.arraycopy(values, 0, newValues, 0, values.length);
+                        newValues[values.length] = value;
+                        parameters.put(name, newValues);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            String name = m.getName();
+
+            if("getMethod".equals(name)) return method;
+            if("getRequestURI".equals(name)) return contextPath + pathInfo;
+            if("getRequestURL".equals(name)) return new StringBuffer("http://localhost").append(contextPath).append(pathInfo);
+            if("getContextPath".equals(name)) return contextPath;
+            if("getServletPath".equals(name)) return "";
+            if("getPathInfo".equals(name)) return pathInfo;
+            if("getQueryString".equals(name)) return queryString;
+            if("getScheme".equals(name)) return "http";
+            if("getProtocol".equals(name)) return "HTTP/1.1";
+            if("getServerName".equals(name) || "getRemoteHost".equals(name) || "getLocalName".equals(name)) return "localhost";
+            if("getRemoteAddr".equals(name) || "getLocalAddr".equals(name)) return "127.0.0.1";
+            if("getServerPort".equals(name) || "getLocalPort".equals(name)) return 80;
+            if("getLocale".equals(name)) return Locale.getDefault();
+            if("getLocales".equals(name)) return Collections.enumeration(Collections.singletonList(Locale.getDefault()));
+
+            if("getParameter".equals(name)) {
+                String[] values = parameters.get(args[0]);
+                return values != null ? values[0] : null;
+            }
+            if("getParameterValues".equals(name)) return parameters.get(args[0]);
+            if("getParameterMap".equals(name)) return Collections.unmodifiableMap(parameters);
+            if("getParameterNames".equals(name)) return Collections.enumeration(parameters.keySet());
+
+            if("getAttribute".equals(name)) return attributes.get(args[0]);
+            if("setAttribute".equals(name)) { attributes.put((String)args[0], args[1]); return null; }
+            if("removeAttribute".equals(name)) { attributes.remove(args[0]); return null; }
+            if("getAttributeNames".equals(name)) return Collections.enumeration(new HashMap<String, Object>(attributes).keySet());
+
+            if("getHeaders".equals(name) || "getHeaderNames".equals(name)) return Collections.enumeration(Collections.emptyList());
+            if("getIntHeader".equals(name) || "getDateHeader".equals(name) || "getContentLength".equals(name)) {
+                return defaultValue(m.getReturnType(), -1);
+            }
+            if("getInputStream".equals(name)) return EMPTY_INPUT_STREAM;
+
+            return defaultValue(m.getReturnType(), 0);
+        }
+    }
+
+    private static class ResponseHandler implements InvocationHandler {
+
+        private final ServletOutputStream outputStream = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        };
+        private final PrintWriter writer = new PrintWriter(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        });
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            String name = m.getName();
+
+            if("getOutputStream".equals(name)) return outputStream;
+            if("getWriter".equals(name)) return writer;
+            if("getCharacterEncoding".equals(name)) return "UTF-8";
+            if("getLocale".equals(name)) return Locale.getDefault();
+            if(name.startsWith("encode")) return args[0];
+
+            return defaultValue(m.getReturnType(), 0);
+        }
+    }
+
+    private static Object defaultValue(Class<?> type, int number) {
+        if(type == boolean.class) return Boolean.FALSE;
+        if(type == int.class) return number;
+        if(type == long.class) return (long)number;
+        return null;
+    }
+
+    private static final ServletInputStream EMPTY_INPUT_STREAM = new ServletInputStream() {
+        @Override
+        public int read() {
+            return -1;
+        }
+    };
+}
@@ -28,9 +28,11 @@ import org.springframework.web.servlet.*;
 import org.springframework.web.util.NestedServletException;
 import org.springframework.web.util.UrlPathHelper;
 import org.springframework.web.util.WebUtils;
+import org.wheel.context.CanaryChangeListener;
+import org.wheel.context.ContextCloseListener;
 import org.wheel.context.ContextLoadImage;
+import org.wheel.context.ContextLoadImageWarmer;
 import org.wheel.context.MultiVersionContextContainer;
-import org.wheel.context.MultiVersionContextContainerListener;
 import org.wheel.web.context.DelegatingWebApplicationContext;
 
 import javax.naming.Context;
@@ -40,11 +42,22 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.swing.text.html.HTMLDocument;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
-public class WheelDispatcherServlet extends FrameworkServlet implements MultiVersionContextContainerListener {
+/**
+ * 하나 이상의 {@link MultiVersionContextContainer}의 current(또는 canary) image로 요청을 처리하는 DispatcherServlet.
+ *
+ * container가 여러 개이면 각 container(module)는 자신의 jar 디렉토리, loader, history를 가지며 따로 reload 된다.
+ * 이때 container마다 별도의 loader bean과 destJarBaseDirectory를 지정해야 한다.
+ * 요청은 modulePrefixes에 지정된 URL prefix 중 가장 긴 것에 해당하는 module로 보내진다.
+ */
+public class WheelDispatcherServlet extends FrameworkServlet {
 
 
     public static final String MULTIPART_RESOLVER_BEAN_NAME = "multipartResolver";
@@ -73,6 +86,8 @@ public class WheelDispatcherServlet extends FrameworkServlet implements MultiVer
 
     public static final String THEME_SOURCE_ATTRIBUTE = DispatcherServlet.class.getName() + ".THEME_SOURCE";
 
+    public static final String MODULE_ATTRIBUTE = WheelDispatcherServlet.class.getName() + ".MODULE";
+
     public static final String PAGE_NOT_FOUND_LOG_CATEGORY = "org.springframework.web.servlet.PageNotFound";
 
     private static final String DEFAULT_STRATEGIES_PATH = "DispatcherServlet.properties";
@@ -102,7 +117,27 @@ public class WheelDispatcherServlet extends FrameworkServlet implements MultiVer
 
     private boolean threadContextInheritable = false;
 
-    private volatile Strategies complexContextStrategies;
+    // container bean 이름 -> URL prefix
+    private final Map<String, String> modulePrefixes = new LinkedHashMap<String, String>();
+
+    private List<Module> modules = Collections.emptyList();
+
+    private ModulePrefixTable<Module> moduleTable = new ModulePrefixTable<Module>();
+
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    private String[] warmUpRequests = new String[0];
+
+    private String canaryStickyHeader;
+
+    private boolean canaryStickySession = false;
+
+    private boolean awaitFirstLoad = true;
+
+    private int startingRetryAfterSecs = 5;
+
+    // 최초 image가 활성화되기 전의 응답. init 시 미리 만들어 둔다.
+    private byte[] startingResponseBody;
 
     public void setDetectAllHandlerMappings(boolean detectAllHandlerMappings) {
         this.detectAllHandlerMappings = detectAllHandlerMappings;
@@ -128,40 +163,116 @@ public class WheelDispatcherServlet extends FrameworkServlet implements MultiVer
         this.threadContextInheritable = threadContextInheritable;
     }
 
+    /**
+     * 지정하면 이 header 값이 같은 요청은 항상 같은 image(canary 또는 current)로 보내진다.
+     */
+    public void setCanaryStickyHeader(String canaryStickyHeader) {
+        this.canaryStickyHeader = canaryStickyHeader;
+    }
+
+    /**
+     * true로 설정하면 같은 session의 요청은 항상 같은 image(canary 또는 current)로 보내진다.
+     * canaryStickyHeader가 우선한다.
+     */
+    public void setCanaryStickySession(boolean canaryStickySession) {
+        this.canaryStickySession = canaryStickySession;
+    }
+
+    /**
+     * false로 설정하면 최초 load를 기다리지 않고 servlet 초기화를 끝낸다.
+     * 최초 image가 활성화되기 전까지의 요청에는 503과 Retry-After(startingRetryAfterSecs)로 응답한다.
+     */
+    public void setAwaitFirstLoad(boolean awaitFirstLoad) {
+        this.awaitFirstLoad = awaitFirstLoad;
+    }
+
+    public void setStartingRetryAfterSecs(int startingRetryAfterSecs) {
+        this.startingRetryAfterSecs = startingRetryAfterSecs;
+    }
+
+    /**
+     * container bean 이름별 URL prefix. "ordersContainer=/orders, usersContainer=/users" 형식.
+     * prefix는 경로의 segment 단위로 비교되며("/orders"는 "/orders/list"에 해당하고 "/ordersX"에는 해당하지 않는다),
+     * prefix를 제외하지 않은 경로로 handler를 찾는다. "/"로 지정한 module은 다른 prefix에 해당하지 않는 요청을 처리한다.
+     * container가 하나이면 지정하지 않아도 되며, 여러 개이면 모든 container의 prefix를 지정해야 한다.
+     * servlet init-param으로도 지정할 수 있다.
+     */
+    public void setModulePrefixes(String modulePrefixes) {
+        this.modulePrefixes.clear();
+        for(String entry : StringUtils.tokenizeToStringArray(modulePrefixes, ",")) {
+            int index = entry.indexOf('=');
+            if(index <= 0) {
+                throw new IllegalArgumentException("Invalid module prefix [" + entry + "]. Use 'containerBeanName=/prefix'.");
+            }
+            this.modulePrefixes.put(entry.substring(0, index).trim(), entry.substring(index + 1).trim());
+        }
+    }
+
+    /**
+     * 새 image 활성화 전에 warm-up으로 실행할 요청 목록. "GET /hello, POST /order?id=1" 형식.
+     * 각 요청은 URL prefix에 해당하는 module의 image에서만 실행된다. servlet init-param으로도 지정할 수 있다.
+     */
+    public void setWarmUpRequests(String warmUpRequests) {
+        this.warmUpRequests = StringUtils.tokenizeToStringArray(warmUpRequests, ",");
+    }
+
     @Override
     protected WebApplicationContext initWebApplicationContext() throws BeansException {
         WebApplicationContext originalWac = super.initWebApplicationContext();
         String[] names = originalWac.getBeanNamesForType(MultiVersionContextContainer.class);
 
-        if(names.length != 1) {
+        if(names.length == 0) {
             throw new NoSuchBeanDefinitionException(
-                    "Exactly 1 instance of " + MultiVersionContextContainer.class.getName() + " must exist, there is(are) " + names.length + " instance(s)."
+                    "At least 1 instance of " + MultiVersionContextContainer.class.getName() + " must exist."
             );
         }
 
-        // Only 1 instance
-        MultiVersionContextContainer mvcc = (MultiVersionContextContainer)originalWac.getBean(names[0]);
+        initModules(originalWac, names);
 
         // Create delegating wac
-        DelegatingWebApplicationContext delegatingWac = new DelegatingWebApplicationContext(originalWac, getServletContext(), mvcc);
+        List<MultiVersionContextContainer> containers = new ArrayList<MultiVersionContextContainer>();
+        for(Module module : modules) {
+            containers.add(module.mvcc);
+        }
+        DelegatingWebApplicationContext delegatingWac = new DelegatingWebApplicationContext(originalWac, getServletContext(), containers);
+        this.delegatingWac = delegatingWac;
 
         // Register listener
-        mvcc.addListener(this);
+        for(Module module : modules) {
+            module.mvcc.addListener(module);
+            if(warmUpRequests.length > 0) {
+                module.mvcc.addWarmer(module);
+            }
+        }
 
-        // Start
-        Future<ContextLoadImage> imageFuture = mvcc.startLoad();
+        // Start. 각 container의 최초 load는 동시에 진행된다.
+        List<Future<ContextLoadImage>> imageFutures = new ArrayList<Future<ContextLoadImage>>();
+        for(Module module : modules) {
+            imageFutures.add(module.mvcc.startLoad());
+        }
 
-        try {
-            if(logger.isDebugEnabled()) {
-                logger.debug("Started first-loading Wheel Application Context and waiting for finishing...");
-            }
-            imageFuture.get();
+        if(!awaitFirstLoad) {
+            this.startingResponseBody = ("Service is starting. Retry after " + startingRetryAfterSecs + " seconds.\n")
+                    .getBytes(Charset.forName("US-ASCII"));
+            logger.info("Started first-loading Wheel Application Context. Requests will be answered with 503 until it is activated.");
+            return delegatingWac;
         }
-        catch(InterruptedException e) {
-            logger.error("Interrupted.", e);
+
+        if(logger.isDebugEnabled()) {
+            logger.debug("Started first-loading Wheel Application Context and waiting for finishing...");
         }
-        catch(ExecutionException e) {
-            logger.error("Loading failed.", e);
+        for(int i = 0; i < imageFutures.size(); i++) {
+            try {
+                imageFutures.get(i).get();
+            }
+            catch(InterruptedException e) {
+                logger.error("Interrupted.", e);
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch(ExecutionException e) {
+                logger.error("Loading failed. module=" + modules.get(i).name, e);
+            }
         }
 
         // START Wrapper
@@ -177,18 +288,98 @@ public class WheelDispatcherServlet extends FrameworkServlet implements MultiVer
         return delegatingWac;
     }
 
-    protected void refreshStrategies(ContextLoadImage image) {
+    private void initModules(WebApplicationContext wac, String[] names) {
+        for(String prefixedName : modulePrefixes.keySet()) {
+            if(!Arrays.asList(names).contains(prefixedName)) {
+                throw new BeanInitializationException("modulePrefixes refers to [" + prefixedName + "], but there is no "
+                        + MultiVersionContextContainer.class.getName() + " with that name. Existing names=" + Arrays.toString(names));
+            }
+        }
+
+        List<Module> newModules = new ArrayList<Module>();
+        ModulePrefixTable<Module> newModuleTable = new ModulePrefixTable<Module>();
+        for(String name : names) {
+            String prefix = modulePrefixes.get(name);
+            if(prefix == null) {
+                if(names.length > 1) {
+                    throw new BeanInitializationException("There are " + names.length + " instances of "
+                            + MultiVersionContextContainer.class.getName() + ". Set URL prefix of [" + name + "] in modulePrefixes.");
+                }
+                prefix = "/";
+            }
+
+            Module module = new Module(name, (MultiVersionContextContainer)wac.getBean(name));
+            if(!newModuleTable.put(prefix, module)) {
+                throw new BeanInitializationException("URL prefix [" + prefix + "] of [" + name + "] is duplicated.");
+            }
+            newModules.add(module);
+            logger.info("Module [" + name + "] serves requests under [" + prefix + "]");
+        }
+
+        this.modules = Collections.unmodifiableList(newModules);
+        this.moduleTable = newModuleTable;
+    }
+
+    /**
+     * @return 요청 경로에 해당하는 module. 없으면 null
+     */
+    private Module moduleOf(HttpServletRequest request) {
+        Module module = (Module)request.getAttribute(MODULE_ATTRIBUTE);
+        if(module == null) {
+            module = moduleTable.lookup(urlPathHelper.getLookupPathForRequest(request));
+        }
+        return module;
+    }
+
+    /**
+     * image의 strategies를 미리 만들어 둔다. 요청은 container의 current() 또는 canary()가 이 image로 바뀐 후에 사용한다.
+     */
+    private Strategies prepareStrategies(Module module, ContextLoadImage image) {
+        Strategies strategies = module.strategiesCache.get(image);
+        if(strategies != null) {
+            return strategies;
+        }
+
+        synchronized (module.strategiesCache) {
+            strategies = module.strategiesCache.get(image);
+            if(strategies == null) {
+                evictUnusedStrategies(module);
+                long startNanos = System.nanoTime();
+                strategies = buildStrategies(module, image);
+                image.getLoadMetrics().setStrategyInitMilis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                module.strategiesCache.put(image, strategies);
+            }
+            return strategies;
+        }
+    }
+
+    /**
+     * retire된 image와 더 이상 current가 아닌 failure image의 strategies를 버린다.
+     * 이미 요청을 처리중인 스레드는 strategies를 직접 참조하므로 영향이 없다.
+     */
+    private void evictUnusedStrategies(Module module) {
+        ContextLoadImage current = module.mvcc.current();
+        Iterator<ContextLoadImage> it = module.strategiesCache.keySet().iterator();
+        while(it.hasNext()) {
+            ContextLoadImage image = it.next();
+            if(image.isRetired() || (!image.isSuccess() && image != current)) {
+                it.remove();
+            }
+        }
+    }
+
+    private Strategies buildStrategies(Module module, ContextLoadImage image) {
         if(logger.isDebugEnabled()) {
             logger.debug("initStrategies() with " + image.getApplicationContext());
         }
 
         Strategies newStrategies = new Strategies();
+        newStrategies.module = module;
         newStrategies.latestImage = image;
 
         if(!image.isSuccess()) {
             logger.error("Wheel ApplicationContext is not capable for service. Fix the problem and reload.", image.getFailure());
-            this.complexContextStrategies = newStrategies;
-            return;
+            return newStrategies;
         }
 
         ApplicationContext context = image.getApplicationContext();
@@ -202,7 +393,43 @@ public class WheelDispatcherServlet extends FrameworkServlet implements MultiVer
         initRequestToViewNameTranslator(newStrategies, context);
         initViewResolvers(newStrategies, context);
 
-        this.complexContextStrategies = newStrategies;
+        return newStrategies;
+    }
+
+    /**
+     * 활성화 전의 module image로 warmUpRequests 중 그 module에 해당하는 요청을 실행한다.
+     * handler mapping, adapter, view resolver까지 실제 요청과 같은 경로를 거치며 응답은 버려진다.
+     * 여기서 만든 strategies는 활성화 시에 그대로 사용된다.
+     */
+    private void warmUp(Module module, ContextLoadImage image) throws Exception {
+        Strategies strategies = prepareStrategies(module, image);
+
+        Strategies previous = requestBoundedStrategies.get();
+        requestBoundedStrategies.set(strategies);
+        ContextLoadImage previousImage = delegatingWac.bindRequestImage(image);
+        try {
+            for(String warmUpRequest : warmUpRequests) {
+                HttpServletRequest request = SyntheticRequests.request(getServletContext(), warmUpRequest);
+                if(moduleTable.lookup(urlPathHelper.getLookupPathForRequest(request)) != module) {
+                    continue;   // 다른 module의 요청
+                }
+                request.setAttribute(WEB_APPLICATION_CONTEXT_ATTRIBUTE, getWebApplicationContext());
+                request.setAttribute(LOCALE_RESOLVER_ATTRIBUTE, strategies.localeResolver);
+                request.setAttribute(THEME_RESOLVER_ATTRIBUTE, strategies.themeResolver);
+
+                try {
+                    doDispatch(request, SyntheticRequests.response());
+                } catch(Exception e) {
+                    // 요청 자체의 실패는 warm-up을 중단시키지 않는다.
+                    if(logger.isDebugEnabled()) {
+                        logger.debug("Warm-up request [" + warmUpRequest + "] failed on image=" + image.getId(), e);
+                    }
+                }
+            }
+        } finally {
+            delegatingWac.bindRequestImage(previousImage);
+            requestBoundedStrategies.set(previous);
+        }
     }
 
     private void initMultipartResolver(Strategies newStrategies, ApplicationContext context) {
@@ -435,6 +662,45 @@ public class WheelDispatcherServlet extends FrameworkServlet implements MultiVer
         return context.getAutowireCapableBeanFactory().createBean(clazz);
     }
 
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Module module = moduleTable.lookup(urlPathHelper.getLookupPathForRequest(request));
+        if(module == null) {
+            if(pageNotFoundLogger.isWarnEnabled()) {
+                pageNotFoundLogger.warn("No module found for HTTP request with URI [" + urlPathHelper.getRequestUri(request)
+                        + "] in DispatcherServlet with name '" + getServletName() + "'");
+            }
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        // 최초 image가 활성화되기 전이면 FrameworkServlet의 요청 처리(LocaleContext, 이벤트 발행 등)를 거치지 않고 바로 응답한다.
+        if(this.startingResponseBody != null && module.mvcc.current() == null) {
+            respondStarting(response);
+            return;
+        }
+        // include, forward된 요청은 다시 찾으므로 원래 값을 되돌린다.
+        Object previousModule = request.getAttribute(MODULE_ATTRIBUTE);
+        request.setAttribute(MODULE_ATTRIBUTE, module);
+        try {
+            super.service(request, response);
+        } finally {
+            if(previousModule != null) {
+                request.setAttribute(MODULE_ATTRIBUTE, previousModule);
+            } else {
+                request.removeAttribute(MODULE_ATTRIBUTE);
+            }
+        }
+    }
+
+    private void respondStarting(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", String.valueOf(startingRetryAfterSecs));
+        response.setHeader("Cache-Control", "no-store");
+        response.setContentType("text/plain");
+        response.setContentLength(startingResponseBody.length);
+        response.getOutputStream().write(startingResponseBody);
+    }
+
     @Override
     protected void doService(HttpServletRequest request, HttpServletResponse response) throws Exception {
         if(logger.isDebugEnabled()) {
@@ -442,8 +708,13 @@ public class WheelDispatcherServlet extends FrameworkServlet implements MultiVer
             logger.debug("DispatcherServlet with name '" + getServletName() + "' processing request for [" + requestUri + "]");
         }
 
-        prepareHttpProcessing();
+        Strategies previous = prepareHttpProcessing(request);
+        Strategies strategies = requestBoundedStrategies.get();
 
+        // HandlerExceptionResolver 등이 만든 5xx 응답도 실패로 집계한다.
+        StatusRecordingResponse recordingResponse = new StatusRecordingResponse(response);
+        long startNanos = System.nanoTime();
+        boolean failed = true;
         try {
             Map attributesSnapshot = null;
             if(WebUtils.isIncludeRequest(request)) {
@@ -459,12 +730,13 @@ public class WheelDispatcherServlet extends FrameworkServlet implements MultiVer
             }
 
             request.setAttribute(WEB_APPLICATION_CONTEXT_ATTRIBUTE, getWebApplicationContext());
-            request.setAttribute(LOCALE_RESOLVER_ATTRIBUTE, complexContextStrategies.localeResolver);
-            request.setAttribute(THEME_RESOLVER_ATTRIBUTE, complexContextStrategies.themeResolver);
+            request.setAttribute(LOCALE_RESOLVER_ATTRIBUTE, requestBoundedStrategies.get().localeResolver);
+            request.setAttribute(THEME_RESOLVER_ATTRIBUTE, requestBoundedStrategies.get().themeResolver);
             request.setAttribute(THEME_SOURCE_ATTRIBUTE, getThemeSource());
 
             try {
-                doDispatch(request, response);
+                doDispatch(request, recordingResponse);
+                failed = recordingResponse.isServerError();
             } finally {
                 if(attributesSnapshot != null) {
                     restoreAttributesAfterInclude(request, attributesSnapshot);
@@ -472,23 +744,122 @@ public class WheelDispatcherServlet extends FrameworkServlet implements MultiVer
             }
 
         } finally {
-            finishHttpProcessing();
+            try {
+                strategies.latestImage.getTrafficStats().record(System.nanoTime() - startNanos, failed);
+            } finally {
+                finishHttpProcessing(strategies, previous);
+            }
         }
     }
 
-    private void prepareHttpProcessing() {
-        if(!this.complexContextStrategies.latestImage.isSuccess()) {
-            throw new IllegalStateException("Wheel ApplicationContext is not capable for service. Fix the problem and reload.", this.complexContextStrategies.latestImage.getFailure());
+    /**
+     * 요청의 strategies를 선택하여 image의 lease를 획득하고 thread-local에 설정한다.
+     * include, forward로 중첩된 요청은 바깥 요청의 strategies를 덮어쓰므로 이전 값을 반환한다.
+     *
+     * @return 이전에 thread-local에 설정되어 있던 strategies. {@link #finishHttpProcessing}에 전달해야 한다.
+     */
+    private Strategies prepareHttpProcessing(HttpServletRequest request) {
+        Strategies previous = requestBoundedStrategies.get();
+        Strategies strategies = selectStrategies(request);
+        while(true) {
+            if(!strategies.latestImage.isSuccess()) {
+                throw new IllegalStateException("Wheel ApplicationContext is not capable for service. Fix the problem and reload.", strategies.latestImage.getFailure());
+            }
+
+            // =====================================================
+            // Lease 획득: 요청 처리 중에는 image의 context가 close되지 않는다.
+            // =====================================================
+            if(strategies.module.mvcc.tryAcquire(strategies.latestImage)) {
+                break;
+            }
+
+            // lease 획득 도중 image가 교체된 경우에만 새 strategies로 재시도한다.
+            Strategies latest = selectStrategies(request);
+            if(latest == strategies) {
+                throw new IllegalStateException("Wheel ApplicationContext of image=" + strategies.latestImage.getId() + " has been retired.");
+            }
+            strategies = latest;
         }
 
         // =====================================================
         // Thread-local SET
         // =====================================================
-        requestBoundedStrategies.set(complexContextStrategies);
+        requestBoundedStrategies.set(strategies);
+        delegatingWac.bindRequestImage(strategies.latestImage);
+        return previous;
+    }
+
+    /**
+     * 요청의 module에서 canary가 실행중이면 weight에 따라 canary 또는 current image의 strategies를 선택한다.
+     */
+    private Strategies selectStrategies(HttpServletRequest request) {
+        Module module = moduleOf(request);
+        if(module == null) {
+            throw new IllegalStateException("No module serves [" + urlPathHelper.getLookupPathForRequest(request) + "].");
+        }
+
+        ContextLoadImage canary = module.mvcc.canary();
+        if(canary != null) {
+            int weightPercent = module.mvcc.getCanaryWeightPercent();
+            if(weightPercent >= 100 || (weightPercent > 0 && canaryBucketOf(request) < weightPercent)) {
+                Strategies strategies = module.canaryStrategies;
+                if(strategies == null || strategies.latestImage != canary) {
+                    strategies = prepareStrategies(module, canary);
+                    module.canaryStrategies = strategies;
+                }
+                return strategies;
+            }
+        }
+
+        ContextLoadImage current = module.mvcc.current();
+        if(current == null) {
+            throw new IllegalStateException("Wheel ApplicationContext of module [" + module.name + "] has not been loaded yet.");
+        }
+        Strategies strategies = module.complexContextStrategies;
+        if(strategies == null || strategies.latestImage != current) {
+            strategies = prepareStrategies(module, current);
+            module.complexContextStrategies = strategies;
+        }
+        return strategies;
     }
 
-    private void finishHttpProcessing() {
-        requestBoundedStrategies.set(null);
+    /**
+     * 요청을 0~99의 bucket에 배정한다. sticky key가 없으면 무작위로 배정한다.
+     * weight가 커져도 이미 canary로 배정된 key는 계속 canary에 남는다.
+     */
+    private int canaryBucketOf(HttpServletRequest request) {
+        String stickyKey = null;
+        if(this.canaryStickyHeader != null) {
+            stickyKey = request.getHeader(this.canaryStickyHeader);
+        }
+        if(stickyKey == null && this.canaryStickySession) {
+            // session을 새로 만들지 않도록 요청에 포함된 session id를 사용한다.
+            stickyKey = request.getRequestedSessionId();
+        }
+        if(stickyKey == null) {
+            return ThreadLocalRandom.current().nextInt(100);
+        }
+
+        // String.hashCode()는 캐시되며, 인접한 key가 고르게 퍼지도록 섞는다(murmur3 fmix32).
+        int h = stickyKey.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % 100;
+    }
+
+    /**
+     * {@link #prepareHttpProcessing}이 획득한 lease만 반환하고 thread-local을 이전 값으로 되돌린다.
+     *
+     * @param strategies  prepareHttpProcessing이 설정한 strategies
+     * @param previous    prepareHttpProcessing이 반환한 strategies
+     */
+    private void finishHttpProcessing(Strategies strategies, Strategies previous) {
+        requestBoundedStrategies.set(previous);
+        delegatingWac.bindRequestImage(previous != null ? previous.latestImage : null);
+        strategies.module.mvcc.release(strategies.latestImage);
     }
 
     protected void doDispatch(HttpServletRequest request, HttpServletResponse response) throws Exception {
@@ -594,7 +965,8 @@ public class WheelDispatcherServlet extends FrameworkServlet implements MultiVer
             logger.debug("DispatcherServlet with name '" + getServletName() + "' determining Last-Modified value for [" + requestUri + "]");
         }
 
-        prepareHttpProcessing();
+        Strategies previous = prepareHttpProcessing(request);
+        Strategies strategies = requestBoundedStrategies.get();
 
         try {
             HandlerExecutionChain mappedHandler = getHandler(request, true);
@@ -614,7 +986,7 @@ public class WheelDispatcherServlet extends FrameworkServlet implements MultiVer
             logger.debug("Exception thrown in getLastModified", ex);
             return -1;
         } finally {
-            finishHttpProcessing();
+            finishHttpProcessing(strategies, previous);
         }
     }
 
@@ -823,16 +1195,73 @@ public class WheelDispatcherServlet extends FrameworkServlet implements MultiVer
         }
     }
 
-    @Override
-    public void beforeActivation(ContextLoadImage image) {
-        refreshStrategies(image);
+    /**
+     * 하나의 container와 그 image들의 strategies. container의 listener, warmer로 등록된다.
+     */
+    private class Module implements CanaryChangeListener, ContextCloseListener, ContextLoadImageWarmer {
+
+        private final String name;
+
+        private final MultiVersionContextContainer mvcc;
+
+        // current, canary image의 strategies. container의 current(), canary()와 다르면 strategiesCache에서 다시 찾는다.
+        private volatile Strategies complexContextStrategies;
+
+        private volatile Strategies canaryStrategies;
+
+        // listener 통지(활성화 전) 또는 warm-up 시에 미리 만들어 둔 image별 strategies
+        private final Map<ContextLoadImage, Strategies> strategiesCache = new ConcurrentHashMap<ContextLoadImage, Strategies>();
+
+        private Module(String name, MultiVersionContextContainer mvcc) {
+            this.name = name;
+            this.mvcc = mvcc;
+        }
+
+        @Override
+        public void beforeActivation(ContextLoadImage image) {
+            prepareStrategies(this, image);
+        }
+
+        @Override
+        public void canaryChanged(ContextLoadImage canary, int weightPercent) {
+            if(canary != null) {
+                prepareStrategies(this, canary);
+            }
+        }
+
+        /**
+         * close된 image의 strategies(bean 참조)를 버려 image의 classloader가 GC 될 수 있도록 한다.
+         */
+        @Override
+        public void contextClosed(ContextLoadImage image) {
+            strategiesCache.remove(image);
+
+            Strategies strategies = this.complexContextStrategies;
+            if(strategies != null && strategies.latestImage == image) {
+                this.complexContextStrategies = null;
+            }
+            strategies = this.canaryStrategies;
+            if(strategies != null && strategies.latestImage == image) {
+                this.canaryStrategies = null;
+            }
+        }
+
+        @Override
+        public void warmUp(ContextLoadImage image) throws Exception {
+            WheelDispatcherServlet.this.warmUp(this, image);
+        }
     }
 
     // request-bounded(current request) strategies
     private ThreadLocal<Strategies> requestBoundedStrategies = new ThreadLocal<Strategies>();
 
+    // bean 조회를 요청의 image에 위임하는 wac. 요청마다 requestBoundedStrategies의 image가 지정된다.
+    private DelegatingWebApplicationContext delegatingWac;
+
     private class Strategies {
 
+        private Module module;
+
         private ContextLoadImage latestImage;
 
         private MultipartResolver multipartResolver;
@@ -0,0 +1,250 @@
+package org.wheel.web.servlet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.web.context.support.StaticWebApplicationContext;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.Controller;
+import org.wheel.context.ContextLoadImage;
+import org.wheel.context.ContextLoader;
+import org.wheel.context.ContextLoaderListener;
+import org.wheel.context.DefaultMultiVersionContextContainer;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WheelDispatcherServletTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ServletContext servletContext = stub(ServletContext.class);
+    private final WheelDispatcherServlet servlet = new WheelDispatcherServlet();
+
+    private final AtomicInteger outerLeaseCount = new AtomicInteger(-1);
+    private final AtomicInteger innerLeaseCount = new AtomicInteger(-1);
+    private final AtomicInteger leaseCountAfterInner = new AtomicInteger(-1);
+    private final Set<String> warmedUpRequests = Collections.synchronizedSet(new HashSet<String>());
+
+    private DefaultMultiVersionContextContainer container;
+    private ContextLoadImage image;
+
+    @Before
+    public void setUp() throws Exception {
+        container = newContainer("single");
+        initServlet(servlet, Collections.singletonMap("container", container));
+        image = container.current();
+        assertNotNull(image);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        servlet.destroy();
+        container.destroy();
+    }
+
+    private DefaultMultiVersionContextContainer newContainer(String name) throws Exception {
+        DefaultMultiVersionContextContainer container = new DefaultMultiVersionContextContainer();
+        container.setLoader(new ImageContextLoader(name));
+        container.setSrcJarDirectory(temporaryFolder.newFolder(name + "-src"));
+        container.setDestJarBaseDirectory(temporaryFolder.newFolder(name + "-dest"));
+        container.setEnableAutoReload(false);
+        container.setJmxEnabled(false);
+        container.setMemoryPressureThresholdRatio(0);
+        container.setReuseLastStagedLoad(false);
+        container.setWarmUpMaxIterations(1);
+        container.afterPropertiesSet();
+        return container;
+    }
+
+    private void initServlet(WheelDispatcherServlet servlet, Map<String, DefaultMultiVersionContextContainer> containers) throws Exception {
+        StaticWebApplicationContext wac = new StaticWebApplicationContext();
+        wac.setServletContext(servletContext);
+        for(Map.Entry<String, DefaultMultiVersionContextContainer> entry : containers.entrySet()) {
+            wac.getBeanFactory().registerSingleton(entry.getKey(), entry.getValue());
+        }
+        wac.refresh();
+
+        servlet.setApplicationContext(wac);
+        // DelegatingWebApplicationContext는 refresh 되지 않으므로 요청 처리 이벤트를 발행하지 않는다.
+        servlet.setPublishEvents(false);
+        servlet.init(stub(ServletConfig.class));
+    }
+
+    /**
+     * include, forward와 같이 같은 스레드에서 중첩된 요청이 끝나도 바깥 요청의 lease는 바깥 요청이 끝날 때 반환된다.
+     */
+    @Test
+    public void nestedDispatchReleasesEveryLease() throws Exception {
+        servlet.service(request("/outer"), SyntheticRequests.response());
+
+        assertEquals(1, outerLeaseCount.get());
+        assertEquals(2, innerLeaseCount.get());
+        assertEquals(1, leaseCountAfterInner.get());
+        assertEquals(0, image.getLeaseCount());
+
+        // 다음 요청은 이전 요청의 strategies를 이어받지 않는다.
+        servlet.service(request("/inner"), SyntheticRequests.response());
+        assertEquals(1, innerLeaseCount.get());
+        assertEquals(0, image.getLeaseCount());
+
+        image.retire();
+        assertTrue(image.awaitDrained(0));
+    }
+
+    /**
+     * 예외 없이 처리되었더라도 5xx 응답은 image의 실패로 집계된다.
+     */
+    @Test
+    public void countsServerErrorResponsesAsFailures() throws Exception {
+        servlet.service(request("/inner"), SyntheticRequests.response());
+        servlet.service(request("/error"), SyntheticRequests.response());
+        servlet.service(request("/unavailable"), SyntheticRequests.response());
+        servlet.service(request("/missing"), SyntheticRequests.response());
+
+        assertEquals(4, image.getTrafficStats().getRequestCount());
+        assertEquals(2, image.getTrafficStats().getErrorCount());
+    }
+
+    /**
+     * 각 module의 image는 자신의 URL prefix에 해당하는 warm-up 요청만 실행한다.
+     */
+    @Test
+    public void warmsUpEachModuleWithItsOwnRequests() throws Exception {
+        Map<String, DefaultMultiVersionContextContainer> containers = new LinkedHashMap<String, DefaultMultiVersionContextContainer>();
+        containers.put("a", newContainer("a"));
+        containers.put("b", newContainer("b"));
+        WheelDispatcherServlet modularServlet = new WheelDispatcherServlet();
+        modularServlet.setModulePrefixes("a=/a, b=/b");
+        modularServlet.setWarmUpRequests("/a/hit, /b/hit");
+        try {
+            initServlet(modularServlet, containers);
+
+            assertEquals(new HashSet<String>(Arrays.asList("a:/a/hit", "b:/b/hit")), warmedUpRequests);
+        } finally {
+            modularServlet.destroy();
+            for(DefaultMultiVersionContextContainer moduleContainer : containers.values()) {
+                moduleContainer.destroy();
+            }
+        }
+    }
+
+    private HttpServletRequest request(String uri) {
+        return SyntheticRequests.request(servletContext, uri);
+    }
+
+    private StaticApplicationContext imageContext(final String name) {
+        StaticApplicationContext context = new StaticApplicationContext();
+        for(final String path : new String[] { "/a/hit", "/b/hit" }) {
+            context.getBeanFactory().registerSingleton(path, new Controller() {
+                @Override
+                public ModelAndView handleRequest(HttpServletRequest request, HttpServletResponse response) {
+                    warmedUpRequests.add(name + ":" + path);
+                    return null;
+                }
+            });
+        }
+        context.getBeanFactory().registerSingleton("/outer", new Controller() {
+            @Override
+            public ModelAndView handleRequest(HttpServletRequest request, HttpServletResponse response) throws Exception {
+                outerLeaseCount.set(image.getLeaseCount());
+                servlet.service(request("/inner"), response);
+                leaseCountAfterInner.set(image.getLeaseCount());
+                return null;
+            }
+        });
+        context.getBeanFactory().registerSingleton("/inner", new Controller() {
+            @Override
+            public ModelAndView handleRequest(HttpServletRequest request, HttpServletResponse response) {
+                innerLeaseCount.set(image.getLeaseCount());
+                return null;
+            }
+        });
+        context.getBeanFactory().registerSingleton("/error", new Controller() {
+            @Override
+            public ModelAndView handleRequest(HttpServletRequest request, HttpServletResponse response) throws Exception {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return null;
+            }
+        });
+        context.getBeanFactory().registerSingleton("/unavailable", new Controller() {
+            @Override
+            public ModelAndView handleRequest(HttpServletRequest request, HttpServletResponse response) {
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return null;
+            }
+        });
+        context.refresh();
+        return context;
+    }
+
+    private class ImageContextLoader implements ContextLoader {
+
+        private final String name;
+        private ContextLoaderListener listener;
+
+        private ImageContextLoader(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public ContextLoadImage load(String loadId, File[] jarFiles, Map<String, Object> loadAttributes) {
+            ContextLoadImage loaded = ContextLoadImage.withSuccess(loadId, new Date(), new Date(), imageContext(name), loadAttributes);
+            listener.loadFinished(loaded);
+            return loaded;
+        }
+
+        @Override
+        public void registerListener(ContextLoaderListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public String[] getConfigLocations() {
+            return new String[0];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T stub(Class<T> type) {
+        return (T)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] args) {
+                String name = m.getName();
+                if("getServletContext".equals(name)) return servletContext;
+                if("getServletName".equals(name) || "getServletContextName".equals(name)) return "wheel";
+                if("getContextPath".equals(name)) return "";
+                if("getMajorVersion".equals(name)) return 2;
+                if("getMinorVersion".equals(name)) return 5;
+                if("hashCode".equals(name)) return System.identityHashCode(proxy);
+                if("equals".equals(name)) return proxy == args[0];
+                if("toString".equals(name)) return "stub " + m.getDeclaringClass().getSimpleName();
+                if(m.getReturnType() == Enumeration.class) return Collections.enumeration(Collections.emptyList());
+                if(m.getReturnType() == boolean.class) return Boolean.FALSE;
+                if(m.getReturnType() == int.class) return 0;
+                return null;
+            }
+        });
+    }
+}